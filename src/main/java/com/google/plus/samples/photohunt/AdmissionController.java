@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Decides whether write requests are served or shed, before they do any
+ * datastore or Google API work.  Each client gets a rate-limited bucket per
+ * endpoint, and the instance as a whole serves a bounded number of writes at
+ * a time.
+ * <p/>
+ * Buckets are kept as a single theoretical arrival time updated with
+ * compare-and-set (the generic cell rate algorithm, equivalent to a token
+ * bucket), so admitting a request never takes a lock.
+ * <p/>
+ * Limits are read from these context parameters in web.xml:
+ * photohunt.admission.writesPerMinute, photohunt.admission.burst and
+ * photohunt.admission.maxConcurrentWrites.
+ */
+public class AdmissionController {
+
+    private static final int DEFAULT_WRITES_PER_MINUTE = 30;
+
+    private static final int DEFAULT_BURST = 10;
+
+    private static final int DEFAULT_MAX_CONCURRENT_WRITES = 32;
+
+    /**
+     * Number of buckets above which idle ones are swept.
+     */
+    private static final int MAX_BUCKETS = 10000;
+
+    /**
+     * Retry-After sent when the instance is at its concurrency limit.
+     */
+    private static final int BUSY_RETRY_AFTER_SECONDS = 1;
+
+    /**
+     * Minimum time between two requests of the same client to the same
+     * endpoint, once its burst is used up, in nanoseconds.
+     */
+    private final long intervalNanos;
+
+    /**
+     * How far ahead of now a bucket's arrival time may run, in nanoseconds.
+     */
+    private final long toleranceNanos;
+
+    /**
+     * Writes the instance may still start.
+     */
+    private final Semaphore writes;
+
+    /**
+     * Theoretical arrival time of the next request, by client and endpoint.
+     */
+    private final ConcurrentMap<String, AtomicLong> buckets =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * @param context Servlet context to share the controller through.
+     * @return The controller of the given context, created on first use.
+     */
+    public static AdmissionController get(ServletContext context) {
+        String attribute = AdmissionController.class.getName();
+        synchronized (context) {
+            AdmissionController controller =
+                    (AdmissionController) context.getAttribute(attribute);
+            if (controller == null) {
+                controller = new AdmissionController(
+                        getIntParameter(context, "photohunt.admission.writesPerMinute",
+                                DEFAULT_WRITES_PER_MINUTE),
+                        getIntParameter(context, "photohunt.admission.burst",
+                                DEFAULT_BURST),
+                        getIntParameter(context, "photohunt.admission.maxConcurrentWrites",
+                                DEFAULT_MAX_CONCURRENT_WRITES));
+                context.setAttribute(attribute, controller);
+            }
+            return controller;
+        }
+    }
+
+    /**
+     * @param writesPerMinute     Sustained writes allowed per client and endpoint.
+     * @param burst               Writes a client may make to an endpoint at once.
+     * @param maxConcurrentWrites Writes the instance serves at a time.
+     */
+    public AdmissionController(int writesPerMinute, int burst, int maxConcurrentWrites) {
+        intervalNanos = TimeUnit.MINUTES.toNanos(1) / writesPerMinute;
+        toleranceNanos = intervalNanos * (burst - 1);
+        writes = new Semaphore(maxConcurrentWrites);
+    }
+
+    /**
+     * Take a slot from the given client's bucket for the given endpoint.
+     *
+     * @param client   Key of the client, such as its user ID.
+     * @param endpoint Key of the endpoint, such as its path and method.
+     * @return 0 if the request is admitted, otherwise the number of seconds
+     * after which the client may retry.
+     */
+    public int tryAcquireRate(String client, String endpoint) {
+        long now = System.nanoTime();
+        AtomicLong bucket = getBucket(client + " " + endpoint, now);
+        while (true) {
+            long arrival = bucket.get();
+            long start = Math.max(arrival, now);
+            if (start - now > toleranceNanos) {
+                long waitNanos = start - now - toleranceNanos;
+                return (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999999999l));
+            }
+            if (bucket.compareAndSet(arrival, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Start a write if the instance is below its concurrency limit.  Every
+     * successful call must be followed by a call to releaseWrite().
+     *
+     * @return 0 if the write may start, otherwise the number of seconds after
+     * which the client may retry.
+     */
+    public int tryAcquireWrite() {
+        return writes.tryAcquire() ? 0 : BUSY_RETRY_AFTER_SECONDS;
+    }
+
+    /**
+     * Finish a write started with tryAcquireWrite().
+     */
+    public void releaseWrite() {
+        writes.release();
+    }
+
+    private AtomicLong getBucket(String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) {
+                sweep(now);
+            }
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Drop the buckets whose arrival time has passed.  They are full again,
+     * so a fresh bucket behaves the same.
+     */
+    private void sweep(long now) {
+        Iterator<AtomicLong> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() - now <= 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static int getIntParameter(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
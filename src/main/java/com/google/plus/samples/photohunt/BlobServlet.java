@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.plus.samples.photohunt.storage.BlobStorage;
+import com.google.plus.samples.photohunt.storage.BlobStorageFactory;
+import com.google.plus.samples.photohunt.storage.StoredBlob;
+
+/**
+ * Serves the bytes of stored images.  This servlet provides the /blobs
+ * end-point, and exposes the following operations:
+ * <p/>
+ * GET /blobs/{key}
+ * <p/>
+ * Serving URLs of the local BlobStorage point here.  A size option appended
+ * to the key, as in /blobs/{key}=s100, is ignored.
+ * <p/>
+ * Blobs never change once stored, so responses are cacheable forever and
+ * validated by the blob key alone.  Conditional requests with If-None-Match
+ * or If-Modified-Since are answered with 304, and a single byte range
+ * requested with Range is answered with 206, so that interrupted downloads
+ * can resume.
+ */
+public class BlobServlet extends HttpServlet {
+
+    private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Cache-Control of every blob; a year is the longest HTTP/1.1 allows.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final BlobStorage storage = BlobStorageFactory.getBlobStorage();
+
+    /**
+     * Exposed as `GET /blobs/{key}`.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 404: "Blob with given key does not exist."
+     * 416: "Requested range not satisfiable."
+     *
+     * @see javax.servlet.http.HttpServlet#doGet(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        StoredBlob blob = storage.getBlob(getKey(req));
+        if (blob == null) {
+            resp.sendError(404, "Blob with given key does not exist.");
+            return;
+        }
+
+        String etag = "\"" + blob.getKey() + "\"";
+        resp.setHeader("ETag", etag);
+        resp.setDateHeader("Last-Modified", blob.getCreated().getTime());
+        resp.setHeader("Cache-Control", CACHE_CONTROL);
+        resp.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(req, etag, blob)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long size = blob.getSize();
+        String range = req.getHeader("Range");
+        if (range == null || !isRangeCurrent(req, etag, blob)) {
+            storage.serve(blob, 0, size, resp);
+            return;
+        }
+        long[] bounds = parseRange(range, size);
+        if (bounds == null) {
+            // Malformed and multiple ranges may be ignored.
+            storage.serve(blob, 0, size, resp);
+            return;
+        }
+        if (bounds.length == 0) {
+            resp.setHeader("Content-Range", "bytes */" + size);
+            resp.sendError(SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "Requested range not satisfiable.");
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        resp.setHeader("Content-Range",
+                "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+        storage.serve(blob, bounds[0], bounds[1] - bounds[0] + 1, resp);
+    }
+
+    /**
+     * @param req Request for a blob.
+     * @return Key of the requested blob, or null if there is none.
+     */
+    private static String getKey(HttpServletRequest req) {
+        String key = req.getPathInfo();
+        if (key == null || key.length() < 2) {
+            return null;
+        }
+        key = key.substring(1);
+        int options = key.indexOf('=');
+        return options < 0 ? key : key.substring(0, options);
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since when both are
+     * present.
+     *
+     * @return True if the client's copy of the blob is current.
+     */
+    private static boolean isNotModified(HttpServletRequest req, String etag,
+            StoredBlob blob) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesEtag(ifNoneMatch, etag);
+        }
+        return isUnmodifiedSince(req, "If-Modified-Since", blob);
+    }
+
+    /**
+     * @return True if a Range request should be honoured, because it has no
+     * If-Range or its If-Range names the current blob.
+     */
+    private static boolean isRangeCurrent(HttpServletRequest req, String etag,
+            StoredBlob blob) {
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        return isUnmodifiedSince(req, "If-Range", blob);
+    }
+
+    /**
+     * @param header List of entity tags, or "*".
+     * @param etag   Entity tag of the blob.
+     * @return True if the list names the blob.  Weak tags match too.
+     */
+    private static boolean matchesEtag(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the blob was created no later than the date in the
+     * given header.  Dates have a precision of seconds.
+     */
+    private static boolean isUnmodifiedSince(HttpServletRequest req, String header,
+            StoredBlob blob) {
+        long since;
+        try {
+            since = req.getDateHeader(header);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return since != -1 && blob.getCreated().getTime() / 1000 <= since / 1000;
+    }
+
+    /**
+     * @param range Value of a Range header.
+     * @param size  Size of the blob in bytes.
+     * @return First and last byte of the single range requested, an empty
+     * array if the range is not satisfiable, or null if the header is
+     * malformed or asks for several ranges.
+     */
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (dash == 0) {
+                // Suffix range: the last N bytes.
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                if (dash == spec.length() - 1) {
+                    last = size - 1;
+                } else {
+                    last = Long.parseLong(spec.substring(dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                    last = Math.min(last, size - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (first < 0 || first >= size) {
+            return new long[0];
+        }
+        return new long[] {first, last};
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * JsonWriter that encodes CBOR (RFC 7049) instead of JSON text.  Gson type
+ * adapters write to it as they would to any JsonWriter, so a model is encoded
+ * with the same fields and nesting as its JSON representation, but without
+ * quoting, escaping or printing numbers.
+ * <p/>
+ * Arrays and maps are written with indefinite lengths, so nothing has to be
+ * buffered.  As with JsonWriter, names followed by a null value are dropped
+ * unless serializeNulls is set.
+ */
+class CborWriter extends JsonWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int INDEFINITE_ARRAY = 0x9f;
+    private static final int INDEFINITE_MAP = 0xbf;
+    private static final int BREAK = 0xff;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int FLOAT64 = 0xfb;
+
+    /**
+     * Stand-in for the text output of the superclass, which is never used.
+     * Writing to it fails with an IOException, which callers of a JsonWriter
+     * already handle.
+     */
+    private static final Writer NO_TEXT = new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            throw new IOException("CborWriter writes no text");
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final OutputStream out;
+
+    /**
+     * Name written by name() whose value hasn't been written yet.
+     */
+    private String deferredName;
+
+    /**
+     * @param out Stream to write the encoded values to.
+     */
+    CborWriter(OutputStream out) {
+        super(NO_TEXT);
+        this.out = out;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_MAP);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (deferredName != null) {
+            throw new IllegalStateException("Name written twice: " + name);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeText(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (deferredName != null && !getSerializeNulls()) {
+            deferredName = null;
+            return this;
+        }
+        writeDeferredName();
+        out.write(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        writeDeferredName();
+        long bits = Double.doubleToLongBits(value);
+        out.write(FLOAT64);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            return value(value.doubleValue());
+        }
+        return value(value.longValue());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeDeferredName() throws IOException {
+        if (deferredName != null) {
+            writeText(deferredName);
+            deferredName = null;
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(UTF_8);
+        writeHead(MAJOR_TEXT, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write the initial bytes of a data item: its major type and its argument,
+     * in the shortest form that holds the argument.
+     *
+     * @param major    Major type, in the three high bits.
+     * @param argument Non-negative argument: the value itself or a length.
+     */
+    private void writeHead(int major, long argument) throws IOException {
+        if (argument < 24) {
+            out.write(major | (int) argument);
+        } else if (argument <= 0xff) {
+            out.write(major | 24);
+            out.write((int) argument);
+        } else if (argument <= 0xffff) {
+            out.write(major | 25);
+            writeBytes(argument, 2);
+        } else if (argument <= 0xffffffffL) {
+            out.write(major | 26);
+            writeBytes(argument, 4);
+        } else {
+            out.write(major | 27);
+            writeBytes(argument, 8);
+        }
+    }
+
+    private void writeBytes(long value, int count) throws IOException {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+}
@@ -17,7 +17,15 @@
 package com.google.plus.samples.photohunt;
 
 import java.io.IOException;
-import java.util.List;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,12 +42,20 @@ import com.google.api.services.oauth2.model.Tokeninfo;
 import com.google.api.services.plus.Plus;
 import com.google.api.services.plus.model.PeopleFeed;
 import com.google.api.services.plus.model.Person;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.gson.annotations.Expose;
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
 import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
+import com.google.plus.samples.photohunt.model.EntityCache;
 import com.google.plus.samples.photohunt.model.Jsonifiable;
 import com.google.plus.samples.photohunt.model.User;
-
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+import com.google.plus.samples.photohunt.repository.EdgeRepository;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.UserRepository;
 
 /**
  * Provides an API to connect users to Photohunt.  This servlet provides the
@@ -51,6 +67,32 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
  */
 public class ConnectServlet extends JsonRestServlet {
 
+    /**
+     * Logger for this servlet.
+     */
+    private static final Logger log = Logger.getLogger(ConnectServlet.class.getName());
+
+    /**
+     * Splits a client ID into the project number and the rest.
+     */
+    private static final Pattern CLIENT_ID_PATTERN = Pattern.compile("(\\d+)([-]?)(.*)$");
+
+    /**
+     * Project number of CLIENT_ID, or null if it has none.
+     */
+    private static final String CLIENT_PROJECT_NUMBER = getProjectNumber(CLIENT_ID);
+
+    /**
+     * Memcache namespace of verified tokens.
+     */
+    private static final String VERIFIED_TOKENS_NAMESPACE = "tokeninfo";
+
+    /**
+     * Verified tokens, keyed by the hash of the access token.
+     */
+    private static final MemcacheService verifiedTokens =
+            MemcacheServiceFactory.getMemcacheService(VERIFIED_TOKENS_NAMESPACE);
+
     /**
      * Exposed as `POST /api/connect`.
      * <p/>
@@ -100,6 +142,9 @@ public class ConnectServlet extends JsonRestServlet {
      * 500: "IOException occurred." The IOException could happen when any
      * IO-related errors occur such as network connectivity loss or local
      * file-related errors.
+     * 503: "Google is unavailable, retry later."  A Google API the connection
+     * needs is failing and its circuit breaker is open; Retry-After says
+     * when to try again.
      *
      * @see javax.servlet.http.HttpServlet#doPost(
      *javax.servlet.http.HttpServletRequest,
@@ -118,7 +163,7 @@ public class ConnectServlet extends JsonRestServlet {
 
         // Create a credential object.
         GoogleCredential credential = new GoogleCredential.Builder()
-                .setJsonFactory(JSON_FACTORY).setTransport(TRANSPORT)
+                .setJsonFactory(JSON_FACTORY).setTransport(OutboundHttp.getTransport())
                 .setClientSecrets(CLIENT_ID, CLIENT_SECRET).build();
 
         try {
@@ -145,6 +190,10 @@ public class ConnectServlet extends JsonRestServlet {
             session.setAttribute(CURRENT_USER_SESSION_KEY, user.getId());
             generateFriends(user, credential);
             sendResponse(req, resp, user);
+        } catch (CircuitOpenException e) {
+            // Google is failing; have the client retry once the breaker probes.
+            resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            sendError(resp, 503, "Google is unavailable, retry later.");
         } catch (TokenVerificationException e) {
             sendError(resp, 401, e.getMessage());
         } catch (TokenResponseException e) {
@@ -165,22 +214,37 @@ public class ConnectServlet extends JsonRestServlet {
      *
      * @param accessToken Container of authorization code to exchange.
      * @return Token response from Google indicating token information.
-     * @throws TokenDataException Failed to exchange code (code invalid).
+     * @throws TokenDataException   Failed to exchange code (code invalid).
+     * @throws CircuitOpenException The token end point is unavailable.
      */
     private GoogleTokenResponse exchangeCode(TokenData accessToken)
-            throws TokenDataException {
+            throws TokenDataException, CircuitOpenException {
         try {
             // Upgrade the authorization code into an access and refresh token.
-            return new GoogleAuthorizationCodeTokenRequest(
-                    TRANSPORT, JSON_FACTORY, CLIENT_ID, CLIENT_SECRET, accessToken.code,
-                    "postmessage").execute();
+            final GoogleAuthorizationCodeTokenRequest request =
+                    new GoogleAuthorizationCodeTokenRequest(
+                            OutboundHttp.getTransport(), JSON_FACTORY, CLIENT_ID, CLIENT_SECRET,
+                            accessToken.code, "postmessage");
+            request.setRequestInitializer(
+                    OutboundHttp.initializer(GoogleEndpoint.OAUTH2_TOKEN, null));
+            return OutboundHttp.call(GoogleEndpoint.OAUTH2_TOKEN,
+                    new Callable<GoogleTokenResponse>() {
+                        @Override
+                        public GoogleTokenResponse call() throws IOException {
+                            return request.execute();
+                        }
+                    });
+        } catch (CircuitOpenException e) {
+            throw e;
         } catch (IOException e) {
             throw new TokenDataException(e.getMessage());
         }
     }
 
     /**
-     * Verify that the token in the given credential is valid.
+     * Verify that the token in the given credential is valid.  Verified tokens
+     * are cached until they expire, so a client connecting again with the
+     * same token doesn't cost another round trip to Google.
      *
      * @param credential Credential to verify.
      * @return Google user ID for which token was issued.
@@ -190,36 +254,95 @@ public class ConnectServlet extends JsonRestServlet {
      */
     private String verifyToken(GoogleCredential credential)
             throws TokenVerificationException, IOException {
-        // Check that the token is valid.
-        Oauth2 oauth2 = new Oauth2.Builder(TRANSPORT, JSON_FACTORY, credential)
-                .build();
-        Tokeninfo tokenInfo = oauth2.tokeninfo()
-                .setAccessToken(credential.getAccessToken()).execute();
-        // If there was an error in the token info, abort.
-        if (tokenInfo.containsKey("error")) {
-            throw new TokenVerificationException(tokenInfo.get("error").toString());
+        String cacheKey = hashToken(credential.getAccessToken());
+        VerifiedToken verified = (VerifiedToken) verifiedTokens.get(cacheKey);
+        if (verified == null || verified.expiresAt <= System.currentTimeMillis()) {
+            verified = verifyTokenWithGoogle(credential);
+            verifiedTokens.put(cacheKey, verified, Expiration.onDate(new Date(verified.expiresAt)));
         }
 
         if (credential.getExpiresInSeconds() == null) {
             // Set the expiry time if it hasn't already been set.
-            int expiresIn = tokenInfo.getExpiresIn();
-            credential.setExpiresInSeconds((long) expiresIn);
-            credential.setExpirationTimeMilliseconds(System.currentTimeMillis() + expiresIn * 1000);
+            credential.setExpiresInSeconds(
+                    (verified.expiresAt - System.currentTimeMillis()) / 1000);
+            credential.setExpirationTimeMilliseconds(verified.expiresAt);
         }
 
-        Pattern p = Pattern.compile("(\\d+)([-]?)(.*)$");
-        Matcher issuedTo = p.matcher(CLIENT_ID);
-        Matcher localId = p.matcher(tokenInfo.getIssuedTo());
-
         // Make sure the token we got is for our app.
-        if (!issuedTo.matches() || !localId.matches()
-                || !issuedTo.group(1).equals(localId.group(1))) {
+        Matcher localId = CLIENT_ID_PATTERN.matcher(verified.issuedTo);
+        if (CLIENT_PROJECT_NUMBER == null || !localId.matches()
+                || !CLIENT_PROJECT_NUMBER.equals(localId.group(1))) {
 
             throw new TokenVerificationException(
                     "Token's client ID does not match app's.");
         }
 
-        return tokenInfo.getUserId();
+        return verified.userId;
+    }
+
+    /**
+     * Ask Google whether the token in the given credential is valid.
+     *
+     * @param credential Credential to verify.
+     * @return What Google knows of the token.
+     * @throws TokenVerificationException Credential is not valid.
+     * @throws IOException                Could not verify Credential because of a network
+     *                                    failure.
+     */
+    private VerifiedToken verifyTokenWithGoogle(GoogleCredential credential)
+            throws TokenVerificationException, IOException {
+        Oauth2 oauth2 = new Oauth2.Builder(OutboundHttp.getTransport(), JSON_FACTORY,
+                OutboundHttp.initializer(GoogleEndpoint.OAUTH2_TOKENINFO, credential)).build();
+        final Oauth2.Tokeninfo request = oauth2.tokeninfo()
+                .setAccessToken(credential.getAccessToken());
+        Tokeninfo tokenInfo = OutboundHttp.call(GoogleEndpoint.OAUTH2_TOKENINFO,
+                new Callable<Tokeninfo>() {
+                    @Override
+                    public Tokeninfo call() throws IOException {
+                        return request.execute();
+                    }
+                });
+        // If there was an error in the token info, abort.
+        if (tokenInfo.containsKey("error")) {
+            throw new TokenVerificationException(tokenInfo.get("error").toString());
+        }
+        return new VerifiedToken(tokenInfo.getUserId(), tokenInfo.getIssuedTo(),
+                System.currentTimeMillis() + tokenInfo.getExpiresIn() * 1000l);
+    }
+
+    /**
+     * Forget that the given access token was verified, so that it is checked
+     * with Google again if it is presented.  Call when a token is revoked or
+     * replaced.
+     *
+     * @param accessToken Access token to forget, or null for none.
+     */
+    static void forgetVerifiedToken(String accessToken) {
+        if (accessToken != null) {
+            verifiedTokens.delete(hashToken(accessToken));
+        }
+    }
+
+    /**
+     * @param accessToken Access token to hash.
+     * @return Hex SHA-256 digest of the token, so that tokens themselves are
+     * never kept in memcache.
+     */
+    private static String hashToken(String accessToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(accessToken.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
@@ -227,48 +350,92 @@ public class ConnectServlet extends JsonRestServlet {
      * 1. Create a user for the given ID and credential
      * 2. or, update the existing user with the existing credential
      * <p/>
-     * If 2, then ask Google for the user's public profile information to store.
+     * In both cases, ask Google for the user's public profile information to
+     * store.  If an existing user's profile changed, the copies of it on
+     * their Photos are refreshed in the background by PhotoOwnerRefresher.
+     * An existing user keeps their stored profile if it can't be fetched.
      *
      * @param tokenGoogleUserId Google user ID to update.
      * @param credential        Credential to set for the user.
      * @return Updated User.
-     * @throws GoogleApiException Could not fetch profile info for user.
+     * @throws GoogleApiException  Could not fetch profile info for a new user.
+     * @throws CircuitOpenException A new user's profile can't be fetched
+     *                              because people.get is unavailable.
      */
-    private User saveTokenForUser(String tokenGoogleUserId,
-                                  GoogleCredential credential) throws GoogleApiException {
-        User user = ofy().load().type(User.class)
-                .filter("googleUserId", tokenGoogleUserId).first().now();
-        if (user == null) {
-            // Register a new user.  Collect their Google profile info first.
-            Plus plus = new Plus.Builder(TRANSPORT, JSON_FACTORY, credential).build();
-            Person profile;
-            Plus.People.Get get;
-            try {
-                get = plus.people().get("me");
-                profile = get.execute();
-            } catch (IOException e) {
+    private User saveTokenForUser(String tokenGoogleUserId, GoogleCredential credential)
+            throws GoogleApiException, CircuitOpenException {
+        UserRepository users = RepositoryFactory.getUserRepository();
+        User user = users.findByGoogleUserId(tokenGoogleUserId);
+        Person profile = null;
+        try {
+            profile = fetchProfile(credential);
+        } catch (IOException e) {
+            if (user == null) {
+                if (e instanceof CircuitOpenException) {
+                    throw (CircuitOpenException) e;
+                }
                 throw new GoogleApiException(e.getMessage());
             }
+            log.info("Keeping stored profile of user " + user.getId() + ": " + e.getMessage());
+        }
+        boolean profileChanged = false;
+        if (user == null) {
+            // Register a new user.
             user = new User();
             user.setGoogleUserId(profile.getId());
+        } else if (profile != null) {
+            profileChanged =
+                    !Objects.equals(user.getGoogleDisplayName(), profile.getDisplayName())
+                    || !Objects.equals(user.getGooglePublicProfileUrl(), profile.getUrl())
+                    || !Objects.equals(user.getGooglePublicProfilePhotoUrl(),
+                                       profile.getImage().getUrl());
+        }
+        if (profile != null) {
             user.setGoogleDisplayName(profile.getDisplayName());
             user.setGooglePublicProfileUrl(profile.getUrl());
             user.setGooglePublicProfilePhotoUrl(profile.getImage().getUrl());
         }
         // TODO(silvano): Also fetch and set the email address for the user.
+        if (user.getGoogleAccessToken() != null
+                && !user.getGoogleAccessToken().equals(credential.getAccessToken())) {
+            forgetVerifiedToken(user.getGoogleAccessToken());
+        }
         user.setGoogleAccessToken(credential.getAccessToken());
         if (credential.getRefreshToken() != null) {
             user.setGoogleRefreshToken(credential.getRefreshToken());
         }
         user.setGoogleExpiresAt(credential.getExpirationTimeMilliseconds());
         user.setGoogleExpiresIn(credential.getExpiresInSeconds());
-        ofy().save().entity(user).now();
+        users.save(user);
+        EntityCache.invalidate(User.class, Collections.singletonList(user.getId()));
+        if (profileChanged) {
+            PhotoOwnerRefresher.schedule(user.getId());
+        }
         return user;
     }
 
+    /**
+     * @param credential Credential of the user whose profile to fetch.
+     * @return The user's Google profile.
+     * @throws CircuitOpenException people.get is unavailable.
+     * @throws IOException          Could not fetch the profile.
+     */
+    private Person fetchProfile(GoogleCredential credential) throws IOException {
+        Plus plus = new Plus.Builder(OutboundHttp.getTransport(), JSON_FACTORY,
+                OutboundHttp.initializer(GoogleEndpoint.PLUS_PEOPLE_GET, credential)).build();
+        final Plus.People.Get get = plus.people().get("me");
+        return OutboundHttp.call(GoogleEndpoint.PLUS_PEOPLE_GET, new Callable<Person>() {
+            @Override
+            public Person call() throws IOException {
+                return get.execute();
+            }
+        });
+    }
+
     /**
      * Query Google for the list of the user's friends that they've shared with
-     * our app, and then store those friends for later use.
+     * our app, and then store those friends for later use.  While people.list
+     * is unavailable, the friends stored at the last connection are kept.
      *
      * @param user       User for which to get friends.
      * @param credential Credential to use to authorize people.list request.
@@ -281,29 +448,39 @@ public class ConnectServlet extends JsonRestServlet {
         // TODO(silvano): Refactor this method to fetch more than first page.
 
         // Simple but inefficient way of building the friends list
-        Plus plus = new Plus.Builder(TRANSPORT, JSON_FACTORY, credential).build();
-        Plus.People.List get;
-        List<DirectedUserToUserEdge> friends = ofy().load()
-                .type(DirectedUserToUserEdge.class)
-                .filter("ownerUserId", user.getId()).list();
-        ofy().delete().entities(friends);
-
-        get = plus.people().list(user.getGoogleUserId(), "visible");
-        PeopleFeed feed = get.execute();
+        Plus plus = new Plus.Builder(OutboundHttp.getTransport(), JSON_FACTORY,
+                OutboundHttp.initializer(GoogleEndpoint.PLUS_PEOPLE_LIST, credential)).build();
+        final Plus.People.List get = plus.people().list(user.getGoogleUserId(), "visible");
+        PeopleFeed feed;
+        try {
+            feed = OutboundHttp.call(GoogleEndpoint.PLUS_PEOPLE_LIST,
+                    new Callable<PeopleFeed>() {
+                        @Override
+                        public PeopleFeed call() throws IOException {
+                            return get.execute();
+                        }
+                    });
+        } catch (CircuitOpenException e) {
+            log.info("Keeping stored friends of user " + user.getId() + ": " + e.getMessage());
+            return;
+        }
+        EdgeRepository edges = RepositoryFactory.getEdgeRepository();
+        edges.delete(edges.findByOwner(user.getId()));
         boolean done;
         do {
             for (Person googlePlusPerson : feed.getItems()) {
-                User friend = ofy().load().type(User.class).filter(
-                        "googleUserId", googlePlusPerson.getId()).first().now();
+                User friend = RepositoryFactory.getUserRepository()
+                        .findByGoogleUserId(googlePlusPerson.getId());
                 if (friend != null) {
                     DirectedUserToUserEdge friendEdge = new DirectedUserToUserEdge();
                     friendEdge.setOwnerUserId(user.getId());
                     friendEdge.setFriendUserId(friend.getId());
-                    ofy().save().entity(friendEdge).now();
+                    edges.save(friendEdge);
                 }
             }
             done = true;
         } while (!done);
+        SuggestionsServlet.invalidate(user.getId());
     }
 
     /**
@@ -333,6 +510,44 @@ public class ConnectServlet extends JsonRestServlet {
         }
     }
 
+    /**
+     * @param clientId Client ID to parse.
+     * @return Project number the client ID starts with, or null if it doesn't.
+     */
+    private static String getProjectNumber(String clientId) {
+        Matcher matcher = CLIENT_ID_PATTERN.matcher(clientId);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    /**
+     * What Google's token verification end point said of an access token.
+     */
+    static class VerifiedToken implements Serializable {
+
+        private static final long serialVersionUID = 1l;
+
+        /**
+         * Google user ID the token was issued for.
+         */
+        final String userId;
+
+        /**
+         * Client ID the token was issued to.
+         */
+        final String issuedTo;
+
+        /**
+         * When the token expires, in milliseconds since Epoch.
+         */
+        final long expiresAt;
+
+        VerifiedToken(String userId, String issuedTo, long expiresAt) {
+            this.userId = userId;
+            this.issuedTo = issuedTo;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     /**
      * Simple Jsonifiable to represent token information sent/retrieved from our
      * app and its clients (web, Android, iOS).
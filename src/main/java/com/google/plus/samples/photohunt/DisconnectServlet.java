@@ -17,17 +17,34 @@
 package com.google.plus.samples.photohunt;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.api.client.http.GenericUrl;
-import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
+import com.google.api.client.http.HttpRequest;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
+import com.google.plus.samples.photohunt.model.EntityCache;
 import com.google.plus.samples.photohunt.model.Message;
 import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.PhotoCard;
 import com.google.plus.samples.photohunt.model.User;
 import com.google.plus.samples.photohunt.model.Vote;
+import com.google.plus.samples.photohunt.model.VoteTally;
+import com.google.plus.samples.photohunt.repository.EdgeRepository;
+import com.google.plus.samples.photohunt.repository.PhotoRepository;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.UserRepository;
+import com.google.plus.samples.photohunt.repository.VoteRepository;
+import com.googlecode.objectify.Key;
 
 import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 
@@ -40,6 +57,13 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
  * @author silvano@google.com (Silvano Luciani)
  */
 public class DisconnectServlet extends JsonRestServlet {
+    /**
+     * Path of the task revoking tokens that couldn't be revoked right away.
+     */
+    static final String REVOKE_URL = "/tasks/revokeToken";
+
+    private static final String REVOKE_QUEUE = "token-revoke";
+
     /**
      * Exposed as `POST /api/disconnect`.
      * <p/>
@@ -60,6 +84,9 @@ public class DisconnectServlet extends JsonRestServlet {
      * 401: "Unauthorized request".  No user was connected to disconnect.
      * 500: "Failed to revoke token for given user: "
      * + error from failed connection to revoke end-point.
+     * <p/>
+     * While the revoke end-point's circuit breaker is open, the revocation is
+     * left to a task on the token-revoke queue, retried until it succeeds.
      *
      * @see javax.servlet.http.HttpServlet#doPost(
      *javax.servlet.http.HttpServletRequest,
@@ -71,20 +98,49 @@ public class DisconnectServlet extends JsonRestServlet {
             checkAuthorization(req);
             long userId = Long.parseLong(req.getSession()
                                                  .getAttribute(CURRENT_USER_SESSION_KEY).toString());
-            List<DirectedUserToUserEdge> edges = ofy().load()
-                    .type(DirectedUserToUserEdge.class)
-                    .filter("ownerUserId", userId).list();
-            ofy().delete().entities(edges);
-            List<Vote> userVotes = ofy().load().type(Vote.class)
-                    .filter("ownerUserId", userId).list();
-            ofy().delete().entities(userVotes);
-            List<Photo> userPhotos = ofy().load().type(Photo.class)
-                    .filter("ownerUserId", userId).list();
-            ofy().delete().entities(userPhotos);
-            User user = ofy().load().type(User.class).id(userId).now();
-            ofy().delete().entity(user);
+            EdgeRepository edges = RepositoryFactory.getEdgeRepository();
+            edges.delete(edges.findByOwner(userId));
+            VoteRepository votes = RepositoryFactory.getVoteRepository();
+            List<Vote> userVotes = votes.findByOwner(userId);
+            votes.delete(userVotes);
+            VoteTally.unclaim(userVotes);
+            PhotoRepository photos = RepositoryFactory.getPhotoRepository();
+            List<Photo> userPhotos = photos.find(Collections.singletonList(userId), null);
+            photos.delete(userPhotos);
+            List<Key<PhotoCard>> cardKeys = new ArrayList<Key<PhotoCard>>(userPhotos.size());
+            List<String> pageKeys = new ArrayList<String>(userPhotos.size() + 1);
+            List<Long> photoIds = new ArrayList<Long>(userPhotos.size());
+            for (Photo photo : userPhotos) {
+                cardKeys.add(PhotoCard.key(photo.getId()));
+                pageKeys.add(RenderedPageCache.photoKey(photo.getId()));
+                photoIds.add(photo.getId());
+            }
+            ofy().delete().keys(cardKeys);
+            RepositoryFactory.getPhotoSearchIndex().remove(photoIds);
+            VoteTally.delete(photoIds);
+            pageKeys.add(RenderedPageCache.INVITE_KEY);
+            RenderedPageCache.invalidate(pageKeys.toArray(new String[pageKeys.size()]));
+            UserRepository users = RepositoryFactory.getUserRepository();
+            User user = users.get(userId);
+            users.delete(user);
+            EntityCache.invalidate(Photo.class, photoIds);
+            EntityCache.invalidate(User.class, Collections.singletonList(userId));
 
-            revokeToken(user.getGoogleAccessToken());
+            // Don't let the revoked token connect again from the cache.
+            ConnectServlet.forgetVerifiedToken(user.getGoogleAccessToken());
+            try {
+                revokeToken(user.getGoogleAccessToken());
+            } catch (CircuitOpenException e) {
+                // The User's data is gone already; revoke once Google recovers.
+                // The access token may have expired by then, so revoke the
+                // refresh token when there is one, which revokes the grant.
+                String token = user.getGoogleRefreshToken() != null
+                        ? user.getGoogleRefreshToken() : user.getGoogleAccessToken();
+                QueueFactory.getQueue(REVOKE_QUEUE).add(
+                        TaskOptions.Builder.withUrl(REVOKE_URL)
+                                .param("token", token)
+                                .countdownMillis(e.getRetryAfterSeconds() * 1000l));
+            }
 
             req.getSession().removeAttribute(CURRENT_USER_SESSION_KEY);
             sendResponse(req, resp, new Message("Successfully disconnected."),
@@ -99,8 +155,8 @@ public class DisconnectServlet extends JsonRestServlet {
     }
 
     /**
-     * Revoke the given access token, and consequently any other access tokens
-     * and refresh tokens issued for this user to this app.
+     * Revoke the given access or refresh token, and consequently any other
+     * access tokens and refresh tokens issued for this user to this app.
      * <p/>
      * Essentially this operation disconnects a user from the app, but keeps
      * their app activities alive in Google.  The same user can later come back
@@ -109,9 +165,18 @@ public class DisconnectServlet extends JsonRestServlet {
      * @throws IOException Network error occured while making request.
      */
     protected static void revokeToken(String accessToken) throws IOException {
-        TRANSPORT.createRequestFactory().buildGetRequest(new GenericUrl(
-                String.format(
+        final HttpRequest request = OutboundHttp.getTransport().createRequestFactory(
+                OutboundHttp.initializer(GoogleEndpoint.OAUTH2_REVOKE, null))
+                .buildGetRequest(new GenericUrl(String.format(
                         "https://accounts.google.com/o/oauth2/revoke?token=%s",
-                        accessToken))).execute();
+                        accessToken)));
+        OutboundHttp.call(GoogleEndpoint.OAUTH2_REVOKE, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                // Read the response out, so the connection may be reused.
+                request.execute().ignore();
+                return null;
+            }
+        });
     }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.plus.samples.photohunt.model.EntityJson;
+import com.google.plus.samples.photohunt.model.ImportedId;
+import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.Theme;
+import com.google.plus.samples.photohunt.repository.ObjectifyPhotoSearchIndex;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Imports entities in the NDJSON format of EntityJson, as written by
+ * ExportServlet, into the datastore.
+ * <p/>
+ * Lines are parsed one at a time off the stream and gathered into batches of
+ * BATCH_SIZE entities of one kind.  Each batch is given new IDs from the
+ * datastore's allocator, and the IDs it refers to are mapped to the ones
+ * given to the entities they refer to, so an export can be imported next to
+ * existing data.  A batch is stored with one asynchronous put, along with an
+ * ImportedId per entity and, for Photos, their search postings; up to
+ * MAX_IN_FLIGHT puts run at once while the next batches are read.
+ * <p/>
+ * The ImportedIds make an import resumable: entities already imported under
+ * the same import ID are skipped, so a failed request can simply be sent
+ * again.  Entities referring to ones that weren't imported are skipped too.
+ * Themes refer to their preview Photo, which comes later in an export, so
+ * previews are set by finish() once all Photos are in.
+ * <p/>
+ * Imported Photos are added to the PhotoSearchIndex.  Their image blobs are
+ * not part of the export, so their images only resolve where the blobs are
+ * available.
+ */
+public class EntityImporter {
+
+    /**
+     * Entities stored by each put.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Most puts running at once.
+     */
+    private static final int MAX_IN_FLIGHT = 4;
+
+    /**
+     * Most IDs given by this importer remembered, to spare looking them up.
+     */
+    private static final int MAX_REMEMBERED_IDS = 100000;
+
+    /**
+     * Fields holding IDs of other entities, by kind, with the kind they refer
+     * to.
+     */
+    private static final Map<String, Map<String, String>> REFERENCES =
+            new HashMap<String, Map<String, String>>();
+
+    static {
+        Map<String, String> photo = new LinkedHashMap<String, String>();
+        photo.put("ownerUserId", "User");
+        photo.put("themeId", "Theme");
+        REFERENCES.put("Photo", photo);
+        Map<String, String> vote = new LinkedHashMap<String, String>();
+        vote.put("ownerUserId", "User");
+        vote.put("photoId", "Photo");
+        REFERENCES.put("Vote", vote);
+        Map<String, String> edge = new LinkedHashMap<String, String>();
+        edge.put("ownerUserId", "User");
+        edge.put("friendUserId", "User");
+        REFERENCES.put("DirectedUserToUserEdge", edge);
+    }
+
+    private final String importId;
+
+    /**
+     * IDs given by this importer, by ImportedId key name.
+     */
+    private final Map<String, Long> newIds = new HashMap<String, Long>();
+
+    private final Deque<Result<?>> inFlight = new ArrayDeque<Result<?>>();
+
+    private final Map<String, Integer> imported = new LinkedHashMap<String, Integer>();
+
+    private int existing;
+
+    private int skipped;
+
+    /**
+     * @param importId Identifies the import, the same for all its requests.
+     */
+    public EntityImporter(String importId) {
+        this.importId = importId;
+    }
+
+    /**
+     * Import the entity lines read from the given stream, skipping cursor
+     * and done lines.  Returns once every batch is stored.
+     *
+     * @param in NDJSON to import.
+     * @throws IOException The stream could not be read or is not NDJSON.
+     */
+    public void read(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        // Lets the reader take one top-level object after another.
+        reader.setLenient(true);
+        JsonParser parser = new JsonParser();
+        String batchKind = null;
+        List<JsonObject> batch = new ArrayList<JsonObject>(BATCH_SIZE);
+        try {
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                JsonObject line = parser.parse(reader).getAsJsonObject();
+                if (!line.has("kind")) {
+                    continue;
+                }
+                String kind = line.get("kind").getAsString();
+                if (!EntityJson.KINDS.containsKey(kind)) {
+                    skipped++;
+                    continue;
+                }
+                if (!kind.equals(batchKind) || batch.size() == BATCH_SIZE) {
+                    store(batchKind, batch);
+                    batchKind = kind;
+                    batch = new ArrayList<JsonObject>(BATCH_SIZE);
+                }
+                batch.add(line.getAsJsonObject("entity"));
+            }
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed NDJSON: " + e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            // A line is not a JSON object.
+            throw new IOException("Malformed NDJSON: " + e.getMessage(), e);
+        }
+        store(batchKind, batch);
+        while (!inFlight.isEmpty()) {
+            inFlight.poll().now();
+        }
+        // Imported entities get new IDs, so none of them is cached yet, but
+        // an imported Theme may be the current one.
+        if (imported.containsKey("Theme")) {
+            Theme.invalidateCurrent();
+        }
+    }
+
+    /**
+     * Set the preview Photos of the Themes imported so far, now that their
+     * Photos are imported.  Call once after the last line of the import.
+     */
+    public void finish() {
+        List<ImportedId> pending = ofy().load().type(ImportedId.class)
+                .filter("pendingImportId", importId).list();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Key<ImportedId>> photoKeys = new ArrayList<Key<ImportedId>>(pending.size());
+        List<Key<Theme>> themeKeys = new ArrayList<Key<Theme>>(pending.size());
+        for (ImportedId themeId : pending) {
+            photoKeys.add(ImportedId.key(importId, "Photo", themeId.getPendingOldId()));
+            themeKeys.add(Theme.key(themeId.getNewId()));
+        }
+        Map<Key<ImportedId>, ImportedId> photoIds = ofy().load().keys(photoKeys);
+        Map<Key<Theme>, Theme> themes = ofy().load().keys(themeKeys);
+        List<Object> changed = new ArrayList<Object>(pending.size() * 2);
+        for (int i = 0; i < pending.size(); i++) {
+            ImportedId photoId = photoIds.get(photoKeys.get(i));
+            Theme theme = themes.get(themeKeys.get(i));
+            if (photoId != null && theme != null) {
+                theme.setPreviewPhotoId(photoId.getNewId());
+                changed.add(theme);
+            }
+            pending.get(i).setPending(importId, 0);
+            changed.add(pending.get(i));
+        }
+        ofy().save().entities(changed).now();
+        Theme.invalidateCurrent();
+    }
+
+    /**
+     * @return Number of entities imported, by kind.
+     */
+    public Map<String, Integer> getImported() {
+        return Collections.unmodifiableMap(imported);
+    }
+
+    /**
+     * @return Number of entities skipped because an earlier request of the
+     * import stored them already.
+     */
+    public int getExisting() {
+        return existing;
+    }
+
+    /**
+     * @return Number of entities skipped because they are of an unknown kind
+     * or refer to entities that weren't imported.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Map the IDs of the given batch and start storing it, waiting for the
+     * oldest put first if too many are running.
+     *
+     * @param kind  Kind of the batch's entities.
+     * @param batch Entity objects of the batch's lines.
+     */
+    private void store(String kind, List<JsonObject> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, String> references = REFERENCES.containsKey(kind)
+                ? REFERENCES.get(kind) : Collections.<String, String>emptyMap();
+
+        // Look up, with one batch get, whether each entity was imported
+        // already and the IDs given to the entities it refers to.
+        Set<Key<ImportedId>> lookups = new LinkedHashSet<Key<ImportedId>>();
+        for (JsonObject entity : batch) {
+            lookups.add(ImportedId.key(importId, kind, entity.get("id").getAsLong()));
+            for (Map.Entry<String, String> reference : references.entrySet()) {
+                Key<ImportedId> key = ImportedId.key(importId, reference.getValue(),
+                        entity.get(reference.getKey()).getAsLong());
+                if (!newIds.containsKey(key.getName())) {
+                    lookups.add(key);
+                }
+            }
+            if ("Theme".equals(kind)) {
+                lookups.add(ImportedId.key(importId, "Photo", previewPhotoId(entity)));
+            }
+        }
+        if (newIds.size() > MAX_REMEMBERED_IDS) {
+            newIds.clear();
+        }
+        for (Map.Entry<Key<ImportedId>, ImportedId> found
+                : ofy().load().keys(lookups).entrySet()) {
+            newIds.put(found.getKey().getName(), found.getValue().getNewId());
+        }
+
+        List<JsonObject> accepted = new ArrayList<JsonObject>(batch.size());
+        entities:
+        for (JsonObject entity : batch) {
+            if (newIds.containsKey(ImportedId.key(importId, kind,
+                    entity.get("id").getAsLong()).getName())) {
+                existing++;
+                continue;
+            }
+            for (Map.Entry<String, String> reference : references.entrySet()) {
+                Long newId = newIds.get(ImportedId.key(importId, reference.getValue(),
+                        entity.get(reference.getKey()).getAsLong()).getName());
+                if (newId == null) {
+                    skipped++;
+                    continue entities;
+                }
+                entity.addProperty(reference.getKey(), newId);
+            }
+            accepted.add(entity);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        Class<?> type = EntityJson.KINDS.get(kind);
+        Iterator<? extends Key<?>> allocated =
+                ofy().factory().allocateIds(type, accepted.size()).iterator();
+        List<Object> entities = new ArrayList<Object>(accepted.size() * 2);
+        List<Photo> photos = new ArrayList<Photo>();
+        for (JsonObject entity : accepted) {
+            long oldId = entity.get("id").getAsLong();
+            long newId = allocated.next().getId();
+            entity.addProperty("id", newId);
+            ImportedId importedId = new ImportedId(importId, kind, oldId, newId);
+            if ("Theme".equals(kind)) {
+                long oldPreviewId = previewPhotoId(entity);
+                Long newPreviewId = newIds.get(
+                        ImportedId.key(importId, "Photo", oldPreviewId).getName());
+                entity.addProperty("previewPhotoId", newPreviewId == null ? 0 : newPreviewId);
+                if (newPreviewId == null && oldPreviewId != 0) {
+                    importedId.setPending(importId, oldPreviewId);
+                }
+            }
+            Object model = EntityJson.fromJson(entity, type);
+            if (model instanceof Photo) {
+                photos.add((Photo) model);
+            }
+            entities.add(model);
+            entities.add(importedId);
+            newIds.put(ImportedId.key(importId, kind, oldId).getName(), newId);
+        }
+
+        if (inFlight.size() == MAX_IN_FLIGHT) {
+            inFlight.poll().now();
+            // Drop what the finished puts left in the session cache.
+            ofy().clear();
+        }
+        // Imported Photos are new, so their postings are put with them.
+        entities.addAll(ObjectifyPhotoSearchIndex.postings(photos));
+        inFlight.add(ofy().save().entities(entities));
+        Integer count = imported.get(kind);
+        imported.put(kind, (count == null ? 0 : count) + accepted.size());
+    }
+
+    private static long previewPhotoId(JsonObject theme) {
+        return theme.has("previewPhotoId") ? theme.get("previewPhotoId").getAsLong() : 0;
+    }
+}
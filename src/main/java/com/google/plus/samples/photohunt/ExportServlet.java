@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.plus.samples.photohunt.model.EntityJson;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.cmd.Query;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Exports the datastore's Users, Themes, Photos, Votes and friend edges as
+ * NDJSON, in the format of EntityJson.  This servlet provides the
+ * /admin/export end-point, and exposes the following operations:
+ * <p/>
+ * GET /admin/export
+ * <p/>
+ * Entities are read a chunk at a time with cursor queries and written out as
+ * they are read, bypassing Objectify's caches, so memory use doesn't grow
+ * with the data.  A response stops after MAX_ENTITIES entities or
+ * MAX_RESPONSE_MS, whichever comes first, to stay within App Engine's
+ * request deadline and response size; its last cursor line says where the
+ * next request picks up.  ExportTool follows the cursors to export
+ * everything.
+ * <p/>
+ * web.xml restricts it to the app's administrators.  Entities kept by the
+ * in-memory repositories are not exported.
+ */
+public class ExportServlet extends HttpServlet {
+
+    /**
+     * Entities read and written at a time.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Most entities written by one response.
+     */
+    private static final int MAX_ENTITIES = 20000;
+
+    /**
+     * How long a response may take, in milliseconds, short of the request
+     * deadline.
+     */
+    private static final long MAX_RESPONSE_MS = 40 * 1000l;
+
+    /**
+     * Exposed as `GET /admin/export`.
+     * <p/>
+     * Accepts the following request parameters.
+     * <p/>
+     * 'cursor': value of the last cursor line of an earlier response, to
+     * resume from.  The export starts at the beginning without it.
+     * <p/>
+     * Returns the entities in NDJSON, each chunk followed by a cursor line.
+     * The last line is a done line once there is nothing left to export.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 400: "Invalid cursor."
+     *
+     * @see javax.servlet.http.HttpServlet#doGet(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        List<String> kinds = new ArrayList<String>(EntityJson.KINDS.keySet());
+        int kindIndex = 0;
+        Cursor cursor = null;
+        String resumeFrom = req.getParameter("cursor");
+        if (resumeFrom != null) {
+            try {
+                int separator = resumeFrom.indexOf(':');
+                kindIndex = Integer.parseInt(resumeFrom.substring(0, separator));
+                String position = resumeFrom.substring(separator + 1);
+                cursor = position.isEmpty() ? null : Cursor.fromWebSafeString(position);
+            } catch (RuntimeException e) {
+                resp.sendError(400, "Invalid cursor.");
+                return;
+            }
+        }
+
+        resp.setContentType("application/x-ndjson");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        Writer out = new OutputStreamWriter(resp.getOutputStream(), "UTF-8");
+        long deadline = System.currentTimeMillis() + MAX_RESPONSE_MS;
+        int written = 0;
+        Objectify uncached = ofy().cache(false);
+        while (kindIndex < kinds.size()) {
+            if (written >= MAX_ENTITIES || System.currentTimeMillis() >= deadline) {
+                out.flush();
+                return;
+            }
+            String kind = kinds.get(kindIndex);
+            Query<?> query = uncached.load().type(EntityJson.KINDS.get(kind))
+                    .chunk(CHUNK_SIZE).limit(CHUNK_SIZE);
+            if (cursor != null) {
+                query = query.startAt(cursor);
+            }
+            QueryResultIterator<?> entities = query.iterator();
+            int read = 0;
+            while (entities.hasNext()) {
+                out.write(EntityJson.toLine(kind, entities.next()));
+                out.write('\n');
+                read++;
+            }
+            written += read;
+            if (read < CHUNK_SIZE) {
+                kindIndex++;
+                cursor = null;
+            } else {
+                cursor = entities.getCursor();
+            }
+            // Don't keep what was read in the session cache.
+            uncached.clear();
+            out.write(EntityJson.cursorLine(kindIndex + ":"
+                    + (cursor == null ? "" : cursor.toWebSafeString())));
+            out.write('\n');
+            out.flush();
+            resp.flushBuffer();
+        }
+        out.write(EntityJson.doneLine());
+        out.write('\n');
+        out.flush();
+    }
+}
@@ -16,18 +16,12 @@
 
 package com.google.plus.samples.photohunt;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
 import com.google.plus.samples.photohunt.model.User;
-import com.googlecode.objectify.Key;
-
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 
 /**
  * Provides an API for working with Users. This servlet provides
@@ -69,18 +63,9 @@ public class FriendsServlet extends JsonRestServlet {
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
         try {
             checkAuthorization(req);
-            String userId = req.getSession()
-                    .getAttribute(CURRENT_USER_SESSION_KEY).toString();
-            User user = ofy().load().key(User.key(
-                    Long.parseLong(userId))).safe();
-            List<DirectedUserToUserEdge> edges = ofy().load()
-                    .type(DirectedUserToUserEdge.class)
-                    .filter("ownerUserId =", user.getId()).list();
-            List<Key<User>> friendKeys = new ArrayList<Key<User>>();
-            for (DirectedUserToUserEdge edge : edges) {
-                friendKeys.add(User.key(edge.getFriendUserId()));
-            }
-            Collection<User> friends = ofy().load().keys(friendKeys).values();
+            long userId = Long.parseLong(req.getSession()
+                    .getAttribute(CURRENT_USER_SESSION_KEY).toString());
+            Collection<User> friends = User.load(userId).getFriends();
             sendResponse(req, resp, friends, "photohunt#friends");
         } catch (UserNotAuthorizedException e) {
             sendError(resp, 401, "Unauthorized request");
@@ -19,10 +19,9 @@ package com.google.plus.samples.photohunt;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.utils.SystemProperty;
 import com.google.plus.samples.photohunt.model.UploadUrl;
+import com.google.plus.samples.photohunt.storage.BlobStorage;
+import com.google.plus.samples.photohunt.storage.BlobStorageFactory;
 
 /**
  * Provides an API for creating and retrieving URLs to which photo images can be
@@ -37,10 +36,9 @@ import com.google.plus.samples.photohunt.model.UploadUrl;
  */
 public class ImagesServlet extends JsonRestServlet {
     /**
-     * BlobstoreService to use for upload URL generation.
+     * BlobStorage to use for upload URL generation.
      */
-    private final BlobstoreService blobstoreService = BlobstoreServiceFactory
-            .getBlobstoreService();
+    private final BlobStorage storage = BlobStorageFactory.getBlobStorage();
 
     /**
      * Exposed as `POST /api/images`.
@@ -67,17 +65,7 @@ public class ImagesServlet extends JsonRestServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
         try {
             checkAuthorization(req);
-            String uploadUrlString = blobstoreService.createUploadUrl("/api/photos");
-
-            if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
-                String hostname = System.getProperty("development.hostname");
-
-                if (hostname != null) {
-                    // modify the url to allow use with the development server
-                    uploadUrlString = uploadUrlString.replace("localhost", hostname);
-                }
-            }
-
+            String uploadUrlString = storage.createUploadUrl("/api/photos");
             UploadUrl uploadUrl = new UploadUrl(uploadUrlString);
 
             sendResponse(req, resp, uploadUrl);
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Imports entities exported by ExportServlet.  This servlet provides the
+ * /admin/import end-point, and exposes the following operations:
+ * <p/>
+ * POST /admin/import
+ * <p/>
+ * An import is made of any number of requests sharing an import ID, each
+ * posting a part of the export in order; see EntityImporter.  ImportTool
+ * sends a whole export file this way.
+ * <p/>
+ * web.xml restricts it to the app's administrators.
+ */
+public class ImportServlet extends HttpServlet {
+
+    /**
+     * Exposed as `POST /admin/import`.
+     * <p/>
+     * Accepts the following request parameters.
+     * <p/>
+     * 'importId': identifies the import, the same for all its requests.
+     * 'finish': if true, the import is complete and the request body is
+     * ignored; resolves what the entities imported refer to across kinds.
+     * <p/>
+     * Takes NDJSON lines of an export in the request body.
+     * <p/>
+     * Returns the following JSON response.
+     * {
+     * "imported":{"User":0,...}, // Entities imported, by kind.
+     * "existing":0, // Entities imported by an earlier request.
+     * "skipped":0, // Entities referring to ones that weren't imported.
+     * "millis":0
+     * }
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 400: "Missing importId."
+     * 400: "Malformed NDJSON: " + error.
+     *
+     * @see javax.servlet.http.HttpServlet#doPost(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        String importId = req.getParameter("importId");
+        if (importId == null || importId.isEmpty()) {
+            resp.sendError(400, "Missing importId.");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        EntityImporter importer = new EntityImporter(importId);
+        if (Boolean.parseBoolean(req.getParameter("finish"))) {
+            importer.finish();
+        } else {
+            req.setCharacterEncoding("UTF-8");
+            try {
+                importer.read(req.getReader());
+            } catch (IOException e) {
+                resp.sendError(400, e.getMessage());
+                return;
+            }
+        }
+
+        JsonObject imported = new JsonObject();
+        for (Map.Entry<String, Integer> kind : importer.getImported().entrySet()) {
+            imported.addProperty(kind.getKey(), kind.getValue());
+        }
+        JsonObject report = new JsonObject();
+        report.add("imported", imported);
+        report.addProperty("existing", importer.getExisting());
+        report.addProperty("skipped", importer.getSkipped());
+        report.addProperty("millis", System.currentTimeMillis() - start);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().print(report);
+    }
+}
@@ -16,27 +16,28 @@
 
 package com.google.plus.samples.photohunt;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
 import com.google.plus.samples.photohunt.model.Jsonifiable;
+import com.google.plus.samples.photohunt.model.RequestContext;
 import com.google.plus.samples.photohunt.model.User;
 
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
-
 /**
  * Abstract servlet to be used by those servlets implementing a JSON ReST API,
  * or at least part of one. Abstracts out a lot of common logic, and makes it
@@ -60,6 +61,12 @@ public abstract class JsonRestServlet extends HttpServlet {
      */
     public static final String JSON_MIMETYPE = "application/json";
 
+    /**
+     * MIME type of the compact binary encoding that clients may ask for
+     * instead of JSON through the Accept header.
+     */
+    public static final String CBOR_MIMETYPE = "application/cbor";
+
     /**
      * Key name in the session referring to the Google user ID of the current
      * user.
@@ -72,14 +79,88 @@ public abstract class JsonRestServlet extends HttpServlet {
     public static final JsonFactory JSON_FACTORY = new JacksonFactory();
 
     /**
-     * HttpTransport to use for external requests.
+     * 100 seconds in milliseconds for token expiration calculations.
      */
-    public static final HttpTransport TRANSPORT = new NetHttpTransport();
+    private static final long HUNDRED_SECONDS_IN_MS = 100000l;
 
     /**
-     * 100 seconds in milliseconds for token expiration calculations.
+     * HTTP status for requests shed by admission control, which
+     * HttpServletResponse doesn't define.
      */
-    private static final long HUNDRED_SECONDS_IN_MS = 100000l;
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Admission control shared by all API servlets.
+     */
+    private AdmissionController admission;
+
+    @Override
+    public void init() throws ServletException {
+        admission = AdmissionController.get(getServletContext());
+    }
+
+    /**
+     * Binds the request to a RequestContext for as long as it is being served,
+     * so that models can build links relative to the request's host.  Writes
+     * must first pass admission control, and are rejected with a 429 if the
+     * client is over its rate or the instance is at its concurrency limit.
+     *
+     * @see javax.servlet.http.HttpServlet#service(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        boolean write = isWrite(req);
+        if (write) {
+            int retryAfter = admission.tryAcquireRate(getClientKey(req),
+                    req.getServletPath() + " " + req.getMethod());
+            if (retryAfter == 0) {
+                retryAfter = admission.tryAcquireWrite();
+            }
+            if (retryAfter != 0) {
+                resp.setHeader("Retry-After", String.valueOf(retryAfter));
+                sendError(resp, SC_TOO_MANY_REQUESTS, "Too many requests, retry later.");
+                return;
+            }
+        }
+        RequestContext.begin(getBaseUrlFromRequest(req));
+        try {
+            super.service(req, resp);
+        } finally {
+            RequestContext.end();
+            if (write) {
+                admission.releaseWrite();
+            }
+        }
+    }
+
+    /**
+     * @param req Request to check.
+     * @return True if the request may change state.
+     */
+    private static boolean isWrite(HttpServletRequest req) {
+        String method = req.getMethod();
+        return !"GET".equals(method) && !"HEAD".equals(method)
+                && !"OPTIONS".equals(method);
+    }
+
+    /**
+     * @param req Request to identify the client of.
+     * @return The ID of the connected user, or the remote address of clients
+     * that haven't connected.
+     */
+    private static String getClientKey(HttpServletRequest req) {
+        HttpSession session = req.getSession(false);
+        if (session != null) {
+            Object userId = session.getAttribute(CURRENT_USER_SESSION_KEY);
+            if (userId != null) {
+                return "user:" + userId;
+            }
+        }
+        return "addr:" + req.getRemoteAddr();
+    }
 
     /**
      * Send an error down the given response.
@@ -113,15 +194,15 @@ public abstract class JsonRestServlet extends HttpServlet {
     protected void sendResponse(HttpServletRequest req,
                                 HttpServletResponse resp, Collection<? extends Jsonifiable> body,
                                 String kind) {
-        resp.setContentType(JSON_MIMETYPE);
+        Jsonifiable.prepareForSerialization(body);
         try {
             if (req.getParameter("items") != null) {
                 Map<String, Object> jsonObject = new HashMap<String, Object>();
                 jsonObject.put("kind", kind);
                 jsonObject.put("items", body);
-                resp.getWriter().print(Jsonifiable.GSON.toJson(jsonObject));
+                writeBody(req, resp, jsonObject);
             } else {
-                resp.getWriter().print(Jsonifiable.GSON.toJson(body));
+                writeBody(req, resp, body);
             }
         } catch (IOException e) {
             sendError(
@@ -144,15 +225,15 @@ public abstract class JsonRestServlet extends HttpServlet {
      */
     protected void sendResponse(HttpServletRequest req,
                                 HttpServletResponse resp, Object body, String kind) {
-        resp.setContentType(JSON_MIMETYPE);
+        Jsonifiable.prepareForSerialization(Collections.singleton(body));
         try {
             if (req.getParameter("items") != null) {
                 Map<String, Object> jsonObject = new HashMap<String, Object>();
                 jsonObject.put("kind", kind);
                 jsonObject.put("item", body);
-                resp.getWriter().print(Jsonifiable.GSON.toJson(jsonObject));
+                writeBody(req, resp, jsonObject);
             } else {
-                resp.getWriter().print(body.toString());
+                writeBody(req, resp, body);
             }
         } catch (IOException e) {
             sendError(
@@ -175,15 +256,15 @@ public abstract class JsonRestServlet extends HttpServlet {
      */
     protected void sendResponse(HttpServletRequest req,
                                 HttpServletResponse resp, Jsonifiable body) {
-        resp.setContentType(JSON_MIMETYPE);
+        Jsonifiable.prepareForSerialization(Collections.singleton(body));
         try {
             if (req.getParameter("items") != null) {
                 Map<String, Object> jsonObject = new HashMap<String, Object>();
                 jsonObject.put("kind", body.kind);
                 jsonObject.put("item", body);
-                resp.getWriter().print(Jsonifiable.GSON.toJson(jsonObject));
+                writeBody(req, resp, jsonObject);
             } else {
-                resp.getWriter().print(body.toString());
+                writeBody(req, resp, body);
             }
         } catch (IOException e) {
             sendError(
@@ -195,6 +276,65 @@ public abstract class JsonRestServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Write the given payload down the given response, as CBOR if the client
+     * prefers it over JSON, otherwise as JSON.  Both encodings are produced by
+     * Jsonifiable.GSON, so they carry the same fields.
+     *
+     * @param req     Request whose Accept header to negotiate the encoding with.
+     * @param resp    Response to write the payload to.
+     * @param payload Prepared model, collection of models or envelope to write.
+     * @throws IOException Failed to write to the response.
+     */
+    private void writeBody(HttpServletRequest req, HttpServletResponse resp,
+                           Object payload) throws IOException {
+        resp.addHeader("Vary", "Accept");
+        if (prefersCbor(req.getHeader("Accept"))) {
+            resp.setContentType(CBOR_MIMETYPE);
+            CborWriter writer = new CborWriter(
+                    new BufferedOutputStream(resp.getOutputStream()));
+            Jsonifiable.GSON.toJson(payload, payload.getClass(), writer);
+            writer.flush();
+        } else {
+            resp.setContentType(JSON_MIMETYPE);
+            resp.getWriter().print(Jsonifiable.GSON.toJson(payload));
+        }
+    }
+
+    /**
+     * @param accept Accept header of a request, or null if it has none.
+     * @return True if the header ranks CBOR strictly above zero and at least
+     * as high as JSON.
+     */
+    static boolean prefersCbor(String accept) {
+        if (accept == null || accept.indexOf("cbor") < 0) {
+            return false;
+        }
+        float cbor = 0;
+        float json = 0;
+        for (String range : accept.split(",")) {
+            String[] params = range.split(";");
+            String type = params[0].trim().toLowerCase();
+            float q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (CBOR_MIMETYPE.equals(type)) {
+                cbor = Math.max(cbor, q);
+            } else if (JSON_MIMETYPE.equals(type)) {
+                json = Math.max(json, q);
+            }
+        }
+        return cbor > 0 && cbor >= json;
+    }
+
     /**
      * Ensure that there is a user connected before honoring the given request.
      *
@@ -218,12 +358,10 @@ public abstract class JsonRestServlet extends HttpServlet {
      */
     protected GoogleCredential getCredentialFromLoggedInUser(
             HttpServletRequest req) throws GoogleTokenExpirationException {
-        User loggedInUser = ofy()
-                .load()
-                .type(User.class)
-                .id(Long.parseLong(req.getSession()
-                                           .getAttribute(CURRENT_USER_SESSION_KEY).toString()))
-                .now();
+        User loggedInUser = User.load(Long.parseLong(req.getSession()
+                .getAttribute(CURRENT_USER_SESSION_KEY).toString()));
+        // Have the token refreshed in the background before it expires.
+        TokenRefresher.touch(loggedInUser);
 
         // If the user doesn't have a refresh token, check if the expiration of
         // the access token is near to signal to the client to get a new token.
@@ -236,7 +374,7 @@ public abstract class JsonRestServlet extends HttpServlet {
 
         return new GoogleCredential.Builder()
                 .setJsonFactory(JSON_FACTORY)
-                .setTransport(TRANSPORT)
+                .setTransport(OutboundHttp.getTransport())
                 .setClientSecrets(CLIENT_ID, CLIENT_SECRET)
                 .build()
                 .setAccessToken(loggedInUser.getGoogleAccessToken())
@@ -244,6 +382,15 @@ public abstract class JsonRestServlet extends HttpServlet {
                 .setExpirationTimeMilliseconds(loggedInUser.getGoogleExpiresAt());
     }
 
+    /**
+     * @param req Request from which to fetch base URL.
+     * @return Base URL from the given request.
+     */
+    protected static String getBaseUrlFromRequest(HttpServletRequest req) {
+        return req.getScheme() + "://" + req.getServerName()
+                + ((req.getServerPort() != 80) ? (":" + req.getServerPort()) : "");
+    }
+
     /**
      * Thrown if the current user is not authorized or connected.
      */
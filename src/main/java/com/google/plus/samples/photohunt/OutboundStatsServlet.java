@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+
+/**
+ * Reports the latency histograms of the Google API calls made by the
+ * instance serving the request.  This servlet provides the
+ * /admin/outbound end-point, and exposes the following operations:
+ * <p/>
+ * GET /admin/outbound
+ * <p/>
+ * web.xml restricts it to the app's administrators.
+ */
+public class OutboundStatsServlet extends HttpServlet {
+
+    /**
+     * Exposed as `GET /admin/outbound`.
+     * <p/>
+     * Returns one line of plain text per endpoint, with its name, the state of
+     * its circuit breaker, call and error counts, latency percentiles and
+     * bucket counts.
+     *
+     * @see javax.servlet.http.HttpServlet#doGet(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        resp.setContentType("text/plain");
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = resp.getWriter();
+        for (GoogleEndpoint endpoint : GoogleEndpoint.values()) {
+            out.println(endpoint.getName() + " " + endpoint.getBreaker() + " "
+                    + endpoint.getLatency());
+        }
+    }
+}
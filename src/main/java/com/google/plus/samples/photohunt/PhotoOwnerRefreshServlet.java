@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Refreshes the owner fields of a User's Photos, a batch at a time, as
+ * scheduled by PhotoOwnerRefresher.  This servlet provides the
+ * /tasks/refreshPhotoOwners end-point, and exposes the following operations:
+ * <p/>
+ * POST /tasks/refreshPhotoOwners
+ * <p/>
+ * Only the task queue may call it.  App Engine strips the
+ * X-AppEngine-QueueName header from outside requests, so its presence shows
+ * that the request comes from a task.
+ */
+public class PhotoOwnerRefreshServlet extends HttpServlet {
+
+    private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+    /**
+     * Exposed as `POST /tasks/refreshPhotoOwners`.
+     * <p/>
+     * Takes the parameters:
+     * 'userId': ID of the User whose Photos to refresh.
+     * 'after': ID of the last Photo refreshed by the previous batch.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 403: "Only the task queue may refresh photo owners."
+     *
+     * @see javax.servlet.http.HttpServlet#doPost(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (req.getHeader(QUEUE_NAME_HEADER) == null) {
+            resp.sendError(403, "Only the task queue may refresh photo owners.");
+            return;
+        }
+        PhotoOwnerRefresher.refresh(Long.parseLong(req.getParameter("userId")),
+                                    Long.parseLong(req.getParameter("after")));
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
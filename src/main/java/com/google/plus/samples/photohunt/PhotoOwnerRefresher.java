@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.plus.samples.photohunt.model.EntityCache;
+import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.PhotoCard;
+import com.google.plus.samples.photohunt.model.User;
+import com.google.plus.samples.photohunt.repository.PhotoRepository;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Keeps the owner fields that Photos and PhotoCards copy from their User up
+ * to date, so that lists never have to join against User.
+ * <p/>
+ * When a User's Google profile changes, ConnectServlet schedules a refresh on
+ * the "photo-owners" push queue, which calls PhotoOwnerRefreshServlet.  Each
+ * task rewrites one batch of the User's Photos, in ID order, with batched
+ * puts, and schedules the next batch PACE_MS later, so that a User with many
+ * Photos doesn't flood the datastore.  The owner fields are read from the
+ * stored User by each batch, so a profile that changes again while a refresh
+ * runs still ends up current.  Rewritten Photos are indexed again under the
+ * new display name in the PhotoSearchIndex.
+ */
+public class PhotoOwnerRefresher {
+
+    /**
+     * Path of PhotoOwnerRefreshServlet, as mapped in web.xml.
+     */
+    public static final String REFRESH_URL = "/tasks/refreshPhotoOwners";
+
+    private static final String REFRESH_QUEUE = "photo-owners";
+
+    /**
+     * Photos rewritten by each task.
+     */
+    private static final int MAX_BATCH = 100;
+
+    /**
+     * Delay between the batches of a refresh, in milliseconds.
+     */
+    private static final long PACE_MS = 1000l;
+
+    /**
+     * Schedule a refresh of the owner fields of the given User's Photos.
+     *
+     * @param userId ID of the User whose profile changed.
+     */
+    public static void schedule(long userId) {
+        schedule(userId, 0, 0);
+    }
+
+    /**
+     * Rewrite the next batch of the given User's Photos whose owner fields
+     * are out of date, and schedule the batch after it.
+     *
+     * @param userId       ID of the User whose Photos to refresh.
+     * @param afterPhotoId ID of the last Photo refreshed by the previous
+     *                     batch, or 0 for the first batch.
+     * @return Number of Photos rewritten.
+     */
+    public static int refresh(long userId, long afterPhotoId) {
+        User owner = RepositoryFactory.getUserRepository().get(userId);
+        if (owner == null) {
+            // Disconnected, and their Photos were deleted with them.
+            return 0;
+        }
+        PhotoRepository photos = RepositoryFactory.getPhotoRepository();
+        List<Long> batchIds = photos.findIds(userId, afterPhotoId, MAX_BATCH);
+        if (batchIds.isEmpty()) {
+            return 0;
+        }
+
+        List<Photo> stale = new ArrayList<Photo>(batchIds.size());
+        List<PhotoCard> cards = new ArrayList<PhotoCard>(batchIds.size());
+        List<String> pageKeys = new ArrayList<String>(batchIds.size());
+        for (Photo photo : photos.get(batchIds).values()) {
+            if (Objects.equals(photo.getOwnerDisplayName(), owner.getGoogleDisplayName())
+                    && Objects.equals(photo.getOwnerProfileUrl(),
+                                      owner.getGooglePublicProfileUrl())
+                    && Objects.equals(photo.getOwnerProfilePhoto(),
+                                      owner.getGooglePublicProfilePhotoUrl())) {
+                continue;
+            }
+            photo.setOwnerDisplayName(owner.getGoogleDisplayName());
+            photo.setOwnerProfileUrl(owner.getGooglePublicProfileUrl());
+            photo.setOwnerProfilePhoto(owner.getGooglePublicProfilePhotoUrl());
+            stale.add(photo);
+            cards.add(PhotoCard.of(photo));
+            pageKeys.add(RenderedPageCache.photoKey(photo.getId()));
+        }
+        if (!stale.isEmpty()) {
+            photos.saveAll(stale);
+            ofy().save().entities(cards).now();
+            RepositoryFactory.getPhotoSearchIndex().index(stale);
+            List<Long> staleIds = new ArrayList<Long>(stale.size());
+            for (Photo photo : stale) {
+                staleIds.add(photo.getId());
+            }
+            EntityCache.invalidate(Photo.class, staleIds);
+            RenderedPageCache.invalidate(pageKeys.toArray(new String[pageKeys.size()]));
+        }
+        if (batchIds.size() == MAX_BATCH) {
+            schedule(userId, batchIds.get(batchIds.size() - 1), PACE_MS);
+        }
+        return stale.size();
+    }
+
+    private static void schedule(long userId, long afterPhotoId, long countdownMillis) {
+        QueueFactory.getQueue(REFRESH_QUEUE).add(TaskOptions.Builder.withUrl(REFRESH_URL)
+                .param("userId", String.valueOf(userId))
+                .param("after", String.valueOf(afterPhotoId))
+                .countdownMillis(countdownMillis));
+    }
+}
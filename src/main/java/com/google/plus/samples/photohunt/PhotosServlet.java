@@ -19,8 +19,12 @@ package com.google.plus.samples.photohunt;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -31,16 +35,26 @@ import com.google.api.services.plus.Plus;
 import com.google.api.services.plus.Plus.Moments.Insert;
 import com.google.api.services.plus.model.ItemScope;
 import com.google.api.services.plus.model.Moment;
-import com.google.appengine.api.blobstore.BlobKey;
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
+import com.google.plus.samples.photohunt.model.EntityCache;
+import com.google.plus.samples.photohunt.model.ImageBlob;
 import com.google.plus.samples.photohunt.model.Message;
 import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.PhotoCard;
 import com.google.plus.samples.photohunt.model.Theme;
+import com.google.plus.samples.photohunt.model.TrendingBoard;
 import com.google.plus.samples.photohunt.model.User;
 import com.google.plus.samples.photohunt.model.Vote;
+import com.google.plus.samples.photohunt.model.VoteTally;
+import com.google.plus.samples.photohunt.repository.PhotoRepository;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.VoteRepository;
+import com.google.plus.samples.photohunt.storage.BlobStorage;
+import com.google.plus.samples.photohunt.storage.BlobStorageFactory;
+import com.google.plus.samples.photohunt.storage.StoredBlob;
 import com.googlecode.objectify.NotFoundException;
-import com.googlecode.objectify.cmd.Query;
 
 import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 
@@ -54,6 +68,7 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
  * GET /api/photos?userId=me
  * GET /api/photos?themeId=1234&userId=me
  * GET /api/photos?themeId=1234&userId=me&friends=true
+ * GET /api/photos?themeId=1234&view=card
  * POST /api/photos
  * DELETE /api/photos?photoId=1234
  *
@@ -62,21 +77,24 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 public class PhotosServlet extends JsonRestServlet {
 
     /**
-     * Base URL of the /api/photos end-point.  Initialized for every GET request.
+     * Logger for this servlet.
      */
-    public static String BASE_URL;
+    private static final Logger log = Logger.getLogger(PhotosServlet.class.getName());
 
     /**
-     * Logger for this servlet.
+     * Most Photos listed when ordering by trend.
      */
-    private static final Logger log = Logger.getLogger(PhotosServlet.class.getName());
+    private static final int MAX_TRENDING = 50;
 
     /**
-     * BlobstoreService from which to fetch image information after an Image
+     * BlobStorage from which to fetch image information after an Image
      * upload.
      */
-    private final BlobstoreService blobstoreService =
-            BlobstoreServiceFactory.getBlobstoreService();
+    private final BlobStorage storage = BlobStorageFactory.getBlobStorage();
+
+    private final PhotoRepository photos = RepositoryFactory.getPhotoRepository();
+
+    private final VoteRepository votes = RepositoryFactory.getVoteRepository();
 
     /**
      * Exposed as `GET /api/photos`.
@@ -91,6 +109,11 @@ public class PhotosServlet extends JsonRestServlet {
      * converted to the logged in user. Requires auth.
      * 'friends': value evaluated to boolean, if true will filter only photos
      * from friends of the logged in user. Requires auth.
+     * 'view': if "card", lists will hold PhotoCards, which carry only the
+     * fields rendered by the gallery grid, instead of full Photos.
+     * 'order': if "trending", lists will hold the Photos of the Theme given
+     * by 'themeId', or of the current Theme, that are gaining votes fastest,
+     * most trending first.  Otherwise Photos are listed in ID order.
      * <p/>
      * Returns the following JSON response representing a list of Photos.
      * <p/>
@@ -114,6 +137,27 @@ public class PhotosServlet extends JsonRestServlet {
      * ...
      * ]
      * <p/>
+     * When 'view' is "card", returns the following JSON response representing
+     * a list of PhotoCards.
+     * <p/>
+     * [
+     * {
+     * "id":0,
+     * "ownerUserId":0,
+     * "ownerDisplayName":"",
+     * "ownerProfileUrl":"",
+     * "ownerProfilePhoto":"",
+     * "themeId":0,
+     * "themeDisplayName":"",
+     * "thumbnailUrl":"",
+     * "numVotes":0,
+     * "voted":false,
+     * "voteCtaUrl":"",
+     * "photoContentUrl":""
+     * },
+     * ...
+     * ]
+     * <p/>
      * Issues the following errors along with corresponding HTTP response codes:
      * 401: "Unauthorized request" (if certain parameters are present in the
      * request)
@@ -125,7 +169,6 @@ public class PhotosServlet extends JsonRestServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
         try {
-            BASE_URL = getBaseUrlFromRequest(req);
             String photoId = req.getParameter("photoId");
             String themeId = req.getParameter("themeId");
             String userIdParam = req.getParameter("userId");
@@ -136,10 +179,11 @@ public class PhotosServlet extends JsonRestServlet {
                                                        .getAttribute(CURRENT_USER_SESSION_KEY).toString());
             }
             boolean showFriends = Boolean.parseBoolean(req.getParameter("friends"));
-            Query<Photo> q = ofy().load().type(Photo.class);
+            Collection<Long> ownerUserIds = null;
+            Long themeIdFilter = null;
             if (photoId != null) {
                 // Get the photo with the given ID and return it.
-                Photo photo = q.filter("id", Long.parseLong(photoId)).first().now();
+                Photo photo = Photo.load(Long.parseLong(photoId));
                 sendResponse(req, resp, photo);
             } else {
                 if (userIdParam != null) {
@@ -154,14 +198,13 @@ public class PhotosServlet extends JsonRestServlet {
                     if (showFriends) {
                         checkAuthorization(req);
                         // Get all photos for the user's friends.
-                        User user = ofy().load().type(User.class)
-                                .filterKey(User.key(userId)).first().now();
+                        User user = User.load(userId);
                         List<Long> friendIds = user.getFriendIds();
                         if (friendIds.size() > 30) {
                             friendIds = friendIds.subList(0, 30);
                         }
                         if (friendIds.size() > 0) {
-                            q = q.filter("ownerUserId in", friendIds);
+                            ownerUserIds = friendIds;
                         } else {
                             List<Photo> emptyList = new ArrayList<Photo>();
                             // If there are no friends for the user, return an empty list
@@ -171,30 +214,60 @@ public class PhotosServlet extends JsonRestServlet {
                         }
                     } else {
                         // Get all photos for the user.
-                        q = q.filter("ownerUserId", userId);
+                        ownerUserIds = Collections.singletonList(userId);
                     }
                 }
                 if (themeId != null) {
                     // Limit photos to just those for the given theme.
-                    q = q.filter("themeId", Long.parseLong(themeId));
+                    themeIdFilter = Long.parseLong(themeId);
                 }
-                List<Photo> photos = q.list();
-
+                // Start fetching the current user's votes alongside the photos.
+                List<Vote> userVotes = Collections.emptyList();
                 if (currentUserId != -1l) {
-                    // Build Hash map of voted photos
-                    List<Vote> userVotes = ofy().load().type(Vote.class)
-                            .filter("ownerUserId", currentUserId)
-                            .list();
-                    HashMap<Long, Boolean> userVotesTable = new HashMap<Long, Boolean>(userVotes.size());
-                    for (Vote userVote : userVotes) {
-                        userVotesTable.put(userVote.getPhotoId(), true);
+                    userVotes = votes.findByOwner(currentUserId);
+                }
+                List<Long> trendingIds = null;
+                if ("trending".equals(req.getParameter("order"))) {
+                    trendingIds = findTrendingIds(themeIdFilter);
+                }
+                if ("card".equals(req.getParameter("view"))) {
+                    // Gallery listing: only the slim cards are needed.
+                    List<PhotoCard> cards = PhotoCard.load(trendingIds != null
+                            ? trendingIds : photos.findIds(ownerUserIds, themeIdFilter));
+                    if (trendingIds != null && ownerUserIds != null) {
+                        List<PhotoCard> owned = new ArrayList<PhotoCard>(cards.size());
+                        for (PhotoCard card : cards) {
+                            if (ownerUserIds.contains(card.getOwnerUserId())) {
+                                owned.add(card);
+                            }
+                        }
+                        cards = owned;
                     }
-                    // Check if user voted for each photo
-                    for (Photo current : photos) {
-                        current.setVoted(userVotesTable.containsKey(current.getId()));
+                    Set<Long> votedPhotoIds = getVotedPhotoIds(userVotes);
+                    for (PhotoCard card : cards) {
+                        card.setVoted(votedPhotoIds.contains(card.getId()));
                     }
+                    PhotoCard.loadVoteCounts(cards);
+                    sendResponse(req, resp, cards, "photohunt#photocards");
+                    return;
                 }
-                sendResponse(req, resp, photos, "photohunt#photos");
+                List<Photo> found;
+                if (trendingIds != null) {
+                    found = new ArrayList<Photo>(trendingIds.size());
+                    for (Photo photo : photos.get(trendingIds).values()) {
+                        if (ownerUserIds == null || ownerUserIds.contains(photo.getOwnerUserId())) {
+                            found.add(photo);
+                        }
+                    }
+                } else {
+                    found = photos.find(ownerUserIds, themeIdFilter);
+                }
+                Set<Long> votedPhotoIds = getVotedPhotoIds(userVotes);
+                // Check if user voted for each photo
+                for (Photo current : found) {
+                    current.setVoted(votedPhotoIds.contains(current.getId()));
+                }
+                sendResponse(req, resp, found, "photohunt#photos");
             }
         } catch (UserNotAuthorizedException e) {
             sendError(resp, 401,
@@ -259,35 +332,48 @@ public class PhotosServlet extends JsonRestServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
         try {
             checkAuthorization(req);
-            List<BlobKey> blobKeys = blobstoreService.getUploads(req).get("image");
-            BlobKey imageKey = null;
+            StoredBlob upload = storage.getUpload(req, "image");
 
-            if (blobKeys != null) {
-                imageKey = blobKeys.iterator().next();
-            }
-
-            if (imageKey == null) {
+            if (upload == null) {
                 sendError(resp, 400, "Missing image data.");
                 return;
             }
 
+            // Keep a single blob per distinct image.
+            ImageBlob image = ImageBlob.claim(upload);
+            if (!image.getBlobKey().equals(upload.getKey())) {
+                storage.delete(upload.getKey());
+            }
+
             long currentUserId = (Long) req.getSession().getAttribute(
                     CURRENT_USER_SESSION_KEY);
-            User author = ofy().load().type(User.class).id(currentUserId).now();
+            User author = User.load(currentUserId);
             GoogleCredential credential = this.getCredentialFromLoggedInUser(req);
             Photo photo = new Photo();
             photo.setOwnerUserId(author.getId());
             photo.setOwnerDisplayName(author.getGoogleDisplayName());
             photo.setOwnerProfilePhoto(author.getGooglePublicProfilePhotoUrl());
             photo.setOwnerProfileUrl(author.getGooglePublicProfileUrl());
-            photo.setThemeId(Theme.getCurrentTheme().getId());
-            photo.setThemeDisplayName(Theme.getCurrentTheme().getDisplayName());
+            Theme currentTheme = Theme.getCurrentTheme();
+            // A retry of an upload that already went through, for instance
+            // after a client timeout, returns the Photo it created.
+            Photo uploaded = findUploadedPhoto(author.getId(), currentTheme.getId(),
+                    image.getBlobKey());
+            if (uploaded != null) {
+                sendResponse(req, resp, uploaded);
+                return;
+            }
+            photo.setThemeId(currentTheme.getId());
+            photo.setThemeDisplayName(currentTheme.getDisplayName());
             photo.setCreated(Calendar.getInstance().getTime());
             photo.setNumVotes(0);
-            photo.setImageBlobKey(imageKey.getKeyString());
-            ofy().save().entity(photo).now();
-            ofy().clear();
-            photo = ofy().load().type(Photo.class).id(photo.getId()).now();
+            photo.setImageBlobKey(image.getBlobKey());
+            photo.setImageServingUrl(image.getServingUrl());
+            photos.save(photo);
+            ofy().save().entity(PhotoCard.of(photo));
+            RepositoryFactory.getPhotoSearchIndex().index(Collections.singletonList(photo));
+            // The invite page may feature the new photo.
+            RenderedPageCache.invalidate(RenderedPageCache.INVITE_KEY);
             try {
                 addPhotoToGooglePlusHistory(author, photo, credential);
             } catch (MomentWritingException e) {
@@ -298,6 +384,8 @@ public class PhotosServlet extends JsonRestServlet {
             sendError(resp, 401, "Unauthorized request");
         } catch (GoogleTokenExpirationException e) {
             sendError(resp, 401, "Access token expired");
+        } catch (IOException e) {
+            sendError(resp, 400, "Unable to read image data: " + e.getMessage());
         }
     }
 
@@ -326,16 +414,23 @@ public class PhotosServlet extends JsonRestServlet {
         try {
             checkAuthorization(req);
             long photoId = Long.parseLong(req.getParameter("photoId"));
-            Photo photo = ofy().load().key(Photo.key(photoId)).safe();
+            Photo photo = photos.get(photoId);
+            if (photo == null) {
+                throw new NotFoundException();
+            }
             long userId = Long.parseLong(req.getSession()
                                                  .getAttribute(CURRENT_USER_SESSION_KEY).toString());
             if (userId != photo.getOwnerUserId()) {
                 throw new NotFoundException();
             }
-            ofy().delete().entity(photo).now();
-            List<Vote> photoVotes = ofy().load().type(Vote.class)
-                    .filter("photoId", photoId).list();
-            ofy().delete().entities(photoVotes);
+            photos.delete(Collections.singletonList(photo));
+            ofy().delete().key(PhotoCard.key(photoId));
+            RepositoryFactory.getPhotoSearchIndex().remove(Collections.singletonList(photoId));
+            votes.delete(votes.findByPhoto(photoId));
+            VoteTally.delete(Collections.singletonList(photoId));
+            EntityCache.invalidate(Photo.class, Collections.singletonList(photoId));
+            RenderedPageCache.invalidate(RenderedPageCache.photoKey(photoId),
+                                         RenderedPageCache.INVITE_KEY);
             sendResponse(req, resp, new Message("Photo successfully deleted"),
                          "photohunt#message");
         } catch (NotFoundException nfe) {
@@ -348,6 +443,51 @@ public class PhotosServlet extends JsonRestServlet {
         }
     }
 
+    /**
+     * @param themeId ID of the Theme whose trending Photos to find, or null
+     *                for the current Theme.
+     * @return IDs of the trending Photos, most trending first.
+     */
+    private List<Long> findTrendingIds(Long themeId) {
+        if (themeId == null) {
+            Theme currentTheme = Theme.getCurrentTheme();
+            if (currentTheme == null) {
+                return Collections.emptyList();
+            }
+            themeId = currentTheme.getId();
+        }
+        return TrendingBoard.top(themeId, MAX_TRENDING);
+    }
+
+    /**
+     * @param userVotes Votes of the current user.
+     * @return IDs of the Photos the current user voted for.
+     */
+    private Set<Long> getVotedPhotoIds(List<Vote> userVotes) {
+        Set<Long> votedPhotoIds = new HashSet<Long>(userVotes.size());
+        for (Vote userVote : userVotes) {
+            votedPhotoIds.add(userVote.getPhotoId());
+        }
+        return votedPhotoIds;
+    }
+
+    /**
+     * @param ownerUserId ID of the uploading User.
+     * @param themeId     ID of the Theme uploaded to.
+     * @param blobKey     Key of the blob holding the uploaded image.
+     * @return Photo of the given image that the User already uploaded to the
+     * Theme, or null if there is none.
+     */
+    private Photo findUploadedPhoto(long ownerUserId, long themeId, String blobKey) {
+        List<Photo> themePhotos = photos.find(Collections.singletonList(ownerUserId), themeId);
+        for (Photo themePhoto : themePhotos) {
+            if (blobKey.equals(themePhoto.getImageBlobKey())) {
+                return themePhoto;
+            }
+        }
+        return null;
+    }
+
     /**
      * Creates an app activity in Google indicating that the given User has
      * uploaded the given Photo.
@@ -362,25 +502,26 @@ public class PhotosServlet extends JsonRestServlet {
         ItemScope target = new ItemScope().setUrl(photo.getPhotoContentUrl());
         Moment content = new Moment().setType(
                 "http://schemas.google.com/AddActivity").setTarget(target);
-        Plus plus = new Plus.Builder(TRANSPORT, JSON_FACTORY, credential).build();
+        Plus plus = new Plus.Builder(OutboundHttp.getTransport(), JSON_FACTORY,
+                OutboundHttp.initializer(GoogleEndpoint.PLUS_MOMENTS_INSERT, credential)).build();
         try {
-            Insert request = plus.moments().insert(author.getGoogleUserId(),
-                                                   "vault", content);
-            Moment moment = request.execute();
+            final Insert request = plus.moments().insert(author.getGoogleUserId(),
+                                                         "vault", content);
+            OutboundHttp.call(GoogleEndpoint.PLUS_MOMENTS_INSERT, new Callable<Moment>() {
+                @Override
+                public Moment call() throws IOException {
+                    return request.execute();
+                }
+            });
+        } catch (CircuitOpenException e) {
+            // App activity is optional; skip it while Google is failing.
+            log.info("Skipped app activity of user " + author.getId() + ": "
+                    + e.getMessage());
         } catch (IOException e) {
             throw new MomentWritingException(e.getMessage());
         }
     }
 
-    /**
-     * @param req Request from which to fetch base URL.
-     * @return Base URL from the given request.
-     */
-    private String getBaseUrlFromRequest(HttpServletRequest req) {
-        return req.getScheme() + "://" + req.getServerName()
-                + ((req.getServerPort() != 80) ? (":" + req.getServerPort()) : "");
-    }
-
     /**
      * Thrown when writing app activity to Google fails.
      */
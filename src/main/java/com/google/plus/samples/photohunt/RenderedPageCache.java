@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Two-tier cache of rendered HTML pages.  The first tier is a small LRU map
+ * local to this instance, the second is memcache, shared by all instances.
+ * <p/>
+ * Invalidation clears both tiers on the instance handling the change, but
+ * only memcache on the others, so local entries are kept short-lived to bound
+ * how long other instances can serve a stale page.
+ */
+public class RenderedPageCache {
+
+    /**
+     * Cache key of the invite page, which always features the current Theme.
+     */
+    public static final String INVITE_KEY = "invite";
+
+    /**
+     * Maximum number of pages held in the local tier.
+     */
+    private static final int LOCAL_MAX_ENTRIES = 512;
+
+    /**
+     * How long a page stays in the local tier, in milliseconds.
+     */
+    private static final long LOCAL_TTL_MS = 60 * 1000l;
+
+    /**
+     * How long a page stays in memcache, in seconds.
+     */
+    private static final int SHARED_TTL_SECONDS = 10 * 60;
+
+    /**
+     * Memcache namespace holding rendered pages.
+     */
+    private static final String NAMESPACE = "pages";
+
+    /**
+     * Shared tier.
+     */
+    private static final MemcacheService shared =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    /**
+     * Local tier, in least recently used order.
+     */
+    private static final Map<String, LocalEntry> local =
+            new LinkedHashMap<String, LocalEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+                    return size() > LOCAL_MAX_ENTRIES;
+                }
+            };
+
+    /**
+     * @param photoId ID of a Photo.
+     * @return Cache key of the given Photo's page.
+     */
+    public static String photoKey(long photoId) {
+        return "photo:" + photoId;
+    }
+
+    /**
+     * @param key Key of the page to get.
+     * @return Rendered page, or null if it is not cached.
+     */
+    public static String get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (local) {
+            LocalEntry entry = local.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    return entry.html;
+                }
+                local.remove(key);
+            }
+        }
+        String html = (String) shared.get(key);
+        if (html != null) {
+            putLocal(key, html, now);
+        }
+        return html;
+    }
+
+    /**
+     * @param key  Key of the page to store.
+     * @param html Rendered page.
+     */
+    public static void put(String key, String html) {
+        putLocal(key, html, System.currentTimeMillis());
+        shared.put(key, html, Expiration.byDeltaSeconds(SHARED_TTL_SECONDS));
+    }
+
+    /**
+     * Drop the given pages from both tiers.
+     *
+     * @param keys Keys of the pages to drop.
+     */
+    public static void invalidate(String... keys) {
+        List<Object> sharedKeys = new ArrayList<Object>(keys.length);
+        synchronized (local) {
+            for (String key : keys) {
+                local.remove(key);
+                sharedKeys.add(key);
+            }
+        }
+        shared.deleteAll(sharedKeys);
+    }
+
+    private static void putLocal(String key, String html, long now) {
+        synchronized (local) {
+            local.put(key, new LocalEntry(html, now + LOCAL_TTL_MS));
+        }
+    }
+
+    /**
+     * Page held in the local tier.
+     */
+    private static class LocalEntry {
+        final String html;
+        final long expiresAt;
+
+        LocalEntry(String html, long expiresAt) {
+            this.html = html;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Serves photo.jsp and invite.jsp from the RenderedPageCache.  These pages
+ * only carry schema.org microdata for crawlers and share previews, so their
+ * output depends on nothing but the Photo or Theme they describe.  On a miss
+ * the page is rendered as usual and its output captured into the cache.
+ */
+public class RenderedPageFilter implements Filter {
+
+    /**
+     * MIME type of the cached pages.
+     */
+    private static final String HTML_MIMETYPE = "text/html;charset=UTF-8";
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+                         FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        String key = getCacheKey(req);
+        if (key == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String html = RenderedPageCache.get(key);
+        if (html == null) {
+            CapturingResponse capture = new CapturingResponse(resp);
+            chain.doFilter(request, capture);
+            html = capture.getOutput();
+            if (capture.status != HttpServletResponse.SC_OK) {
+                // Don't cache errors.  Errors sent with sendError() have
+                // already been committed on the real response.
+                if (!resp.isCommitted()) {
+                    resp.getWriter().write(html);
+                }
+                return;
+            }
+            RenderedPageCache.put(key, html);
+        }
+        resp.setContentType(HTML_MIMETYPE);
+        resp.getWriter().write(html);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * @param req Request for a rendered page.
+     * @return Cache key of the requested page, or null if it can't be cached.
+     */
+    private String getCacheKey(HttpServletRequest req) {
+        String path = req.getServletPath();
+        if ("/invite.html".equals(path)) {
+            return RenderedPageCache.INVITE_KEY;
+        }
+        if ("/photo.html".equals(path)) {
+            try {
+                return RenderedPageCache.photoKey(
+                        Long.parseLong(req.getParameter("photoId")));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Response that buffers everything written to it so that it can be cached.
+     */
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+        private final CharArrayWriter buffer = new CharArrayWriter();
+        private final PrintWriter writer = new PrintWriter(buffer);
+        private int status = SC_OK;
+
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            status = sc;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            status = sc;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            status = SC_MOVED_TEMPORARILY;
+            super.sendRedirect(location);
+        }
+
+        String getOutput() {
+            writer.flush();
+            return buffer.toString();
+        }
+    }
+}
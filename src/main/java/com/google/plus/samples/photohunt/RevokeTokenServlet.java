@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Revokes the tokens of disconnected Users that couldn't be revoked while
+ * they disconnected.  This servlet provides the /tasks/revokeToken
+ * end-point, and exposes the following operations:
+ * <p/>
+ * POST /tasks/revokeToken
+ * <p/>
+ * Only the task queue may call it.  App Engine strips the
+ * X-AppEngine-QueueName header from outside requests, so its presence shows
+ * that the request comes from a task.
+ */
+public class RevokeTokenServlet extends HttpServlet {
+
+    /**
+     * Logger for this servlet.
+     */
+    private static final Logger log = Logger.getLogger(RevokeTokenServlet.class.getName());
+
+    private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+    /**
+     * Exposed as `POST /tasks/revokeToken`.
+     * <p/>
+     * Takes the refresh or access token to revoke in the token parameter.
+     * <p/>
+     * A token that Google rejects with a 4xx response, because it expired or
+     * was revoked already, won't be revoked by retrying, so the rejection is
+     * logged and the task completes.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 403: "Only the task queue may revoke tokens."
+     * 503: "Failed to revoke token: " + error.  The task queue retries it.
+     *
+     * @see javax.servlet.http.HttpServlet#doPost(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (req.getHeader(QUEUE_NAME_HEADER) == null) {
+            resp.sendError(403, "Only the task queue may revoke tokens.");
+            return;
+        }
+        try {
+            DisconnectServlet.revokeToken(req.getParameter("token"));
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() < 400 || e.getStatusCode() >= 500) {
+                resp.sendError(503, "Failed to revoke token: " + e.getMessage());
+                return;
+            }
+            log.warning("Token rejected by revoke end-point, not retrying: "
+                    + e.getStatusCode() + " " + e.getStatusMessage());
+        } catch (IOException e) {
+            resp.sendError(503, "Failed to revoke token: " + e.getMessage());
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.plus.samples.photohunt.model.Jsonifiable;
+import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.Vote;
+import com.google.plus.samples.photohunt.model.VoteTally;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.SearchResult;
+
+/**
+ * Provides an API to search Photos by the names of their owners and Themes.
+ * This servlet provides the /api/search end-point, and exposes the following
+ * operations:
+ * <p/>
+ * GET /api/search
+ */
+public class SearchServlet extends JsonRestServlet {
+
+    /**
+     * Photos returned when the request doesn't say.
+     */
+    private static final int DEFAULT_LIMIT = 20;
+
+    /**
+     * Most Photos a request may ask for.
+     */
+    private static final int MAX_LIMIT = 100;
+
+    /**
+     * Most Photos matching the most selective word of a query that are
+     * considered, which bounds the cost of a search.  Beyond it, the Photos
+     * considered are an arbitrary subset, not the most voted ones.
+     */
+    private static final int MAX_CANDIDATES = 200;
+
+    /**
+     * Header set on responses that considered only some of the matches.
+     */
+    private static final String TRUNCATED_HEADER = "X-Search-Truncated";
+
+    private static final Comparator<Photo> MOST_VOTED = new Comparator<Photo>() {
+        @Override
+        public int compare(Photo a, Photo b) {
+            return b.getNumVotes() - a.getNumVotes();
+        }
+    };
+
+    /**
+     * Exposed as `GET /api/search`.
+     * <p/>
+     * Accepts the following request parameters.
+     * <p/>
+     * 'q': words to search for.  A Photo matches if, for every word, its
+     * owner's display name or its Theme's display name has a word starting
+     * with it, ignoring case.  "ali sun" finds Alice's Photos of the Sunset
+     * hunt.
+     * 'limit': most Photos to return, up to 100.  Defaults to 20.
+     * <p/>
+     * Returns the matching Photos, most voted first, in the format of
+     * `GET /api/photos`.  When every word of the query matches more than 200
+     * Photos, only an arbitrary 200 of them are considered, so the Photos
+     * returned are not the most voted of all matches.  Such responses carry
+     * the header `X-Search-Truncated: true`.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 400: "Missing query."
+     *
+     * @see javax.servlet.http.HttpServlet#doGet(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+        String query = req.getParameter("q");
+        if (query == null || query.trim().isEmpty()) {
+            sendError(resp, 400, "Missing query.");
+            return;
+        }
+        int limit = DEFAULT_LIMIT;
+        if (req.getParameter("limit") != null) {
+            try {
+                limit = Math.max(1, Math.min(MAX_LIMIT,
+                        Integer.parseInt(req.getParameter("limit"))));
+            } catch (NumberFormatException e) {
+                // Keep the default.
+            }
+        }
+        long currentUserId = -1l;
+        if (req.getSession().getAttribute(CURRENT_USER_SESSION_KEY) != null) {
+            currentUserId = Long.parseLong(req.getSession()
+                                                   .getAttribute(CURRENT_USER_SESSION_KEY).toString());
+        }
+        SearchResult result =
+                RepositoryFactory.getPhotoSearchIndex().search(query, MAX_CANDIDATES);
+        List<Long> photoIds = result.getPhotoIds();
+        // Start fetching the current user's votes alongside the photos.
+        List<Vote> userVotes = Collections.emptyList();
+        if (currentUserId != -1l && !photoIds.isEmpty()) {
+            userVotes = RepositoryFactory.getVoteRepository().findByOwner(currentUserId);
+        }
+        List<Photo> found = new ArrayList<Photo>(
+                RepositoryFactory.getPhotoRepository().get(photoIds).values());
+        // Order by the stored vote counts.  Only Photos that haven't been
+        // voted for since tallies were introduced have their votes counted.
+        Map<Long, Integer> counts = VoteTally.counts(photoIds);
+        List<Photo> untallied = new ArrayList<Photo>();
+        for (Photo photo : found) {
+            Integer count = counts.get(photo.getId());
+            if (count != null) {
+                photo.setNumVotes(count);
+            } else {
+                untallied.add(photo);
+            }
+        }
+        Jsonifiable.prepareForSerialization(untallied);
+        Collections.sort(found, MOST_VOTED);
+        if (found.size() > limit) {
+            found = new ArrayList<Photo>(found.subList(0, limit));
+        }
+        Set<Long> votedPhotoIds = new HashSet<Long>(userVotes.size());
+        for (Vote userVote : userVotes) {
+            votedPhotoIds.add(userVote.getPhotoId());
+        }
+        for (Photo photo : found) {
+            photo.setVoted(votedPhotoIds.contains(photo.getId()));
+        }
+        if (result.isTruncated()) {
+            resp.setHeader(TRUNCATED_HEADER, "true");
+        }
+        sendResponse(req, resp, found, "photohunt#photos");
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.SocialGraph;
+import com.google.plus.samples.photohunt.model.Suggestion;
+import com.google.plus.samples.photohunt.model.User;
+import com.google.plus.samples.photohunt.model.Vote;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+
+/**
+ * Provides an API for suggestions drawn from the friends of a User's friends.
+ * This servlet provides the /api/suggestions end-point, and exposes the
+ * following operations:
+ * <p/>
+ * GET /api/suggestions
+ * GET /api/suggestions?type=photos
+ */
+public class SuggestionsServlet extends JsonRestServlet {
+
+    /**
+     * Maximum number of friends whose own friends are expanded.
+     */
+    private static final int MAX_EXPANDED_FRIENDS = 200;
+
+    /**
+     * Time budget for fetching the friends of friends, in milliseconds.
+     */
+    private static final long EXPANSION_BUDGET_MS = 2000l;
+
+    /**
+     * Maximum number of Users or Photos returned.
+     */
+    private static final int MAX_SUGGESTIONS = 20;
+
+    /**
+     * Maximum number of values the datastore accepts in an IN filter.
+     */
+    private static final int MAX_IN_FILTER_VALUES = 30;
+
+    /**
+     * How long complete suggestions stay cached, in seconds.
+     */
+    private static final int CACHE_SECONDS = 15 * 60;
+
+    /**
+     * How long suggestions cut short by the time budget stay cached, in seconds.
+     */
+    private static final int PARTIAL_CACHE_SECONDS = 60;
+
+    /**
+     * Memcache key prefix for cached User suggestions.
+     */
+    private static final String USERS_CACHE_PREFIX = "suggestions:users:";
+
+    /**
+     * Memcache key prefix for cached Photo suggestions.
+     */
+    private static final String PHOTOS_CACHE_PREFIX = "suggestions:photos:";
+
+    /**
+     * Memcache in which suggestions are cached per User.
+     */
+    private static final MemcacheService cache =
+            MemcacheServiceFactory.getMemcacheService();
+
+    /**
+     * Drop any cached suggestions for the given User.  Call whenever the User's
+     * friends change.
+     *
+     * @param userId ID of the User whose suggestions are stale.
+     */
+    public static void invalidate(long userId) {
+        cache.deleteAll(Arrays.<Object>asList(USERS_CACHE_PREFIX + userId,
+                                              PHOTOS_CACHE_PREFIX + userId));
+    }
+
+    /**
+     * Exposed as `GET /api/suggestions`.
+     * <p/>
+     * Accepts the following request parameters.
+     * <p/>
+     * 'type': "users" (default) to return the friends of the current user's
+     * friends, ranked by number of mutual friends, or "photos" to return the
+     * photos those people voted for, ranked by number of such votes.
+     * <p/>
+     * Returns the following JSON response representing a list of Suggestions.
+     * <p/>
+     * [
+     * {
+     * "userId":0,
+     * "googleDisplayName":"",
+     * "googlePublicProfileUrl":"",
+     * "googlePublicProfilePhotoUrl":"",
+     * "mutualFriends":0
+     * },
+     * ...
+     * ]
+     * <p/>
+     * When 'type' is "photos", the response is a list of Photos in the same
+     * format as `GET /api/photos`.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 401: "Unauthorized request"
+     *
+     * @see javax.servlet.http.HttpServlet#doGet(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+        try {
+            checkAuthorization(req);
+            long userId = Long.parseLong(req.getSession()
+                                                 .getAttribute(CURRENT_USER_SESSION_KEY).toString());
+            if ("photos".equals(req.getParameter("type"))) {
+                sendResponse(req, resp, getPhotoSuggestions(userId),
+                             "photohunt#photos");
+            } else {
+                sendResponse(req, resp, getUserSuggestions(userId),
+                             "photohunt#suggestions");
+            }
+        } catch (UserNotAuthorizedException e) {
+            sendError(resp, 401, "Unauthorized request");
+        }
+    }
+
+    /**
+     * @param userId ID of the User for whom to suggest other Users.
+     * @return Friends of the User's friends, most mutual friends first.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Suggestion> getUserSuggestions(long userId) {
+        String cacheKey = USERS_CACHE_PREFIX + userId;
+        ArrayList<Suggestion> suggestions = (ArrayList<Suggestion>) cache.get(cacheKey);
+        if (suggestions != null) {
+            return suggestions;
+        }
+
+        Expansion expansion = expand(userId);
+        List<Long> candidateIds = expansion.rankedCandidates(MAX_SUGGESTIONS);
+        Map<Long, User> users = RepositoryFactory.getUserRepository().get(candidateIds);
+        suggestions = new ArrayList<Suggestion>(candidateIds.size());
+        for (Long candidateId : candidateIds) {
+            User user = users.get(candidateId);
+            if (user != null) {
+                suggestions.add(new Suggestion(user,
+                                               expansion.counts.get(candidateId)));
+            }
+        }
+        cache.put(cacheKey, suggestions, expansion.expiration());
+        return suggestions;
+    }
+
+    /**
+     * @param userId ID of the User for whom to suggest Photos.
+     * @return Photos voted for by friends of the User's friends, most votes
+     * first.
+     */
+    private List<Photo> getPhotoSuggestions(long userId) {
+        String cacheKey = PHOTOS_CACHE_PREFIX + userId;
+        long[] photoIds = (long[]) cache.get(cacheKey);
+        if (photoIds == null) {
+            Expansion expansion = expand(userId);
+            List<Long> voterIds = expansion.rankedCandidates(MAX_IN_FILTER_VALUES);
+            final Map<Long, Integer> likes = new HashMap<Long, Integer>();
+            if (!voterIds.isEmpty()) {
+                List<Vote> votes = RepositoryFactory.getVoteRepository()
+                        .findByOwners(voterIds);
+                for (Vote vote : votes) {
+                    Integer count = likes.get(vote.getPhotoId());
+                    likes.put(vote.getPhotoId(), count == null ? 1 : count + 1);
+                }
+            }
+            List<Long> ranked = new ArrayList<Long>(likes.keySet());
+            Collections.sort(ranked, new RankComparator(likes));
+            if (ranked.size() > MAX_SUGGESTIONS) {
+                ranked = ranked.subList(0, MAX_SUGGESTIONS);
+            }
+            photoIds = new long[ranked.size()];
+            for (int i = 0; i < photoIds.length; i++) {
+                photoIds[i] = ranked.get(i);
+            }
+            cache.put(cacheKey, photoIds, expansion.expiration());
+        }
+
+        List<Long> ids = new ArrayList<Long>(photoIds.length);
+        for (long photoId : photoIds) {
+            ids.add(photoId);
+        }
+        Map<Long, Photo> loaded = RepositoryFactory.getPhotoRepository().get(ids);
+        List<Photo> photos = new ArrayList<Photo>(photoIds.length);
+        for (Long id : ids) {
+            Photo photo = loaded.get(id);
+            // Skip deleted photos and the User's own.
+            if (photo != null && photo.getOwnerUserId() != userId) {
+                photos.add(photo);
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Expand the social graph two hops out from the given User.  The friends'
+     * adjacency lists are fetched in parallel and bounded by
+     * EXPANSION_BUDGET_MS.
+     *
+     * @param userId ID of the User at the center of the expansion.
+     * @return Mutual friend counts of everybody two hops away.
+     */
+    private Expansion expand(long userId) {
+        long deadline = System.currentTimeMillis() + EXPANSION_BUDGET_MS;
+        long[] friendIds = SocialGraph.getFriendIds(userId);
+        List<Long> expanded = new ArrayList<Long>(
+                Math.min(friendIds.length, MAX_EXPANDED_FRIENDS));
+        for (int i = 0; i < friendIds.length && i < MAX_EXPANDED_FRIENDS; i++) {
+            expanded.add(friendIds[i]);
+        }
+        Map<Long, long[]> adjacency = SocialGraph.getFriendIds(expanded, deadline);
+        return new Expansion(
+                SocialGraph.countFriendsOfFriends(userId, friendIds, adjacency.values()),
+                adjacency.size() == friendIds.length);
+    }
+
+    /**
+     * Result of a two-hop expansion of the social graph.
+     */
+    private static class Expansion {
+        /**
+         * Mutual friend counts keyed by friend-of-friend User ID.
+         */
+        final Map<Long, Integer> counts;
+
+        /**
+         * False if friends were skipped because of the size or time budget.
+         */
+        final boolean complete;
+
+        Expansion(Map<Long, Integer> counts, boolean complete) {
+            this.counts = counts;
+            this.complete = complete;
+        }
+
+        /**
+         * @param limit Maximum number of candidates to return.
+         * @return Candidate User IDs, most mutual friends first.
+         */
+        List<Long> rankedCandidates(int limit) {
+            List<Long> ranked = new ArrayList<Long>(counts.keySet());
+            Collections.sort(ranked, new RankComparator(counts));
+            return ranked.size() > limit ? ranked.subList(0, limit) : ranked;
+        }
+
+        /**
+         * @return How long results derived from this expansion may be cached.
+         */
+        Expiration expiration() {
+            return Expiration.byDeltaSeconds(
+                    complete ? CACHE_SECONDS : PARTIAL_CACHE_SECONDS);
+        }
+    }
+
+    /**
+     * Orders IDs by descending score, breaking ties by ascending ID so that
+     * results are stable across requests.
+     */
+    private static class RankComparator implements Comparator<Long> {
+        private final Map<Long, Integer> scores;
+
+        RankComparator(Map<Long, Integer> scores) {
+            this.scores = scores;
+        }
+
+        @Override
+        public int compare(Long a, Long b) {
+            int byScore = scores.get(b).compareTo(scores.get(a));
+            return byScore != 0 ? byScore : a.compareTo(b);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Freezes a past Theme into a ThemeSnapshot, as queued by ThemesServlet when
+ * a new Theme starts.  This servlet provides the /tasks/freezeTheme
+ * end-point, and exposes the following operations:
+ * <p/>
+ * POST /tasks/freezeTheme
+ * <p/>
+ * Only the task queue may call it.  App Engine strips the
+ * X-AppEngine-QueueName header from outside requests, so its presence shows
+ * that the request comes from a task.
+ */
+public class ThemeFreezeServlet extends HttpServlet {
+
+    private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+    /**
+     * Exposed as `POST /tasks/freezeTheme`.
+     * <p/>
+     * Takes the parameters:
+     * 'themeId': ID of the Theme to freeze.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 403: "Only the task queue may freeze themes."
+     *
+     * @see javax.servlet.http.HttpServlet#doPost(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (req.getHeader(QUEUE_NAME_HEADER) == null) {
+            resp.sendError(403, "Only the task queue may freeze themes.");
+            return;
+        }
+        ThemesServlet.freeze(Long.parseLong(req.getParameter("themeId")));
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
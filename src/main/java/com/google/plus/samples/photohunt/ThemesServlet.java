@@ -16,13 +16,25 @@
 
 package com.google.plus.samples.photohunt;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.plus.samples.photohunt.model.Theme;
+import com.google.plus.samples.photohunt.model.ThemeSnapshot;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.ThemeRepository;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.NotFoundException;
 
 import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 
@@ -31,16 +43,38 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
  * /api/themes end-point, and exposes the following operations:
  * <p/>
  * GET /api/themes
+ * GET /api/themes?themeId=1234
  *
  * @author vicfryzel@google.com (Vic Fryzel)
  */
 public class ThemesServlet extends JsonRestServlet {
+    /**
+     * How long clients and proxies may cache an archived Theme, in seconds.
+     */
+    private static final int ARCHIVE_MAX_AGE_SECONDS = 365 * 24 * 60 * 60;
+
+    /**
+     * Path of ThemeFreezeServlet, as mapped in web.xml.
+     */
+    static final String FREEZE_URL = "/tasks/freezeTheme";
+
+    private static final String FREEZE_QUEUE = "theme-freeze";
+
+    private final ThemeRepository themeRepository = RepositoryFactory.getThemeRepository();
+
     /**
      * Exposed as `GET /api/themes`.  When requested, if no theme exists for the
      * current day, then a theme with the name of "Beautiful" is created for
      * today.  This leads to multiple themes with the name "Beautiful" if you
      * use the app over multiple days without changing this logic.  This behavior
-     * is purposeful so that the app is easier to get up and running.
+     * is purposeful so that the app is easier to get up and running.  Before
+     * the new theme is created, a task is queued to freeze each past theme
+     * into a ThemeSnapshot.
+     * <p/>
+     * Accepts the following request parameters.
+     * <p/>
+     * 'themeId': id of a past theme.  Will return the snapshot of that theme
+     * instead of the list of themes.
      * <p/>
      * Returns the following JSON response representing a list of Themes.
      * <p/>
@@ -49,10 +83,43 @@ public class ThemesServlet extends JsonRestServlet {
      * "id":0,
      * "displayName":"",
      * "created":0,
-     * "start":0
+     * "start":0,
+     * "previewPhotoId":0
      * },
      * ...
      * ]
+     * <p/>
+     * When 'themeId' is given, returns the following JSON response representing
+     * the archived Theme, with photos in order of their final rank.  The
+     * response may be cached indefinitely.
+     * <p/>
+     * {
+     * "themeId":0,
+     * "displayName":"",
+     * "created":0,
+     * "start":0,
+     * "frozen":0,
+     * "photoCount":0,
+     * "winnerPhotoId":0,
+     * "photos":[
+     * {
+     * "id":0,
+     * "ownerUserId":0,
+     * "ownerDisplayName":"",
+     * "ownerProfileUrl":"",
+     * "ownerProfilePhoto":"",
+     * "numVotes":0,
+     * "created":0,
+     * "fullsizeUrl":"",
+     * "thumbnailUrl":""
+     * },
+     * ...
+     * ]
+     * }
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 404: "Theme with given ID does not exist."
+     * 404: "Theme has not been archived yet."
      *
      * @see javax.servlet.http.HttpServlet#doGet(
      *javax.servlet.http.HttpServletRequest,
@@ -60,19 +127,130 @@ public class ThemesServlet extends JsonRestServlet {
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
-        Collection<Theme> themes = ofy().load().type(Theme.class).order("-created")
-                .list();
+        String themeId = req.getParameter("themeId");
+        if (themeId != null) {
+            sendSnapshot(req, resp, themeId);
+            return;
+        }
+        Collection<Theme> themes = themeRepository.findAll();
         Theme currentTheme = Theme.getCurrentTheme();
         if (currentTheme == null) {
+            // The previous theme is over.  Have it frozen, then start a new one.
+            archiveThemes(themes);
             // There is no current theme.  Create a new one.
             Theme defaultTheme = new Theme();
             defaultTheme.setDisplayName("Beautiful");
             Date now = new Date();
             defaultTheme.setCreated(now);
             defaultTheme.setStart(now);
-            ofy().save().entity(defaultTheme).now();
+            themeRepository.save(defaultTheme);
+            Theme.invalidateCurrent();
+            RenderedPageCache.invalidate(RenderedPageCache.INVITE_KEY);
             themes.add(defaultTheme);
         }
         sendResponse(req, resp, themes, "photohunt#themes");
     }
+
+    /**
+     * Send the snapshot of the Theme with the given ID.  If the Theme is over
+     * but has not been frozen yet, a task is queued to freeze it and the
+     * client is told to come back once it has been archived.
+     *
+     * @param req     Request being answered.
+     * @param resp    Response to use in transmitting the snapshot.
+     * @param themeId ID of the requested Theme.
+     */
+    private void sendSnapshot(HttpServletRequest req, HttpServletResponse resp,
+                              String themeId) {
+        final String doesNotExist = "Theme with given ID does not exist.";
+        try {
+            long id = Long.parseLong(themeId);
+            ThemeSnapshot snapshot = ofy().load().key(ThemeSnapshot.key(id)).now();
+            if (snapshot == null) {
+                Theme theme = themeRepository.get(id);
+                if (theme == null) {
+                    throw new NotFoundException();
+                }
+                if (isOver(theme, Theme.getCurrentTheme())) {
+                    queueFreeze(QueueFactory.getQueue(FREEZE_QUEUE), id);
+                }
+                sendError(resp, 404, "Theme has not been archived yet.");
+                return;
+            }
+            resp.setHeader("Cache-Control",
+                           "public, max-age=" + ARCHIVE_MAX_AGE_SECONDS + ", immutable");
+            sendResponse(req, resp, snapshot);
+        } catch (NotFoundException e) {
+            sendError(resp, 404, doesNotExist);
+        } catch (NumberFormatException e) {
+            sendError(resp, 404, doesNotExist);
+        }
+    }
+
+    /**
+     * Queue a task to freeze every Theme in the given collection that is over
+     * and has no snapshot yet.  Tasks are named after their Theme, so that a
+     * Theme is queued once however many requests find it unfrozen.
+     *
+     * @param themes Themes to consider.
+     */
+    private void archiveThemes(Collection<Theme> themes) {
+        List<Key<ThemeSnapshot>> keys = new ArrayList<Key<ThemeSnapshot>>(themes.size());
+        for (Theme theme : themes) {
+            keys.add(ThemeSnapshot.key(theme.getId()));
+        }
+        Map<Key<ThemeSnapshot>, ThemeSnapshot> existing = ofy().load().keys(keys);
+        Queue queue = QueueFactory.getQueue(FREEZE_QUEUE);
+        for (Theme theme : themes) {
+            if (!existing.containsKey(ThemeSnapshot.key(theme.getId()))
+                    && isOver(theme, null)) {
+                queueFreeze(queue, theme.getId());
+            }
+        }
+    }
+
+    /**
+     * Queue the task freezing the Theme with the given ID, unless a request
+     * has queued it already.
+     *
+     * @param queue   Queue to add the task to.
+     * @param themeId ID of the Theme to freeze.
+     */
+    private static void queueFreeze(Queue queue, long themeId) {
+        try {
+            queue.add(TaskOptions.Builder.withUrl(FREEZE_URL)
+                    .taskName("freeze-" + themeId)
+                    .param("themeId", String.valueOf(themeId)));
+        } catch (TaskAlreadyExistsException e) {
+            // Another request queued this Theme.
+        }
+    }
+
+    /**
+     * Freeze the Theme with the given ID, unless it is running, has not
+     * started, or has been frozen already.
+     *
+     * @param themeId ID of the Theme to freeze.
+     */
+    static void freeze(long themeId) {
+        if (ofy().load().key(ThemeSnapshot.key(themeId)).now() != null) {
+            return;
+        }
+        Theme theme = RepositoryFactory.getThemeRepository().get(themeId);
+        if (theme != null && isOver(theme, Theme.getCurrentTheme())) {
+            ThemeSnapshot.freeze(theme);
+        }
+    }
+
+    /**
+     * @param theme        Theme to check.
+     * @param currentTheme Theme currently running, or null if there is none.
+     * @return True if the given Theme has started and is not the current one.
+     */
+    private static boolean isOver(Theme theme, Theme currentTheme) {
+        if (currentTheme != null && currentTheme.getId() == theme.getId()) {
+            return false;
+        }
+        return theme.getStart() != null && theme.getStart().before(new Date());
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+
+/**
+ * Refreshes the tokens queued by TokenRefresher.  This servlet provides the
+ * /tasks/refreshTokens end-point, and exposes the following operations:
+ * <p/>
+ * POST /tasks/refreshTokens
+ * <p/>
+ * Only the task queue may call it.  App Engine strips the
+ * X-AppEngine-QueueName header from outside requests, so its presence shows
+ * that the request comes from a task.
+ */
+public class TokenRefreshServlet extends HttpServlet {
+
+    private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+    /**
+     * Exposed as `POST /tasks/refreshTokens`.
+     * <p/>
+     * Issues the following errors along with corresponding HTTP response codes:
+     * 403: "Only the task queue may refresh tokens."
+     * 503: The token end point's circuit breaker is open.  The task queue
+     * retries the refresh.
+     *
+     * @see javax.servlet.http.HttpServlet#doPost(
+     *javax.servlet.http.HttpServletRequest,
+     * javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (req.getHeader(QUEUE_NAME_HEADER) == null) {
+            resp.sendError(403, "Only the task queue may refresh tokens.");
+            return;
+        }
+        try {
+            TokenRefresher.refresh();
+        } catch (CircuitOpenException e) {
+            // Have the task queue retry once Google recovers.
+            resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            resp.sendError(503, e.getMessage());
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
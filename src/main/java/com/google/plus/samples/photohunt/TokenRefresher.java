@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
+import com.google.plus.samples.photohunt.model.EntityCache;
+import com.google.plus.samples.photohunt.model.User;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.UserRepository;
+
+/**
+ * Refreshes the Google access tokens of active Users ahead of their expiry,
+ * so that they rarely have to connect again.
+ * <p/>
+ * A User is active while they make requests.  Once an active User's token is
+ * within REFRESH_AHEAD_MS of expiring, and they have a refresh token, their
+ * ID is added to the "token-refresh" pull queue, under a task name unique to
+ * the token so that each token is queued once.  A refresh task on the
+ * "token-refresh-run" push queue, scheduled once an interval like the flushes
+ * of VoteBuffer, leases the queued Users and refreshes their tokens.  Each
+ * refreshed token is stored in a transaction that rereads the User and only
+ * changes its token fields, so a User who connected again meanwhile keeps
+ * what ConnectServlet stored.
+ * <p/>
+ * Users without a refresh token can't be refreshed on the server, and still
+ * have to connect again when their token expires.
+ */
+public class TokenRefresher {
+
+    /**
+     * Path of TokenRefreshServlet, as mapped in web.xml.
+     */
+    public static final String REFRESH_URL = "/tasks/refreshTokens";
+
+    private static final String USER_QUEUE = "token-refresh";
+
+    private static final String REFRESH_QUEUE = "token-refresh-run";
+
+    /**
+     * How long before its expiry a token is refreshed, in milliseconds.
+     */
+    private static final long REFRESH_AHEAD_MS = 15 * 60 * 1000l;
+
+    /**
+     * How often queued Users are refreshed, in milliseconds.
+     */
+    private static final long REFRESH_INTERVAL_MS = 30 * 1000l;
+
+    /**
+     * Users leased and refreshed at a time.
+     */
+    private static final int MAX_BATCH = 50;
+
+    /**
+     * How long leased Users stay hidden from other refreshes, in seconds.
+     * Each refresh is a round trip to Google, so a batch takes a while.
+     */
+    private static final long LEASE_SECONDS = 5 * 60;
+
+    /**
+     * Users remembered in queued before it is cleared.
+     */
+    private static final int MAX_QUEUED = 10000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Logger log = Logger.getLogger(TokenRefresher.class.getName());
+
+    /**
+     * Expiry of the token this instance last queued, by User ID, so that
+     * requests don't queue the same token again.
+     */
+    private static final ConcurrentMap<Long, Long> queued = new ConcurrentHashMap<Long, Long>();
+
+    /**
+     * Last interval for which this instance scheduled a refresh.
+     */
+    private static final AtomicLong scheduledInterval = new AtomicLong(-1);
+
+    /**
+     * Note that the given User is active, and queue their token for refresh
+     * if it expires soon.
+     *
+     * @param user User making a request.
+     */
+    public static void touch(User user) {
+        long expiresAt = user.getGoogleExpiresAt();
+        if (user.getGoogleRefreshToken() == null
+                || System.currentTimeMillis() < expiresAt - REFRESH_AHEAD_MS) {
+            return;
+        }
+        Long previous = queued.put(user.getId(), expiresAt);
+        if (previous != null && previous == expiresAt) {
+            return;
+        }
+        if (queued.size() > MAX_QUEUED) {
+            queued.clear();
+        }
+        try {
+            QueueFactory.getQueue(USER_QUEUE).add(
+                    TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+                            .taskName("refresh-" + user.getId() + "-" + expiresAt)
+                            .payload(String.valueOf(user.getId())));
+        } catch (TaskAlreadyExistsException e) {
+            // Another instance queued this token.
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Refresh the tokens of all queued Users, a batch at a time.
+     *
+     * @return Number of Users whose tokens were refreshed.
+     * @throws CircuitOpenException The token end point is unavailable; the
+     *                              Users left are refreshed by a later run.
+     */
+    public static int refresh() throws CircuitOpenException {
+        Queue queue = QueueFactory.getQueue(USER_QUEUE);
+        int refreshed = 0;
+        List<TaskHandle> tasks;
+        do {
+            tasks = queue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, MAX_BATCH);
+            if (tasks.isEmpty()) {
+                break;
+            }
+            refreshed += refresh(tasks);
+            queue.deleteTask(tasks);
+        } while (tasks.size() == MAX_BATCH);
+        return refreshed;
+    }
+
+    /**
+     * Make sure a refresh is scheduled for the end of the current interval.
+     */
+    private static void scheduleRefresh() {
+        long interval = System.currentTimeMillis() / REFRESH_INTERVAL_MS;
+        long scheduled = scheduledInterval.get();
+        if (scheduled >= interval || !scheduledInterval.compareAndSet(scheduled, interval)) {
+            return;
+        }
+        try {
+            QueueFactory.getQueue(REFRESH_QUEUE).add(TaskOptions.Builder.withUrl(REFRESH_URL)
+                    .taskName("refresh-tokens-" + interval)
+                    .etaMillis((interval + 1) * REFRESH_INTERVAL_MS));
+        } catch (TaskAlreadyExistsException e) {
+            // Another instance scheduled this interval's refresh.
+        }
+    }
+
+    /**
+     * Refresh the tokens of the Users of the given tasks.  Tokens that were
+     * replaced since they were queued, as when the User connected again, are
+     * left alone.
+     *
+     * @param tasks Leased tasks, each holding the ID of one User.
+     * @return Number of Users whose tokens were refreshed.
+     * @throws CircuitOpenException The token end point is unavailable.
+     */
+    private static int refresh(List<TaskHandle> tasks) throws CircuitOpenException {
+        Set<Long> userIds = new LinkedHashSet<Long>();
+        for (TaskHandle task : tasks) {
+            userIds.add(Long.valueOf(new String(task.getPayload(), UTF8)));
+        }
+        UserRepository users = RepositoryFactory.getUserRepository();
+        long refreshBefore = System.currentTimeMillis() + REFRESH_AHEAD_MS;
+        List<User> refreshed = new ArrayList<User>(userIds.size());
+        for (User user : users.get(userIds).values()) {
+            if (user.getGoogleRefreshToken() == null
+                    || user.getGoogleExpiresAt() > refreshBefore) {
+                continue;
+            }
+            final GoogleCredential credential = new GoogleCredential.Builder()
+                    .setJsonFactory(JsonRestServlet.JSON_FACTORY)
+                    .setTransport(OutboundHttp.getTransport())
+                    .setClientSecrets(JsonRestServlet.CLIENT_ID, JsonRestServlet.CLIENT_SECRET)
+                    .build()
+                    .setRefreshToken(user.getGoogleRefreshToken());
+            boolean refreshedToken;
+            try {
+                refreshedToken = OutboundHttp.call(GoogleEndpoint.OAUTH2_TOKEN,
+                        new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() throws IOException {
+                                return credential.refreshToken();
+                            }
+                        });
+            } catch (CircuitOpenException e) {
+                // Leave the batch to be leased again once Google recovers.
+                invalidate(refreshed);
+                throw e;
+            } catch (IOException e) {
+                // Revoked or failing; the User will connect again if needed.
+                log.log(Level.WARNING, "Could not refresh token of user " + user.getId(), e);
+                continue;
+            }
+            if (!refreshedToken) {
+                continue;
+            }
+            if (users.updateAccessToken(user.getId(), user.getGoogleAccessToken(),
+                    credential.getAccessToken(), credential.getExpirationTimeMilliseconds(),
+                    credential.getExpiresInSeconds())) {
+                ConnectServlet.forgetVerifiedToken(user.getGoogleAccessToken());
+                refreshed.add(user);
+            }
+        }
+        invalidate(refreshed);
+        return refreshed.size();
+    }
+
+    private static void invalidate(List<User> refreshed) {
+        List<Long> userIds = new ArrayList<Long>(refreshed.size());
+        for (User user : refreshed) {
+            userIds.add(user.getId());
+        }
+        EntityCache.invalidate(User.class, userIds);
+    }
+}
@@ -21,8 +21,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.plus.samples.photohunt.model.User;
 
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
-
 /**
  * Provides an API for retrieving the currently logged in user. This servlet
  * provides the /api/users end-point, and exposes the following operations:
@@ -60,7 +58,7 @@ public class UsersServlet extends JsonRestServlet {
             checkAuthorization(req);
             long currentUserId = (Long) req.getSession().getAttribute(
                     CURRENT_USER_SESSION_KEY);
-            User user = ofy().load().type(User.class).id(currentUserId).now();
+            User user = User.load(currentUserId);
             sendResponse(req, resp, user);
         } catch (UserNotAuthorizedException e) {
             sendError(resp, 401, "Unauthorized request");
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.plus.samples.photohunt.model.TrendingBoard;
+import com.google.plus.samples.photohunt.model.Vote;
+import com.google.plus.samples.photohunt.model.VoteTally;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+
+/**
+ * Write-behind buffer for Votes.  A Vote is acknowledged once it is added to
+ * the "votes" pull queue, which is durable, and is stored later by a flush
+ * that leases the queued Votes and writes them in batched puts.
+ * <p/>
+ * Flushes run as tasks on the "vote-flush" push queue, which call
+ * VoteFlushServlet.  One named task is scheduled per flush interval, so
+ * however many Votes arrive they are flushed once an interval, and an extra
+ * flush is started as soon as an instance has buffered a batch worth of
+ * Votes.
+ * <p/>
+ * A User may vote twice for the same Photo before either Vote is stored.
+ * enqueue() remembers each queued Vote in memcache for PENDING_SECONDS and
+ * queues it only once.  Should the marker be evicted, a flush still keeps one
+ * queued Vote per User and Photo, drops those whose User or Photo no longer
+ * exists, and stores only the Votes that VoteTally lets it claim, which it
+ * does in a transaction per Photo so that concurrent flushes can't both store
+ * a Vote.  The stored Votes are then added to the TrendingBoards.
+ */
+public class VoteBuffer {
+
+    /**
+     * Path of VoteFlushServlet, as mapped in web.xml.
+     */
+    public static final String FLUSH_URL = "/tasks/flushVotes";
+
+    private static final String VOTE_QUEUE = "votes";
+
+    private static final String FLUSH_QUEUE = "vote-flush";
+
+    /**
+     * How often queued Votes are flushed, in milliseconds.
+     */
+    private static final long FLUSH_INTERVAL_MS = 2000l;
+
+    /**
+     * Votes an instance buffers before it starts a flush ahead of the interval.
+     */
+    private static final int FLUSH_THRESHOLD = 200;
+
+    /**
+     * Votes leased and stored at a time, the most a datastore put takes.
+     */
+    private static final int MAX_BATCH = 500;
+
+    /**
+     * How long leased Votes stay hidden from other flushes, in seconds.  A
+     * flush that fails leaves its Votes to be leased again once this passes.
+     */
+    private static final long LEASE_SECONDS = 60;
+
+    /**
+     * How long a queued Vote is remembered as pending, in seconds.  Covers a
+     * flush interval with plenty of room for retries; by then the stored
+     * Vote is found by the query of VotesServlet.
+     */
+    private static final int PENDING_SECONDS = 10 * 60;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Markers of queued Votes, keyed by their payload, so that a User voting
+     * twice within a flush interval queues one Vote.
+     */
+    private static final MemcacheService pending =
+            MemcacheServiceFactory.getMemcacheService("pendingvotes");
+
+    /**
+     * Votes this instance buffered since it last started a flush.
+     */
+    private static final AtomicInteger buffered = new AtomicInteger();
+
+    /**
+     * Last interval for which this instance scheduled a flush.
+     */
+    private static final AtomicLong scheduledInterval = new AtomicLong(-1);
+
+    /**
+     * Durably queue the given Vote to be stored by the next flush, unless the
+     * same User's Vote for the same Photo is queued already.
+     *
+     * @param vote Vote to store.  Its ID is left unset.
+     * @return False if the Vote was queued already and is not stored yet.
+     */
+    public static boolean enqueue(Vote vote) {
+        String payload = vote.getOwnerUserId() + ":" + vote.getPhotoId();
+        // Only the first request to add the marker queues the Vote.
+        if (!pending.put(payload, Boolean.TRUE, Expiration.byDeltaSeconds(PENDING_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return false;
+        }
+        try {
+            QueueFactory.getQueue(VOTE_QUEUE).add(
+                    TaskOptions.Builder.withMethod(TaskOptions.Method.PULL).payload(payload));
+        } catch (RuntimeException e) {
+            pending.delete(payload);
+            throw e;
+        }
+        if (buffered.incrementAndGet() >= FLUSH_THRESHOLD) {
+            buffered.set(0);
+            QueueFactory.getQueue(FLUSH_QUEUE).add(TaskOptions.Builder.withUrl(FLUSH_URL));
+        } else {
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Store all queued Votes, a batch at a time.
+     *
+     * @return Number of Votes stored.
+     */
+    public static int flush() {
+        Queue queue = QueueFactory.getQueue(VOTE_QUEUE);
+        int stored = 0;
+        List<TaskHandle> tasks;
+        do {
+            tasks = queue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, MAX_BATCH);
+            if (tasks.isEmpty()) {
+                break;
+            }
+            stored += store(tasks);
+            queue.deleteTask(tasks);
+        } while (tasks.size() == MAX_BATCH);
+        return stored;
+    }
+
+    /**
+     * Make sure a flush is scheduled for the end of the current interval.
+     * Named tasks are only added once, so instances racing to schedule the
+     * same flush are harmless.
+     */
+    private static void scheduleFlush() {
+        long interval = System.currentTimeMillis() / FLUSH_INTERVAL_MS;
+        long scheduled = scheduledInterval.get();
+        if (scheduled >= interval || !scheduledInterval.compareAndSet(scheduled, interval)) {
+            return;
+        }
+        try {
+            QueueFactory.getQueue(FLUSH_QUEUE).add(TaskOptions.Builder.withUrl(FLUSH_URL)
+                    .taskName("flush-votes-" + interval)
+                    .etaMillis((interval + 1) * FLUSH_INTERVAL_MS));
+        } catch (TaskAlreadyExistsException e) {
+            // Another instance scheduled this interval's flush.
+        }
+    }
+
+    /**
+     * Store the Votes of the given tasks that aren't stored yet.
+     *
+     * @param tasks Leased tasks, each holding one queued Vote.
+     * @return Number of Votes stored.
+     */
+    private static int store(List<TaskHandle> tasks) {
+        // Coalesce the queued Votes to one per User and Photo.
+        Map<Long, Set<Long>> photoIdsByOwner = new LinkedHashMap<Long, Set<Long>>();
+        for (TaskHandle task : tasks) {
+            String[] ids = new String(task.getPayload(), UTF8).split(":");
+            Long ownerUserId = Long.valueOf(ids[0]);
+            Set<Long> photoIds = photoIdsByOwner.get(ownerUserId);
+            if (photoIds == null) {
+                photoIds = new LinkedHashSet<Long>();
+                photoIdsByOwner.put(ownerUserId, photoIds);
+            }
+            photoIds.add(Long.valueOf(ids[1]));
+        }
+
+        // Drop the Votes of Users and for Photos deleted since they were queued.
+        Set<Long> photoIds = new HashSet<Long>();
+        for (Set<Long> ownerPhotoIds : photoIdsByOwner.values()) {
+            photoIds.addAll(ownerPhotoIds);
+        }
+        Set<Long> existingUserIds = RepositoryFactory.getUserRepository()
+                .get(photoIdsByOwner.keySet()).keySet();
+        Set<Long> existingPhotoIds = RepositoryFactory.getPhotoRepository()
+                .get(photoIds).keySet();
+
+        List<Vote> queued = new ArrayList<Vote>(tasks.size());
+        for (Map.Entry<Long, Set<Long>> owner : photoIdsByOwner.entrySet()) {
+            if (!existingUserIds.contains(owner.getKey())) {
+                continue;
+            }
+            for (Long photoId : owner.getValue()) {
+                if (existingPhotoIds.contains(photoId)) {
+                    Vote vote = new Vote();
+                    vote.setOwnerUserId(owner.getKey());
+                    vote.setPhotoId(photoId);
+                    queued.add(vote);
+                }
+            }
+        }
+        List<Vote> batch = VoteTally.claim(queued);
+        if (!batch.isEmpty()) {
+            RepositoryFactory.getVoteRepository().saveAll(batch);
+            TrendingBoard.record(batch);
+        }
+        return batch.size();
+    }
+}
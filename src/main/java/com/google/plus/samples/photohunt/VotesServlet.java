@@ -17,7 +17,8 @@
 package com.google.plus.samples.photohunt;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -28,11 +29,14 @@ import com.google.api.services.plus.Plus.Moments.Insert;
 import com.google.api.services.plus.model.ItemScope;
 import com.google.api.services.plus.model.Moment;
 import com.google.plus.samples.photohunt.PhotosServlet.MomentWritingException;
+import com.google.plus.samples.photohunt.http.CircuitOpenException;
+import com.google.plus.samples.photohunt.http.GoogleEndpoint;
+import com.google.plus.samples.photohunt.http.OutboundHttp;
 import com.google.plus.samples.photohunt.model.Photo;
 import com.google.plus.samples.photohunt.model.User;
 import com.google.plus.samples.photohunt.model.Vote;
-
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.repository.VoteRepository;
 
 /**
  * Provides an API for working with Votes.  This servlet provides the
@@ -43,11 +47,17 @@ import static com.google.plus.samples.photohunt.model.OfyService.ofy;
  * @author vicfryzel@google.com (Vic Fryzel)
  */
 public class VotesServlet extends JsonRestServlet {
+    /**
+     * Logger for this servlet.
+     */
+    private static final Logger log = Logger.getLogger(VotesServlet.class.getName());
+
     /**
      * Exposed as `PUT /api/votes`.
      * <p/>
      * Takes a request payload that is a JSON object containing the Photo ID
-     * for which the currently logged in user is voting.
+     * for which the currently logged in user is voting.  The Vote is queued
+     * in the VoteBuffer and stored within a couple of seconds.
      * <p/>
      * {
      * "photoId":0
@@ -91,18 +101,17 @@ public class VotesServlet extends JsonRestServlet {
             Vote vote = Vote.fromJson(req.getReader(), Vote.class);
             long currentUserId = Long.parseLong(req.getSession()
                                                         .getAttribute(CURRENT_USER_SESSION_KEY).toString());
-            User author = ofy().load().type(User.class).id(currentUserId).now();
+            User author = User.load(currentUserId);
             GoogleCredential credential = this.getCredentialFromLoggedInUser(req);
             vote.setOwnerUserId(currentUserId);
-            List<Vote> voteExist = ofy().load().type(Vote.class)
-                    .filter("ownerUserId", currentUserId)
-                    .filter("photoId", vote.getPhotoId()).list();
-            Photo photo = ofy().load().type(Photo.class).id(vote.getPhotoId()).now();
+            VoteRepository votes = RepositoryFactory.getVoteRepository();
+            Vote voteExist = votes.findByOwnerAndPhoto(currentUserId, vote.getPhotoId());
+            Photo photo = Photo.load(vote.getPhotoId());
             photo.setVoted(true);
-            if (voteExist.size() < 1) {
+            // Stored in a batch by the next flush of the buffer, unless a
+            // Vote of this User for this Photo is queued already.
+            if (voteExist == null && VoteBuffer.enqueue(vote)) {
                 photo.setNumVotes(photo.getNumVotes() + 1);
-                ofy().save().entity(vote).now();
-                ofy().clear();
                 addVoteToGooglePlusAppActivity(author, photo, credential);
             }
             sendResponse(req, resp, photo);
@@ -135,11 +144,21 @@ public class VotesServlet extends JsonRestServlet {
         Moment content = new Moment()
                 .setType("http://schemas.google.com/ReviewActivity").setTarget(target)
                 .setResult(result);
-        Plus plus = new Plus.Builder(TRANSPORT, JSON_FACTORY, credential).build();
+        Plus plus = new Plus.Builder(OutboundHttp.getTransport(), JSON_FACTORY,
+                OutboundHttp.initializer(GoogleEndpoint.PLUS_MOMENTS_INSERT, credential)).build();
         try {
-            Insert request = plus.moments().insert(author.getGoogleUserId(), "vault",
-                                                   content);
-            Moment moment = request.execute();
+            final Insert request = plus.moments().insert(author.getGoogleUserId(), "vault",
+                                                         content);
+            OutboundHttp.call(GoogleEndpoint.PLUS_MOMENTS_INSERT, new Callable<Moment>() {
+                @Override
+                public Moment call() throws IOException {
+                    return request.execute();
+                }
+            });
+        } catch (CircuitOpenException e) {
+            // App activity is optional; skip it while Google is failing.
+            log.info("Skipped app activity of user " + author.getId() + ": "
+                    + e.getMessage());
         } catch (IOException e) {
             throw new MomentWritingException(e.getMessage());
         }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calls to a failing dependency on this instance, so that request
+ * threads fail fast instead of piling up behind it.
+ * <p/>
+ * The breaker is closed while calls succeed.  After FAILURE_THRESHOLD
+ * failures in a row it opens, and every call is refused for OPEN_MILLIS.
+ * Then it is half open: a single call is let through as a probe, and closes
+ * the breaker if it succeeds or opens it again if it fails.  State changes
+ * use compare-and-set, so checking the breaker never takes a lock.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Failures in a row that open the breaker.
+     */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * How long an open breaker refuses calls, in milliseconds.
+     */
+    private static final long OPEN_MILLIS = 30 * 1000l;
+
+    /**
+     * Failures since the last success.
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * When the breaker lets a probe through, in System.nanoTime() terms, or 0
+     * while it is closed.
+     */
+    private final AtomicLong openUntil = new AtomicLong();
+
+    /**
+     * Calls refused while open.
+     */
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Ask to make a call.  Every permitted call must be followed by a call to
+     * recordSuccess() or recordFailure().
+     *
+     * @return 0 if the call may be made, otherwise the number of seconds
+     * until the breaker lets a probe through.
+     */
+    public int tryAcquire() {
+        long until = openUntil.get();
+        if (until == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        // Only the caller that pushes the deadline out makes the probe.
+        if (until - now <= 0
+                && openUntil.compareAndSet(until, now + TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS))) {
+            return 0;
+        }
+        refused.incrementAndGet();
+        long waitNanos = Math.max(0, openUntil.get() - now);
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999999999l));
+    }
+
+    /**
+     * Note that a permitted call succeeded, closing the breaker.
+     */
+    public void recordSuccess() {
+        failures.set(0);
+        openUntil.set(0);
+    }
+
+    /**
+     * Note that a permitted call failed, opening the breaker if it was a probe
+     * or one failure too many.
+     */
+    public void recordFailure() {
+        if (failures.incrementAndGet() >= FAILURE_THRESHOLD || openUntil.get() != 0) {
+            openUntil.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+        }
+    }
+
+    /**
+     * @return True if calls are being refused.
+     */
+    public boolean isOpen() {
+        return openUntil.get() != 0;
+    }
+
+    /**
+     * @return Number of calls refused since the instance started.
+     */
+    public long getRefusedCount() {
+        return refused.get();
+    }
+
+    @Override
+    public String toString() {
+        return "circuit=" + (isOpen() ? "open" : "closed") + " refused=" + refused.get();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a call to a GoogleEndpoint whose circuit breaker
+ * is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private final int retryAfterSeconds;
+
+    /**
+     * @param endpoint          Endpoint that wasn't called.
+     * @param retryAfterSeconds Seconds until the endpoint may be called again.
+     */
+    public CircuitOpenException(GoogleEndpoint endpoint, int retryAfterSeconds) {
+        super(endpoint.getName() + " is unavailable");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return Seconds until the endpoint may be called again.
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
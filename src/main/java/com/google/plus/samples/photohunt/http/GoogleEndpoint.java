@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.http;
+
+/**
+ * Google API operations that PhotoHunt calls, each with its own deadline,
+ * latency histogram and circuit breaker.
+ */
+public enum GoogleEndpoint {
+
+    /**
+     * Exchanging an authorization code or refresh token for an access token.
+     */
+    OAUTH2_TOKEN("oauth2.token", 10000),
+
+    /**
+     * Verifying an access token.
+     */
+    OAUTH2_TOKENINFO("oauth2.tokeninfo", 5000),
+
+    /**
+     * Revoking a User's tokens.
+     */
+    OAUTH2_REVOKE("oauth2.revoke", 5000),
+
+    /**
+     * Fetching a User's Google+ profile.
+     */
+    PLUS_PEOPLE_GET("plus.people.get", 5000),
+
+    /**
+     * Listing the people a User has shared with the app.
+     */
+    PLUS_PEOPLE_LIST("plus.people.list", 10000),
+
+    /**
+     * Writing app activity.
+     */
+    PLUS_MOMENTS_INSERT("plus.moments.insert", 5000);
+
+    private final String name;
+
+    private final int deadlineMillis;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final CircuitBreaker breaker = new CircuitBreaker();
+
+    GoogleEndpoint(String name, int deadlineMillis) {
+        this.name = name;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return Name of the operation, as in the API's discovery document.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return How long a call may take to connect, and then to read each
+     * part of the response, in milliseconds.
+     */
+    public int getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * @return Latencies of the calls made on this instance.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return Breaker guarding the calls made on this instance.
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of the latencies of calls on this instance, in fixed buckets, and of
+ * the calls that failed.  Recording takes no lock.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets, in milliseconds.  The last bucket holds
+     * everything slower.
+     */
+    private static final long[] BOUNDS_MS =
+            {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MS.length + 1);
+
+    private final AtomicLongArray errorCounts = new AtomicLongArray(BOUNDS_MS.length + 1);
+
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    /**
+     * @param millis Latency of a call.
+     * @param failed True if the call failed.
+     */
+    public void record(long millis, boolean failed) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MS.length && millis > BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        if (failed) {
+            errorCounts.incrementAndGet(bucket);
+        }
+        totalMillis.addAndGet(millis);
+    }
+
+    /**
+     * @return Number of calls recorded.
+     */
+    public long getCount() {
+        return sum(counts);
+    }
+
+    /**
+     * @return Number of failed calls recorded.
+     */
+    public long getErrorCount() {
+        return sum(errorCounts);
+    }
+
+    /**
+     * @param fraction Fraction of calls, between 0 and 1, such as 0.99.
+     * @return Upper bound of the bucket holding that fraction of the calls, in
+     * milliseconds, or -1 if there are none or they are slower than the
+     * last bound.
+     */
+    public long getPercentileMillis(double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return -1;
+        }
+        long wanted = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return BOUNDS_MS[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return One line with the call and error counts, mean and percentiles,
+     * followed by the count of each bucket.
+     */
+    @Override
+    public String toString() {
+        long count = getCount();
+        StringBuilder text = new StringBuilder()
+                .append("calls=").append(count)
+                .append(" errors=").append(getErrorCount())
+                .append(" meanMs=").append(count == 0 ? 0 : totalMillis.get() / count)
+                .append(" p50Ms<=").append(getPercentileMillis(0.5))
+                .append(" p99Ms<=").append(getPercentileMillis(0.99))
+                .append(" buckets=");
+        for (int i = 0; i <= BOUNDS_MS.length; i++) {
+            text.append(i == BOUNDS_MS.length ? ">" + BOUNDS_MS[i - 1] : "<=" + BOUNDS_MS[i])
+                    .append(':').append(counts.get(i))
+                    .append('/').append(errorCounts.get(i))
+                    .append(i == BOUNDS_MS.length ? "" : " ");
+        }
+        return text.toString();
+    }
+
+    private static long sum(AtomicLongArray array) {
+        long sum = 0;
+        for (int i = 0; i < array.length(); i++) {
+            sum += array.get(i);
+        }
+        return sum;
+    }
+}
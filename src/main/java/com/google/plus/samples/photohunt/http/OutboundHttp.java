@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.http;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.appengine.api.utils.SystemProperty;
+
+/**
+ * Outbound HTTP to Google APIs.  All calls share one HttpTransport, get the
+ * deadline of their GoogleEndpoint, and have their latency and outcome
+ * recorded in the endpoint's histogram.  Calls to an endpoint that keeps
+ * failing are refused by its CircuitBreaker with a CircuitOpenException, so
+ * callers can fall back right away; only network errors and server errors
+ * count as failures, since an error about the request itself says nothing of
+ * the endpoint's health.
+ * <p/>
+ * On App Engine the transport is URL Fetch, which keeps connections to
+ * Google alive on the app's behalf.  Elsewhere it is java.net, which pools
+ * keep-alive connections per host; the pool is widened to
+ * MAX_KEEP_ALIVE_CONNECTIONS unless the http.maxConnections system property
+ * is set.  The system property photohunt.httpTransport set to "urlfetch" or
+ * "net" picks one or the other, and tests may install a local stand-in with
+ * setTransport().
+ */
+public class OutboundHttp {
+
+    private static final String URLFETCH = "urlfetch";
+
+    private static final String NET = "net";
+
+    /**
+     * Idle keep-alive connections java.net keeps per host.
+     */
+    private static final String MAX_KEEP_ALIVE_CONNECTIONS = "20";
+
+    private static HttpTransport transport;
+
+    /**
+     * @return The HttpTransport all outbound calls go through.
+     */
+    public static synchronized HttpTransport getTransport() {
+        if (transport == null) {
+            String configured = System.getProperty("photohunt.httpTransport");
+            boolean onAppEngine = SystemProperty.environment.value() != null;
+            if (URLFETCH.equals(configured) || (!NET.equals(configured) && onAppEngine)) {
+                transport = new UrlFetchTransport();
+            } else {
+                if (System.getProperty("http.maxConnections") == null) {
+                    System.setProperty("http.maxConnections", MAX_KEEP_ALIVE_CONNECTIONS);
+                }
+                transport = new NetHttpTransport();
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Replace the transport, as tests do to answer calls locally.
+     *
+     * @param replacement Transport for all later calls.
+     */
+    public static synchronized void setTransport(HttpTransport replacement) {
+        transport = replacement;
+    }
+
+    /**
+     * @param endpoint Endpoint the requests are for.
+     * @param delegate Initializer to apply first, such as a credential, or
+     *                 null for none.
+     * @return Initializer applying the delegate and the endpoint's deadline.
+     */
+    public static HttpRequestInitializer initializer(final GoogleEndpoint endpoint,
+                                                     final HttpRequestInitializer delegate) {
+        return new HttpRequestInitializer() {
+            @Override
+            public void initialize(HttpRequest request) throws IOException {
+                if (delegate != null) {
+                    delegate.initialize(request);
+                }
+                request.setConnectTimeout(endpoint.getDeadlineMillis());
+                request.setReadTimeout(endpoint.getDeadlineMillis());
+            }
+        };
+    }
+
+    /**
+     * Make a call to the given endpoint, recording its latency and outcome.
+     *
+     * @param endpoint Endpoint called.
+     * @param call     Executes the request.
+     * @return What the call returned.
+     * @throws CircuitOpenException The endpoint's breaker is open, so the call
+     *                              wasn't made.
+     * @throws IOException          The call failed.
+     */
+    public static <T> T call(GoogleEndpoint endpoint, Callable<T> call) throws IOException {
+        CircuitBreaker breaker = endpoint.getBreaker();
+        int retryAfter = breaker.tryAcquire();
+        if (retryAfter != 0) {
+            throw new CircuitOpenException(endpoint, retryAfter);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        boolean healthy = false;
+        try {
+            T result = call.call();
+            failed = false;
+            healthy = true;
+            return result;
+        } catch (HttpResponseException e) {
+            healthy = e.getStatusCode() < 500;
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            endpoint.getLatency().record((System.nanoTime() - start) / 1000000, failed);
+            if (healthy) {
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure();
+            }
+        }
+    }
+}
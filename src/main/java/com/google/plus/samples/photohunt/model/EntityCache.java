@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Per-instance cache of hot entities, in front of Objectify's memcache.
+ * Entries are raw datastore Entities, so every caller hydrates its own model
+ * instance, and the cache is bounded by an estimate of their size in bytes.
+ * <p/>
+ * Each cached key has a version counter in memcache, bumped by invalidate()
+ * when the entity is written.  Entries remember the version they were loaded
+ * at and are dropped once it moves on, so a write only evicts the entities it
+ * touched.  Instances poll the counters of their cached keys with one batch
+ * get at most once a second, so a write is seen by other instances within
+ * about a second, and entries expire after a few seconds regardless, in case
+ * memcache loses a counter.
+ * <p/>
+ * Misses go through a SingleFlight, so concurrent misses on the same key
+ * share a single load.
+ */
+public class EntityCache {
+
+    /**
+     * How long an entry is served, in milliseconds.
+     */
+    private static final long TTL_MS = 10 * 1000l;
+
+    /**
+     * How often the version counters are read from memcache, in milliseconds.
+     */
+    private static final long VERSION_POLL_MS = 1000l;
+
+    /**
+     * Estimated bytes of entities held at most.
+     */
+    private static final long MAX_BYTES = 8 * 1024 * 1024l;
+
+    /**
+     * Memcache namespace holding the version counters.
+     */
+    private static final String NAMESPACE = "entityversion";
+
+    private static final MemcacheService versionStore =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    /**
+     * Last known version of each key being cached.
+     */
+    private static final ConcurrentMap<String, Long> versions =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * When the versions were last read from memcache.
+     */
+    private static final AtomicLong versionsReadAt = new AtomicLong();
+
+    private static final SingleFlight<String, Entity> loads =
+            new SingleFlight<String, Entity>();
+
+    /**
+     * Entries in least recently used order.
+     */
+    private static final LinkedHashMap<String, CacheEntry> entries =
+            new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    /**
+     * Estimated bytes of the entities in entries.
+     */
+    private static long bytes;
+
+    /**
+     * Load an entity through the cache.
+     *
+     * @param kind   Model class of the entity.
+     * @param id     Identifies the entity within its kind, such as its ID.
+     * @param loader Loads the entity from Objectify on a miss, or returns null
+     *               if it doesn't exist.  Missing entities aren't cached.
+     * @return A new instance of the entity, or null if it doesn't exist.
+     */
+    public static <T> T load(Class<T> kind, Object id, final Callable<T> loader) {
+        String key = key(kind, id);
+        long version = getVersion(key);
+        long now = System.currentTimeMillis();
+
+        Entity entity = null;
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.version == version && entry.expiresAt > now) {
+                    entity = entry.entity;
+                } else {
+                    remove(key);
+                }
+            }
+        }
+        if (entity == null) {
+            entity = loads.load(key, new Callable<Entity>() {
+                @Override
+                public Entity call() throws Exception {
+                    T pojo = loader.call();
+                    return pojo == null ? null : ofy().toEntity(pojo);
+                }
+            });
+            if (entity == null) {
+                synchronized (entries) {
+                    if (!entries.containsKey(key)) {
+                        versions.remove(key);
+                    }
+                }
+                return null;
+            }
+            put(key, new CacheEntry(entity, version, now + TTL_MS));
+        }
+        return ofy().toPojo(entity);
+    }
+
+    /**
+     * Drop the cached entities with the given IDs, on this instance right
+     * away and on the others at their next poll.  Call after writing or
+     * deleting the entities.
+     *
+     * @param kind Model class of the written entities.
+     * @param ids  IDs of the written entities, as passed to load().
+     */
+    public static void invalidate(Class<?> kind, Collection<?> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>(ids.size());
+        for (Object id : ids) {
+            keys.add(key(kind, id));
+        }
+        Map<String, Long> bumped = versionStore.incrementAll(keys, 1, 0l);
+        synchronized (entries) {
+            for (String key : keys) {
+                remove(key);
+                Long version = bumped.get(key);
+                if (version != null) {
+                    versions.replace(key, version);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param kind Model class of an entity.
+     * @param id   Identifies the entity within its kind.
+     * @return Key of the entity in the cache and of its version counter.
+     */
+    private static String key(Class<?> kind, Object id) {
+        return kind.getSimpleName() + ":" + id;
+    }
+
+    /**
+     * @param key Key to get the version of.
+     * @return Current version of the key, as of the last poll.
+     */
+    private static long getVersion(String key) {
+        Long version = versions.get(key);
+        if (version == null) {
+            versions.putIfAbsent(key, toVersion(versionStore.get(key)));
+        }
+        long now = System.currentTimeMillis();
+        long readAt = versionsReadAt.get();
+        if (now - readAt >= VERSION_POLL_MS
+                && versionsReadAt.compareAndSet(readAt, now)) {
+            Collection<String> keys = new ArrayList<String>(versions.keySet());
+            Map<String, Object> stored = versionStore.getAll(keys);
+            for (String polled : keys) {
+                versions.replace(polled, toVersion(stored.get(polled)));
+            }
+        }
+        version = versions.get(key);
+        return version == null ? 0l : version;
+    }
+
+    /**
+     * @param stored Counter read from memcache, or null if it isn't there.
+     * @return Version held by the counter.
+     */
+    private static long toVersion(Object stored) {
+        return stored == null ? 0l : ((Number) stored).longValue();
+    }
+
+    private static void put(String key, CacheEntry entry) {
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            bytes += entry.bytes;
+            Iterator<Map.Entry<String, CacheEntry>> eldest = entries.entrySet().iterator();
+            while (bytes > MAX_BYTES && eldest.hasNext()) {
+                Map.Entry<String, CacheEntry> evicted = eldest.next();
+                bytes -= evicted.getValue().bytes;
+                eldest.remove();
+                versions.remove(evicted.getKey());
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock on entries.
+     */
+    private static void remove(String key) {
+        CacheEntry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * @param entity Entity to estimate the size of.
+     * @return Rough number of heap bytes taken by the entity.
+     */
+    private static long estimateBytes(Entity entity) {
+        long size = 128;
+        for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+            size += 48 + 2 * property.getKey().length();
+            Object value = property.getValue();
+            if (value instanceof String) {
+                size += 2 * ((String) value).length();
+            } else if (value instanceof Text) {
+                size += 2 * ((Text) value).getValue().length();
+            } else if (value instanceof Blob) {
+                size += ((Blob) value).getBytes().length;
+            } else if (value instanceof Collection) {
+                size += 32 * ((Collection<?>) value).size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cached entity.
+     */
+    private static class CacheEntry {
+        final Entity entity;
+        final long version;
+        final long expiresAt;
+        final long bytes;
+
+        CacheEntry(Entity entity, long version, long expiresAt) {
+            this.entity = entity;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            this.bytes = estimateBytes(entity);
+        }
+    }
+}
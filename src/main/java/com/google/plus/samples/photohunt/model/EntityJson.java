@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.googlecode.objectify.annotation.Ignore;
+
+/**
+ * The NDJSON format of exports, one JSON object per line.  An entity line
+ * holds the kind and every field the datastore stores, whether or not the
+ * API exposes it:
+ * <p/>
+ * {"kind":"Photo","entity":{"id":1,"ownerUserId":2,...}}
+ * <p/>
+ * A cursor line follows each chunk of entities, and says where to resume
+ * the export to get the entities after it.  The last line of a complete
+ * export is a done line:
+ * <p/>
+ * {"cursor":"2:E-ABAIICG..."}
+ * {"done":true}
+ * <p/>
+ * Kinds are exported in the order of KINDS, so that the entities an entity
+ * refers to come before it.
+ */
+public class EntityJson {
+
+    /**
+     * Exported kinds by name, in export order.
+     */
+    public static final Map<String, Class<?>> KINDS;
+
+    static {
+        Map<String, Class<?>> kinds = new LinkedHashMap<String, Class<?>>();
+        kinds.put("User", User.class);
+        kinds.put("Theme", Theme.class);
+        kinds.put("Photo", Photo.class);
+        kinds.put("Vote", Vote.class);
+        kinds.put("DirectedUserToUserEdge", DirectedUserToUserEdge.class);
+        KINDS = Collections.unmodifiableMap(kinds);
+    }
+
+    /**
+     * Serializes the stored fields of models: all but static, transient and
+     * Objectify-ignored ones.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .setExclusionStrategies(new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipField(FieldAttributes field) {
+                    return field.getAnnotation(Ignore.class) != null;
+                }
+
+                @Override
+                public boolean shouldSkipClass(Class<?> clazz) {
+                    return false;
+                }
+            })
+            .registerTypeAdapter(Date.class, Jsonifiable.DATE_SERIALIZER)
+            .registerTypeAdapter(Date.class, Jsonifiable.DATE_DESERIALIZER)
+            .create();
+
+    /**
+     * @param kind   Name of the entity's kind, a key of KINDS.
+     * @param entity Entity to write.
+     * @return Entity line for the entity, without the line break.
+     */
+    public static String toLine(String kind, Object entity) {
+        JsonObject line = new JsonObject();
+        line.addProperty("kind", kind);
+        line.add("entity", GSON.toJsonTree(entity));
+        return GSON.toJson(line);
+    }
+
+    /**
+     * @param cursor Where to resume the export.
+     * @return Cursor line for the cursor, without the line break.
+     */
+    public static String cursorLine(String cursor) {
+        JsonObject line = new JsonObject();
+        line.addProperty("cursor", cursor);
+        return GSON.toJson(line);
+    }
+
+    /**
+     * @return Done line, without the line break.
+     */
+    public static String doneLine() {
+        return "{\"done\":true}";
+    }
+
+    /**
+     * @param entity Entity object of an entity line.
+     * @param type   Model class of the entity's kind.
+     * @return The entity.
+     */
+    public static <T> T fromJson(JsonElement entity, Class<T> type) {
+        return GSON.fromJson(entity, type);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.Date;
+
+import com.google.plus.samples.photohunt.storage.BlobStorageFactory;
+import com.google.plus.samples.photohunt.storage.StoredBlob;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Index from the content of an uploaded image to the blob holding it, so
+ * that uploading the same bytes again reuses the stored blob and its serving
+ * URL instead of keeping a copy.  Content is identified by the MD5 hash and
+ * size that the BlobStorage computes for every upload.
+ */
+@Entity
+@Cache
+public class ImageBlob {
+
+    /**
+     * Key key.
+     *
+     * @param contentHash Content hash of an image.
+     * @return Key of the ImageBlob for the given content hash.
+     */
+    public static Key<ImageBlob> key(String contentHash) {
+        return Key.create(ImageBlob.class, contentHash);
+    }
+
+    /**
+     * MD5 hash and size of the image.
+     */
+    @Id
+    private String contentHash;
+
+    /**
+     * Key of the blob holding the image.
+     */
+    private String blobKey;
+
+    /**
+     * Serving URL of the image, without a size option.
+     */
+    private String servingUrl;
+
+    /**
+     * Date the image was first uploaded.
+     */
+    private Date created;
+
+    /**
+     * @param upload Uploaded blob.
+     * @return Content hash of the upload, or null if the BlobStorage didn't
+     * compute one.
+     */
+    public static String contentHash(StoredBlob upload) {
+        if (upload.getMd5Hash() == null) {
+            return null;
+        }
+        return upload.getMd5Hash() + "-" + upload.getSize();
+    }
+
+    /**
+     * Find the ImageBlob with the same content as the given upload, or record
+     * the upload as the blob for its content if there is none.  When an
+     * ImageBlob with a different blob key is returned, the upload is a
+     * duplicate and its blob can be deleted.
+     *
+     * @param upload Uploaded blob.
+     * @return ImageBlob for the content of the upload.
+     */
+    public static ImageBlob claim(StoredBlob upload) {
+        final String contentHash = contentHash(upload);
+        if (contentHash != null) {
+            ImageBlob existing = ofy().load().key(key(contentHash)).now();
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        final ImageBlob created = new ImageBlob();
+        created.contentHash = contentHash;
+        created.blobKey = upload.getKey();
+        created.servingUrl = BlobStorageFactory.getBlobStorage().getServingUrl(upload.getKey());
+        created.created = new Date();
+        if (contentHash == null) {
+            return created;
+        }
+        // Two uploads of the same new image may race; the first one to commit
+        // wins and the other is treated as a duplicate.
+        return ofy().transact(new Work<ImageBlob>() {
+            @Override
+            public ImageBlob run() {
+                ImageBlob existing = ofy().load().key(key(contentHash)).now();
+                if (existing != null) {
+                    return existing;
+                }
+                ofy().save().entity(created).now();
+                return created;
+            }
+        });
+    }
+
+    /**
+     * Gets blob key.
+     *
+     * @return the blob key
+     */
+    public String getBlobKey() {
+        return blobKey;
+    }
+
+    /**
+     * Gets serving url.
+     *
+     * @return the serving URL of the image, without a size option
+     */
+    public String getServingUrl() {
+        return servingUrl;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * ID given to an entity by an import, by the ID it had in the export.  Lets
+ * the entities imported later refer to it, across the requests of the
+ * import, and makes importing the same entity twice a no-op.
+ */
+@Entity
+public class ImportedId {
+
+    /**
+     * Key key.
+     *
+     * @param importId Identifies the import.
+     * @param kind     Name of the entity's kind, a key of EntityJson.KINDS.
+     * @param oldId    ID of the entity in the export.
+     * @return Key of the entity's ImportedId.
+     */
+    public static Key<ImportedId> key(String importId, String kind, long oldId) {
+        return Key.create(ImportedId.class, importId + " " + kind + " " + oldId);
+    }
+
+    /**
+     * Import, kind and ID in the export, separated by spaces.
+     */
+    @Id
+    private String id;
+
+    /**
+     * ID given by the import.
+     */
+    private long newId;
+
+    /**
+     * ID of the import, while the entity refers to one that wasn't imported
+     * yet, else null.  Only Themes do, to their preview Photo.
+     */
+    @Index
+    private String pendingImportId;
+
+    /**
+     * ID in the export of the entity not imported yet.
+     */
+    private long pendingOldId;
+
+    /**
+     * For Objectify.
+     */
+    private ImportedId() {
+    }
+
+    /**
+     * @param importId Identifies the import.
+     * @param kind     Name of the entity's kind.
+     * @param oldId    ID of the entity in the export.
+     * @param newId    ID given by the import.
+     */
+    public ImportedId(String importId, String kind, long oldId, long newId) {
+        this.id = key(importId, kind, oldId).getName();
+        this.newId = newId;
+    }
+
+    /**
+     * @return ID given by the import.
+     */
+    public long getNewId() {
+        return newId;
+    }
+
+    /**
+     * @return ID in the export of the entity not imported yet.
+     */
+    public long getPendingOldId() {
+        return pendingOldId;
+    }
+
+    /**
+     * Note that the entity refers to one that wasn't imported yet.
+     *
+     * @param importId Identifies the import.
+     * @param oldId    ID in the export of the entity referred to, or 0 once
+     *                 it is resolved.
+     */
+    public void setPending(String importId, long oldId) {
+        this.pendingImportId = oldId == 0 ? null : importId;
+        this.pendingOldId = oldId;
+    }
+}
@@ -18,6 +18,7 @@ package com.google.plus.samples.photohunt.model;
 
 import java.io.Reader;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.Date;
 
 import com.google.gson.Gson;
@@ -76,14 +77,30 @@ public abstract class Jsonifiable {
     };
 
     /**
-     * Gson object to use in all serialization and deserialization.
+     * Gson object serializing models by reflection.  Used by the generated
+     * type adapters to deserialize, which is not on any hot path.
      */
-    public static final Gson GSON = new GsonBuilder()
-            .excludeFieldsWithoutExposeAnnotation()
-            .registerTypeAdapter(Date.class, Jsonifiable.DATE_SERIALIZER)
-            .registerTypeAdapter(Date.class, Jsonifiable.DATE_DESERIALIZER)
+    static final Gson REFLECTIVE_GSON = newGsonBuilder().create();
+
+    /**
+     * Gson object to use in all serialization and deserialization.  Models
+     * are serialized by the type adapters that TypeAdapterProcessor generates
+     * at compile time, which write the same JSON as REFLECTIVE_GSON.
+     */
+    public static final Gson GSON = newGsonBuilder()
+            .registerTypeAdapterFactory(new GeneratedTypeAdapterFactory())
             .create();
 
+    /**
+     * @return GsonBuilder with the settings shared by all Gson objects.
+     */
+    private static GsonBuilder newGsonBuilder() {
+        return new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .registerTypeAdapter(Date.class, Jsonifiable.DATE_SERIALIZER)
+                .registerTypeAdapter(Date.class, Jsonifiable.DATE_DESERIALIZER);
+    }
+
     /**
      * @param json  Object to convert to instance representation.
      * @param clazz Type to which object should be converted.
@@ -102,16 +119,53 @@ public abstract class Jsonifiable {
         return GSON.fromJson(reader, clazz);
     }
 
+    /**
+     * Fill in the derived fields of the given values before they are
+     * serialized.  Every value is asked to start its work before any is asked
+     * to finish, so that datastore reads for a whole list run in parallel.
+     * Values that are not Jsonifiable are skipped.
+     *
+     * @param values Values about to be serialized.
+     */
+    public static void prepareForSerialization(Iterable<?> values) {
+        for (Object value : values) {
+            if (value instanceof Jsonifiable) {
+                ((Jsonifiable) value).prefetchDerivedFields();
+            }
+        }
+        for (Object value : values) {
+            if (value instanceof Jsonifiable) {
+                ((Jsonifiable) value).materializeDerivedFields();
+            }
+        }
+    }
+
     /**
      * Instantiates a new Jsonifiable.
      */
     public Jsonifiable() {
     }
 
+    /**
+     * Start any asynchronous work needed by materializeDerivedFields().  Does
+     * nothing by default.
+     */
+    protected void prefetchDerivedFields() {
+    }
+
+    /**
+     * Set the fields that are serialized but derived rather than stored.
+     * Called only when this instance is about to be serialized, so that loads
+     * which never serialize don't pay for them.  Does nothing by default.
+     */
+    protected void materializeDerivedFields() {
+    }
+
     /**
      * @return JSON representation of this instance.
      */
     public String toJson() {
+        prepareForSerialization(Collections.singleton(this));
         return GSON.toJson(this);
     }
 
@@ -44,7 +44,7 @@ public class Message extends Jsonifiable {
      * Message to be returned.
      */
     @Expose
-    private String message;
+    String message;
 
     /**
      * Gets message.
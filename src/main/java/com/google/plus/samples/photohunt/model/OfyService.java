@@ -30,10 +30,18 @@ public class OfyService {
     // register it here as well.
     static {
         factory().register(DirectedUserToUserEdge.class);
+        factory().register(ImageBlob.class);
+        factory().register(ImportedId.class);
         factory().register(Photo.class);
+        factory().register(PhotoCard.class);
+        factory().register(SearchPosting.class);
         factory().register(Theme.class);
+        factory().register(ThemeSnapshot.class);
+        factory().register(TrendingBoard.class);
         factory().register(User.class);
         factory().register(Vote.class);
+        factory().register(VoteClaim.class);
+        factory().register(VoteTally.class);
     }
 
     /**
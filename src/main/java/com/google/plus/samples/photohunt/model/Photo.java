@@ -17,22 +17,17 @@ package com.google.plus.samples.photohunt.model;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import com.google.appengine.api.blobstore.BlobKey;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.ServingUrlOptions;
 import com.google.gson.annotations.Expose;
-import com.google.plus.samples.photohunt.PhotosServlet;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.google.plus.samples.photohunt.storage.BlobStorageFactory;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
-import com.googlecode.objectify.annotation.OnLoad;
-
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
 
 /**
  * Represents a User's Photo in PhotoHunt.  Contains all of the properties that
@@ -46,12 +41,6 @@ public class Photo extends Jsonifiable {
     @Expose
     public static String kind = "photohunt#photo";
 
-    /**
-     * ImagesService to use for image operation execution.
-     */
-    protected static ImagesService images =
-            ImagesServiceFactory.getImagesService();
-
     /**
      * @param id ID of Photo for which to get a Key.
      * @return Key representation of given Photo's ID.
@@ -60,51 +49,87 @@ public class Photo extends Jsonifiable {
         return Key.create(Photo.class, id);
     }
 
+    /**
+     * Load a Photo by ID through the EntityCache.  Concurrent loads of the
+     * same Photo on this instance share a single read, which matters when a
+     * Photo goes viral.
+     *
+     * @param id ID of the Photo to load.
+     * @return The Photo, or null if it doesn't exist.
+     */
+    public static Photo load(final long id) {
+        return EntityCache.load(Photo.class, id, new Callable<Photo>() {
+            @Override
+            public Photo call() {
+                return RepositoryFactory.getPhotoRepository().get(id);
+            }
+        });
+    }
+
+    /**
+     * @param id ID of a Photo.
+     * @return URL for vote call to action on the given Photo, relative to the
+     * current request.
+     */
+    public static String voteCtaUrl(long id) {
+        return RequestContext.getBaseUrl() + "/index.html?photoId=" + id +
+                "&action=VOTE";
+    }
+
+    /**
+     * @param id ID of a Photo.
+     * @return URL for interactive posts and deep linking to the given Photo,
+     * relative to the current request.
+     */
+    public static String photoContentUrl(long id) {
+        return RequestContext.getBaseUrl() + "/photo.html?photoId=" + id;
+    }
+
     /**
      * Primary identifier of this Photo.
      */
     @Id
     @Expose
-    private long id;
+    long id;
 
     /**
      * ID of the User who owns this Photo.
      */
     @Index
     @Expose
-    private long ownerUserId;
+    long ownerUserId;
 
     /**
      * Display name of the User who owns this Photo.
      */
     @Expose
-    private String ownerDisplayName;
+    String ownerDisplayName;
 
     /**
      * Profile URL of the User who owns this Photo.
      */
     @Expose
-    private String ownerProfileUrl;
+    String ownerProfileUrl;
 
     /**
      * Profile photo of the User who owns this Photo.
      */
     @Expose
-    private String ownerProfilePhoto;
+    String ownerProfilePhoto;
 
     /**
      * ID of the Theme to which this Photo belongs.
      */
     @Index
     @Expose
-    private long themeId;
+    long themeId;
 
     /**
      * Display name of the Theme to which this Photo belongs.
      */
     @Index
     @Expose
-    private String themeDisplayName;
+    String themeDisplayName;
 
     /**
      * Number of votes this Photo has received.
@@ -112,52 +137,59 @@ public class Photo extends Jsonifiable {
     @Index
     @Expose
     @Ignore
-    private int numVotes;
+    int numVotes;
 
     /**
      * True if the current user has already voted this Photo.
      */
     @Expose
-    private boolean voted;
+    boolean voted;
 
     /**
      * Image blob key for this Photo.
      */
     private String imageBlobKey;
 
+    /**
+     * Secure serving URL of the image, without a size option.  Shared by all
+     * Photos of the same ImageBlob, and null for Photos uploaded before
+     * serving URLs were stored.
+     */
+    private String imageServingUrl;
+
     /**
      * Date this Photo was uploaded to PhotoHunt.
      */
     @Expose
-    private Date created;
+    Date created;
 
     /**
      * URL for full-size image of this Photo.
      */
     @Expose
     @Ignore
-    private String fullsizeUrl;
+    String fullsizeUrl;
 
     /**
      * URL for thumbnail image of this Photo.
      */
     @Expose
     @Ignore
-    private String thumbnailUrl;
+    String thumbnailUrl;
 
     /**
      * URL for vote call to action on this photo.
      */
     @Expose
     @Ignore
-    private String voteCtaUrl;
+    String voteCtaUrl;
 
     /**
      * URL for interactive posts and deep linking to this photo.
      */
     @Expose
     @Ignore
-    private String photoContentUrl;
+    String photoContentUrl;
 
     /**
      * Default size of thumbnails.
@@ -167,13 +199,38 @@ public class Photo extends Jsonifiable {
     public static final int DEFAULT_THUMBNAIL_SIZE = 400;
 
     /**
-     * Setup image URLs (fullsizeUrl and thumbnailUrl) after this Photo has been
-     * loaded.
+     * True once numVotes holds the number of votes for this Photo.
+     */
+    @Ignore
+    private boolean numVotesLoaded;
+
+    /**
+     * IDs of the votes for this Photo, while they are being fetched.
+     */
+    @Ignore
+    private List<Long> pendingVoteIds;
+
+    /**
+     * Start counting the votes for this Photo, unless they are known already.
+     */
+    @Override
+    protected void prefetchDerivedFields() {
+        if (!numVotesLoaded && pendingVoteIds == null) {
+            pendingVoteIds = RepositoryFactory.getVoteRepository().findIdsByPhoto(id);
+        }
+    }
+
+    /**
+     * Set the image URLs, vote count and links that are serialized along with
+     * this Photo.  Links are built from the base URL of the current request.
      */
-    @OnLoad
-    protected void setupImageUrls() {
-        fullsizeUrl = getImageUrl();
-        thumbnailUrl = getImageUrl(DEFAULT_THUMBNAIL_SIZE);
+    @Override
+    protected void materializeDerivedFields() {
+        fullsizeUrl = getFullsizeUrl();
+        thumbnailUrl = getThumbnailUrl();
+        numVotes = getNumVotes();
+        voteCtaUrl = getVoteCtaUrl();
+        photoContentUrl = getPhotoContentUrl();
     }
 
     /**
@@ -188,41 +245,34 @@ public class Photo extends Jsonifiable {
      * @return URL for images for this Photo of given size.
      */
     public String getImageUrl(int size) {
-        ServingUrlOptions options = ServingUrlOptions.Builder
-                .withBlobKey(new BlobKey(imageBlobKey))
-                .secureUrl(true);
-        if (size > -1) {
-            options.imageSize(size);
-        }
-        return images.getServingUrl(options);
-    }
-
-    /**
-     * Setup voteNum after this Photo has been loaded.
-     */
-    @OnLoad
-    protected void setupVoteNum() {
-        List<Vote> votes = ofy().load().type(Vote.class)
-                .filter("photoId", id)
-                .list();
-        numVotes = votes.size();
+        return imageUrl(getServingPath(), size);
     }
 
     /**
-     * Setup voteCtaUrl after this Photo has been loaded.
+     * @return Serving URL of the image without a size option, or its path
+     * when the image is served by this app.  Unlike getImageUrl(), it does
+     * not depend on the current request, so it may be stored.
      */
-    @OnLoad
-    protected void setupVoteCtaUrl() {
-        voteCtaUrl = PhotosServlet.BASE_URL + "/index.html?photoId=" + id +
-                "&action=VOTE";
+    String getServingPath() {
+        if (imageServingUrl != null) {
+            return imageServingUrl;
+        }
+        return BlobStorageFactory.getBlobStorage().getServingUrl(imageBlobKey);
     }
 
     /**
-     * Setup photoContentUrl after this Photo has been loaded.
+     * @param servingPath Serving URL or path of an image, as returned by
+     *                    getServingPath().
+     * @param size        Size of image for URL to return, or -1 for full size.
+     * @return Absolute URL of the image in the given size.  Paths are
+     * resolved against the base URL of the current request.
      */
-    @OnLoad
-    protected void photoDeepLinkUrl() {
-        photoContentUrl = PhotosServlet.BASE_URL + "/photo.html?photoId=" + id;
+    static String imageUrl(String servingPath, int size) {
+        String url = servingPath;
+        if (url.startsWith("/")) {
+            url = RequestContext.getBaseUrl() + url;
+        }
+        return size > -1 ? url + "=s" + size : url;
     }
 
     /**
@@ -348,6 +398,12 @@ public class Photo extends Jsonifiable {
      * @return the num votes
      */
     public int getNumVotes() {
+        if (!numVotesLoaded) {
+            prefetchDerivedFields();
+            numVotes = pendingVoteIds.size();
+            numVotesLoaded = true;
+            pendingVoteIds = null;
+        }
         return numVotes;
     }
 
@@ -358,6 +414,8 @@ public class Photo extends Jsonifiable {
      */
     public void setNumVotes(int numVotes) {
         this.numVotes = numVotes;
+        this.numVotesLoaded = true;
+        this.pendingVoteIds = null;
     }
 
     /**
@@ -396,6 +454,24 @@ public class Photo extends Jsonifiable {
         this.imageBlobKey = imageBlobKey;
     }
 
+    /**
+     * Gets image serving url.
+     *
+     * @return the image serving url, without a size option
+     */
+    public String getImageServingUrl() {
+        return imageServingUrl;
+    }
+
+    /**
+     * Sets image serving url.
+     *
+     * @param imageServingUrl the image serving url, without a size option
+     */
+    public void setImageServingUrl(String imageServingUrl) {
+        this.imageServingUrl = imageServingUrl;
+    }
+
     /**
      * Gets created.
      *
@@ -414,31 +490,46 @@ public class Photo extends Jsonifiable {
         this.created = created;
     }
 
+    /**
+     * Gets fullsize url.
+     *
+     * @return the fullsize url
+     */
+    public String getFullsizeUrl() {
+        if (fullsizeUrl == null) {
+            fullsizeUrl = getImageUrl();
+        }
+        return fullsizeUrl;
+    }
+
     /**
      * Gets thumbnail url.
      *
      * @return the thumbnail url
      */
     public String getThumbnailUrl() {
+        if (thumbnailUrl == null) {
+            thumbnailUrl = getImageUrl(DEFAULT_THUMBNAIL_SIZE);
+        }
         return thumbnailUrl;
     }
 
     /**
      * Gets vote cta url.
      *
-     * @return the vote cta url
+     * @return the vote cta url, relative to the current request
      */
     public String getVoteCtaUrl() {
-        return voteCtaUrl;
+        return voteCtaUrl(id);
     }
 
     /**
      * Gets photo content url.
      *
-     * @return the photo content url
+     * @return the photo content url, relative to the current request
      */
     public String getPhotoContentUrl() {
-        return photoContentUrl;
+        return photoContentUrl(id);
     }
 
     @Override
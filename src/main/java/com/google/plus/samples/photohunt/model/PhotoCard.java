@@ -0,0 +1,402 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.annotations.Expose;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Slim, denormalized copy of a Photo holding only what a gallery grid renders.
+ * Shares its ID with the Photo it describes.  The image serving path is
+ * stored, so listing cards costs no image service calls, and the thumbnail
+ * URL is built from it for the request being answered.  Nothing here is
+ * indexed: cards are only ever read by key, after a keys-only query on Photo.
+ */
+@Entity
+@Cache
+public class PhotoCard extends Jsonifiable {
+
+    /**
+     * The constant kind.
+     */
+    @Expose
+    public static String kind = "photohunt#photocard";
+
+    /**
+     * Key key.
+     *
+     * @param photoId ID of the Photo for which to get a card Key.
+     * @return Key representation of the given Photo's card.
+     */
+    public static Key<PhotoCard> key(long photoId) {
+        return Key.create(PhotoCard.class, photoId);
+    }
+
+    /**
+     * ID of the Photo this card describes.
+     */
+    @Id
+    @Expose
+    long id;
+
+    /**
+     * ID of the User who owns the Photo.
+     */
+    @Expose
+    long ownerUserId;
+
+    /**
+     * Display name of the User who owns the Photo.
+     */
+    @Expose
+    String ownerDisplayName;
+
+    /**
+     * Profile URL of the User who owns the Photo.
+     */
+    @Expose
+    String ownerProfileUrl;
+
+    /**
+     * Profile photo of the User who owns the Photo.
+     */
+    @Expose
+    String ownerProfilePhoto;
+
+    /**
+     * ID of the Theme to which the Photo belongs.
+     */
+    @Expose
+    long themeId;
+
+    /**
+     * Display name of the Theme to which the Photo belongs.
+     */
+    @Expose
+    String themeDisplayName;
+
+    /**
+     * Serving URL or path of the image of the Photo, without a size option.
+     * Null for cards saved before it was stored.
+     */
+    String servingPath;
+
+    /**
+     * URL for thumbnail image of the Photo.
+     */
+    @Expose
+    @Ignore
+    String thumbnailUrl;
+
+    /**
+     * Number of votes the Photo has received.
+     */
+    @Expose
+    @Ignore
+    int numVotes;
+
+    /**
+     * True if the current user has already voted the Photo.
+     */
+    @Expose
+    @Ignore
+    boolean voted;
+
+    /**
+     * URL for vote call to action on the Photo.
+     */
+    @Expose
+    @Ignore
+    String voteCtaUrl;
+
+    /**
+     * URL for interactive posts and deep linking to the Photo.
+     */
+    @Expose
+    @Ignore
+    String photoContentUrl;
+
+    /**
+     * True once numVotes holds the number of votes for the Photo.
+     */
+    @Ignore
+    private boolean numVotesLoaded;
+
+    /**
+     * IDs of the votes for the Photo, while they are being fetched.
+     */
+    @Ignore
+    private List<Long> pendingVoteIds;
+
+    /**
+     * @param photo Photo to describe.
+     * @return New card describing the given Photo.
+     */
+    public static PhotoCard of(Photo photo) {
+        PhotoCard card = new PhotoCard();
+        card.id = photo.getId();
+        card.ownerUserId = photo.getOwnerUserId();
+        card.ownerDisplayName = photo.getOwnerDisplayName();
+        card.ownerProfileUrl = photo.getOwnerProfileUrl();
+        card.ownerProfilePhoto = photo.getOwnerProfilePhoto();
+        card.themeId = photo.getThemeId();
+        card.themeDisplayName = photo.getThemeDisplayName();
+        card.servingPath = photo.getServingPath();
+        return card;
+    }
+
+    /**
+     * Load the cards of the given Photos with a single batch get.  Cards that
+     * don't exist yet, for Photos uploaded before cards were introduced, and
+     * cards saved before the serving path was stored are built from their
+     * Photos and saved in the background.
+     *
+     * @param photoIds IDs of the Photos whose cards to load.
+     * @return Cards in the order of photoIds, skipping Photos that no longer
+     * exist.
+     */
+    public static List<PhotoCard> load(Collection<Long> photoIds) {
+        List<Key<PhotoCard>> cardKeys = new ArrayList<Key<PhotoCard>>(photoIds.size());
+        for (Long photoId : photoIds) {
+            cardKeys.add(key(photoId));
+        }
+        Map<Key<PhotoCard>, PhotoCard> cards =
+                new HashMap<Key<PhotoCard>, PhotoCard>(ofy().load().keys(cardKeys));
+
+        List<Long> missing = new ArrayList<Long>();
+        for (Long photoId : photoIds) {
+            PhotoCard card = cards.get(key(photoId));
+            if (card == null || card.servingPath == null) {
+                cards.remove(key(photoId));
+                missing.add(photoId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<PhotoCard> built = new ArrayList<PhotoCard>(missing.size());
+            for (Photo photo : RepositoryFactory.getPhotoRepository().get(missing).values()) {
+                PhotoCard card = of(photo);
+                built.add(card);
+                cards.put(key(card.id), card);
+            }
+            ofy().save().entities(built);
+        }
+
+        List<PhotoCard> ordered = new ArrayList<PhotoCard>(photoIds.size());
+        for (Key<PhotoCard> cardKey : cardKeys) {
+            PhotoCard card = cards.get(cardKey);
+            if (card != null) {
+                ordered.add(card);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Set the vote counts of the given cards from their VoteTallies, with a
+     * single batch get.  Cards of Photos that have no tally yet are left to
+     * count their votes when they are serialized.
+     *
+     * @param cards Cards about to be serialized.
+     */
+    public static void loadVoteCounts(Collection<PhotoCard> cards) {
+        List<Long> photoIds = new ArrayList<Long>(cards.size());
+        for (PhotoCard card : cards) {
+            photoIds.add(card.id);
+        }
+        Map<Long, Integer> counts = VoteTally.counts(photoIds);
+        for (PhotoCard card : cards) {
+            Integer count = counts.get(card.id);
+            if (count != null) {
+                card.numVotes = count;
+                card.numVotesLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * Start counting the votes for the Photo, unless they are known already.
+     */
+    @Override
+    protected void prefetchDerivedFields() {
+        if (!numVotesLoaded && pendingVoteIds == null) {
+            pendingVoteIds = RepositoryFactory.getVoteRepository().findIdsByPhoto(id);
+        }
+    }
+
+    /**
+     * Set the vote count, the thumbnail URL and the links built from the
+     * current request.
+     */
+    @Override
+    protected void materializeDerivedFields() {
+        if (!numVotesLoaded) {
+            prefetchDerivedFields();
+            numVotes = pendingVoteIds.size();
+            numVotesLoaded = true;
+            pendingVoteIds = null;
+        }
+        thumbnailUrl = Photo.imageUrl(servingPath, Photo.DEFAULT_THUMBNAIL_SIZE);
+        voteCtaUrl = Photo.voteCtaUrl(id);
+        photoContentUrl = Photo.photoContentUrl(id);
+    }
+
+    /**
+     * Gets id.
+     *
+     * @return the id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets owner user id.
+     *
+     * @return the owner user id
+     */
+    public long getOwnerUserId() {
+        return ownerUserId;
+    }
+
+    /**
+     * Gets owner display name.
+     *
+     * @return the owner display name
+     */
+    public String getOwnerDisplayName() {
+        return ownerDisplayName;
+    }
+
+    /**
+     * Gets owner profile url.
+     *
+     * @return the owner profile url
+     */
+    public String getOwnerProfileUrl() {
+        return ownerProfileUrl;
+    }
+
+    /**
+     * Gets owner profile photo.
+     *
+     * @return the owner profile photo
+     */
+    public String getOwnerProfilePhoto() {
+        return ownerProfilePhoto;
+    }
+
+    /**
+     * Gets theme id.
+     *
+     * @return the theme id
+     */
+    public long getThemeId() {
+        return themeId;
+    }
+
+    /**
+     * Gets theme display name.
+     *
+     * @return the theme display name
+     */
+    public String getThemeDisplayName() {
+        return themeDisplayName;
+    }
+
+    /**
+     * Gets thumbnail url.
+     *
+     * @return the thumbnail url
+     */
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    /**
+     * Gets num votes.
+     *
+     * @return the num votes
+     */
+    public int getNumVotes() {
+        return numVotes;
+    }
+
+    /**
+     * Gets vote cta url.
+     *
+     * @return the vote cta url
+     */
+    public String getVoteCtaUrl() {
+        return voteCtaUrl;
+    }
+
+    /**
+     * Gets photo content url.
+     *
+     * @return the photo content url
+     */
+    public String getPhotoContentUrl() {
+        return photoContentUrl;
+    }
+
+    /**
+     * Is voted.
+     *
+     * @return the boolean
+     */
+    public boolean isVoted() {
+        return voted;
+    }
+
+    /**
+     * Sets voted.
+     *
+     * @param voted the voted
+     */
+    public void setVoted(boolean voted) {
+        this.voted = voted;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PhotoCard card = (PhotoCard) o;
+
+        return id == card.id;
+
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
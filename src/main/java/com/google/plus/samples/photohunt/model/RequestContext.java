@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+/**
+ * Per-request state needed by models while they are serialized, such as the
+ * base URL used to build absolute links.  Bound to the thread serving the
+ * request, so concurrent requests for different hosts never see each other's
+ * values.
+ */
+public class RequestContext {
+
+    /**
+     * Base URL of the request being served on the current thread.
+     */
+    private static final ThreadLocal<String> baseUrl = new ThreadLocal<String>();
+
+    /**
+     * Bind a request to the current thread.
+     *
+     * @param requestBaseUrl Scheme, host and port of the request, e.g.
+     *                       "https://example.com".
+     */
+    public static void begin(String requestBaseUrl) {
+        baseUrl.set(requestBaseUrl);
+    }
+
+    /**
+     * Unbind the current request from the current thread.
+     */
+    public static void end() {
+        baseUrl.remove();
+    }
+
+    /**
+     * @return Base URL of the current request, or "" if no request is bound,
+     * in which case links built from it are relative.
+     */
+    public static String getBaseUrl() {
+        String url = baseUrl.get();
+        return url == null ? "" : url;
+    }
+}
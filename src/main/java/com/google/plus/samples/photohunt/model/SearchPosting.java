@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * Entry of the photo search index: one term of a Photo's owner or Theme
+ * display name.  The key name is the term and the Photo ID, so that a
+ * keys-only range query over terms yields the matching Photo IDs without
+ * loading any entity.
+ */
+@Entity
+public class SearchPosting {
+
+    /**
+     * @param term    Indexed term.
+     * @param photoId ID of the Photo having the term.
+     * @return Key of the posting of the given term for the given Photo.
+     */
+    public static Key<SearchPosting> key(String term, long photoId) {
+        return Key.create(SearchPosting.class, term + " " + photoId);
+    }
+
+    /**
+     * @param key Key of a posting.
+     * @return ID of the Photo the posting is for.
+     */
+    public static long getPhotoId(Key<SearchPosting> key) {
+        String name = key.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf(' ') + 1));
+    }
+
+    /**
+     * @param key Key of a posting.
+     * @return Term the posting is for.
+     */
+    public static String getTerm(Key<SearchPosting> key) {
+        String name = key.getName();
+        return name.substring(0, name.lastIndexOf(' '));
+    }
+
+    /**
+     * Term and Photo ID, separated by a space.
+     */
+    @Id
+    private String id;
+
+    /**
+     * Indexed term, in lower case.
+     */
+    @Index
+    private String term;
+
+    /**
+     * ID of the Photo having the term.
+     */
+    @Index
+    private long photoId;
+
+    /**
+     * For Objectify.
+     */
+    private SearchPosting() {
+    }
+
+    /**
+     * @param term    Indexed term.
+     * @param photoId ID of the Photo having the term.
+     */
+    public SearchPosting(String term, long photoId) {
+        this.id = term + " " + photoId;
+        this.term = term;
+        this.photoId = photoId;
+    }
+
+    /**
+     * @return Indexed term.
+     */
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * @return ID of the Photo having the term.
+     */
+    public long getPhotoId() {
+        return photoId;
+    }
+}
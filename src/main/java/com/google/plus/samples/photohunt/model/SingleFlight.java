@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent loads of the same key on this instance: the first
+ * caller runs the load, and callers arriving while it is in flight wait for
+ * its result instead of issuing the same datastore reads.  Nothing is kept
+ * once the load completes, so this never serves stale data.
+ * <p/>
+ * Models are mutable and carry per-request state, so loads should share raw
+ * datastore Entities and let each caller hydrate its own instance, as
+ * EntityCache does.
+ *
+ * @param <K> Type of the keys loads are coalesced by.
+ * @param <V> Type of the loaded values.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads in flight, by key.
+     */
+    private final ConcurrentMap<K, FutureTask<V>> inFlight =
+            new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * @param key    Key to coalesce by.
+     * @param loader Load to run if none is in flight for the key.
+     * @return Result of the load in flight for the key, or of the given one.
+     */
+    public V load(K key, Callable<V> loader) {
+        FutureTask<V> task = inFlight.get(key);
+        if (task == null) {
+            FutureTask<V> created = new FutureTask<V>(loader);
+            task = inFlight.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                try {
+                    created.run();
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+
+/**
+ * Read-only view over the DirectedUserToUserEdge graph.  Adjacency lists are
+ * materialized as sorted arrays of User IDs so that mutual friends can be
+ * found with a linear merge instead of a datastore query per pair.
+ */
+public class SocialGraph {
+
+    /**
+     * @param userId ID of the User whose friends to fetch.
+     * @return Sorted, de-duplicated IDs of the User's friends.
+     */
+    public static long[] getFriendIds(long userId) {
+        return toSortedArray(queryEdges(userId));
+    }
+
+    /**
+     * Fetch the adjacency lists of several Users at once.  Objectify queries
+     * run asynchronously, so every query is issued before any result is read,
+     * letting the datastore serve all of them in parallel.  Lists that have not
+     * been read by the given deadline are left out of the result.
+     *
+     * @param userIds    IDs of the Users whose friends to fetch.
+     * @param deadlineMs Wall clock time, in milliseconds since Epoch, after
+     *                   which no further lists are read.
+     * @return Sorted friend IDs keyed by User ID, in the order of userIds.
+     */
+    public static Map<Long, long[]> getFriendIds(Collection<Long> userIds,
+                                                 long deadlineMs) {
+        Map<Long, List<DirectedUserToUserEdge>> pending =
+                new LinkedHashMap<Long, List<DirectedUserToUserEdge>>();
+        for (Long userId : userIds) {
+            pending.put(userId, queryEdges(userId));
+        }
+        Map<Long, long[]> adjacency = new LinkedHashMap<Long, long[]>();
+        for (Map.Entry<Long, List<DirectedUserToUserEdge>> entry : pending.entrySet()) {
+            if (System.currentTimeMillis() >= deadlineMs) {
+                break;
+            }
+            adjacency.put(entry.getKey(), toSortedArray(entry.getValue()));
+        }
+        return adjacency;
+    }
+
+    /**
+     * Count, for every User two hops away from the center, how many of the
+     * center's friends link to them.  The center and its direct friends are
+     * never counted.
+     *
+     * @param centerId  ID of the User at the center of the expansion.
+     * @param friendIds Sorted friend IDs of the center.
+     * @param adjacency Sorted friend IDs of each of the center's friends.
+     * @return Mutual friend counts keyed by friend-of-friend User ID.
+     */
+    public static Map<Long, Integer> countFriendsOfFriends(long centerId,
+            long[] friendIds, Collection<long[]> adjacency) {
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        for (long[] neighbors : adjacency) {
+            // Walk the neighbor list against the center's own list, skipping
+            // anybody who is already a direct friend.
+            int j = 0;
+            for (long candidate : neighbors) {
+                while (j < friendIds.length && friendIds[j] < candidate) {
+                    j++;
+                }
+                if (candidate == centerId
+                        || (j < friendIds.length && friendIds[j] == candidate)) {
+                    continue;
+                }
+                Integer count = counts.get(candidate);
+                counts.put(candidate, count == null ? 1 : count + 1);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param userId ID of the User whose outgoing edges to query.
+     * @return Lazily fetched outgoing edges of the User.
+     */
+    private static List<DirectedUserToUserEdge> queryEdges(long userId) {
+        return RepositoryFactory.getEdgeRepository().findByOwner(userId);
+    }
+
+    /**
+     * @param edges Edges whose friend IDs to collect.
+     * @return Sorted, de-duplicated friend IDs of the given edges.
+     */
+    private static long[] toSortedArray(List<DirectedUserToUserEdge> edges) {
+        long[] ids = new long[edges.size()];
+        int i = 0;
+        for (DirectedUserToUserEdge edge : edges) {
+            ids[i++] = edge.getFriendUserId();
+        }
+        Arrays.sort(ids);
+        int unique = 0;
+        for (int k = 0; k < ids.length; k++) {
+            if (k == 0 || ids[k] != ids[k - 1]) {
+                ids[unique++] = ids[k];
+            }
+        }
+        return unique == ids.length ? ids : Arrays.copyOf(ids, unique);
+    }
+}
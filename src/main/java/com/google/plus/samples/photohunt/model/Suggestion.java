@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.io.Serializable;
+
+import com.google.gson.annotations.Expose;
+
+/**
+ * Represents a User suggested to another User, along with the number of
+ * friends they have in common.  Serializable so that suggestion lists can be
+ * stored in memcache.
+ */
+public class Suggestion extends Jsonifiable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The constant kind.
+     */
+    @Expose
+    public static String kind = "photohunt#suggestion";
+
+    /**
+     * ID of the suggested User.
+     */
+    @Expose
+    long userId;
+
+    /**
+     * Display name of the suggested User.
+     */
+    @Expose
+    String googleDisplayName;
+
+    /**
+     * Public Google+ profile URL of the suggested User.
+     */
+    @Expose
+    String googlePublicProfileUrl;
+
+    /**
+     * Public Google+ profile image of the suggested User.
+     */
+    @Expose
+    String googlePublicProfilePhotoUrl;
+
+    /**
+     * Number of friends the suggested User has in common with the requester.
+     */
+    @Expose
+    int mutualFriends;
+
+    /**
+     * Instantiates a new Suggestion.
+     *
+     * @param user          the suggested user
+     * @param mutualFriends the number of mutual friends
+     */
+    public Suggestion(User user, int mutualFriends) {
+        this.userId = user.getId();
+        this.googleDisplayName = user.getGoogleDisplayName();
+        this.googlePublicProfileUrl = user.getGooglePublicProfileUrl();
+        this.googlePublicProfilePhotoUrl = user.getGooglePublicProfilePhotoUrl();
+        this.mutualFriends = mutualFriends;
+    }
+
+    /**
+     * Gets user id.
+     *
+     * @return the user id
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets google display name.
+     *
+     * @return the google display name
+     */
+    public String getGoogleDisplayName() {
+        return googleDisplayName;
+    }
+
+    /**
+     * Gets google public profile url.
+     *
+     * @return the google public profile url
+     */
+    public String getGooglePublicProfileUrl() {
+        return googlePublicProfileUrl;
+    }
+
+    /**
+     * Gets google public profile photo url.
+     *
+     * @return the google public profile photo url
+     */
+    public String getGooglePublicProfilePhotoUrl() {
+        return googlePublicProfilePhotoUrl;
+    }
+
+    /**
+     * Gets mutual friends.
+     *
+     * @return the mutual friends
+     */
+    public int getMutualFriends() {
+        return mutualFriends;
+    }
+}
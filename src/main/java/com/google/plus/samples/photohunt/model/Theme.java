@@ -17,17 +17,18 @@
 package com.google.plus.samples.photohunt.model;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.concurrent.Callable;
 
 import com.google.gson.annotations.Expose;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
-
 /**
  * Represents a Theme for Photos.
  *
@@ -58,53 +59,85 @@ public class Theme extends Jsonifiable {
      */
     @Id
     @Expose
-    private long id;
+    long id;
 
     /**
      * Display name of this Theme.
      */
     @Expose
-    private String displayName;
+    String displayName;
 
     /**
      * Date that this Theme was created.
      */
     @Index
     @Expose
-    private Date created;
+    Date created;
 
     /**
      * Date that this Theme should start.
      */
     @Index
     @Expose
-    private Date start;
+    Date start;
 
     /**
      * ID of Photo to display as a preview of this Theme.
      */
     @Expose
-    private long previewPhotoId;
+    long previewPhotoId;
 
     /**
      * Gets current theme.
      *
      * @return Current Theme for PhotoHunt today.  A current theme is the theme
-     * for the day.  There cannot be two themes on the same day.
+     * for the day.  There cannot be two themes on the same day.  Served from
+     * the EntityCache, so most calls don't run the query.
      */
     public static Theme getCurrentTheme() {
-        Calendar start = Calendar.getInstance();
-        start.set(Calendar.HOUR, 0);
-        start.set(Calendar.MINUTE, 0);
-        start.set(Calendar.SECOND, 0);
+        Calendar start = startOfDay();
         Calendar end = Calendar.getInstance();
         end.set(Calendar.HOUR, 23);
         end.set(Calendar.MINUTE, 59);
         end.set(Calendar.SECOND, 59);
-        return ofy().load().type(Theme.class)
-                .filter("start >", start.getTime())
-                .filter("start <", end.getTime())
-                .order("-start").first().get();
+        final Date from = start.getTime();
+        final Date to = end.getTime();
+        return EntityCache.load(Theme.class, currentCacheId(from),
+                new Callable<Theme>() {
+                    @Override
+                    public Theme call() {
+                        return RepositoryFactory.getThemeRepository()
+                                .findLatestStartingBetween(from, to);
+                    }
+                });
+    }
+
+    /**
+     * Drop the cached current Theme, after a Theme is written that may be, or
+     * may become, the current one.
+     */
+    public static void invalidateCurrent() {
+        EntityCache.invalidate(Theme.class,
+                Collections.singletonList(currentCacheId(startOfDay().getTime())));
+    }
+
+    /**
+     * @return Start of the day of the current Theme.
+     */
+    private static Calendar startOfDay() {
+        Calendar start = Calendar.getInstance();
+        start.set(Calendar.HOUR, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        return start;
+    }
+
+    /**
+     * @param from Start of the day of the current Theme.
+     * @return ID under which the EntityCache holds the current Theme.
+     */
+    private static String currentCacheId(Date from) {
+        return "current:" + from.getTime() / 1000;
     }
 
     /**
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.google.gson.annotations.Expose;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Serialize;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Immutable record of a Theme that is no longer current: its final ranking,
+ * winner and a compact copy of its Photos.  The Photo list is stored as a
+ * single compressed blob so that an archived Theme is read with one get.
+ */
+@Entity
+@Cache
+public class ThemeSnapshot extends Jsonifiable {
+
+    /**
+     * The constant kind.
+     */
+    @Expose
+    public static String kind = "photohunt#themesnapshot";
+
+    /**
+     * Key key.
+     *
+     * @param themeId ID of the Theme for which to get a snapshot Key.
+     * @return Key representation of the given Theme's snapshot.
+     */
+    public static Key<ThemeSnapshot> key(long themeId) {
+        return Key.create(ThemeSnapshot.class, themeId);
+    }
+
+    /**
+     * ID of the Theme this snapshot was taken of.
+     */
+    @Id
+    @Expose
+    long themeId;
+
+    /**
+     * Display name of the Theme.
+     */
+    @Expose
+    String displayName;
+
+    /**
+     * Date that the Theme was created.
+     */
+    @Expose
+    Date created;
+
+    /**
+     * Date that the Theme started.
+     */
+    @Expose
+    Date start;
+
+    /**
+     * Date that this snapshot was taken.
+     */
+    @Expose
+    Date frozen;
+
+    /**
+     * Number of Photos entered in the Theme.
+     */
+    @Expose
+    int photoCount;
+
+    /**
+     * ID of the Photo with the most votes, or 0 if there were no Photos.
+     */
+    @Expose
+    long winnerPhotoId;
+
+    /**
+     * Photos of the Theme, ordered by final rank.
+     */
+    @Expose
+    @Serialize(zip = true)
+    ArrayList<RankedPhoto> photos;
+
+    /**
+     * Take a snapshot of the given Theme and store it.  Also records the
+     * winner as the Theme's preview Photo.
+     *
+     * @param theme Theme to freeze.
+     * @return The stored snapshot.
+     */
+    public static ThemeSnapshot freeze(Theme theme) {
+        List<Photo> themePhotos = RepositoryFactory.getPhotoRepository()
+                .find(null, theme.getId());
+        prepareForSerialization(themePhotos);
+        ArrayList<RankedPhoto> ranked = new ArrayList<RankedPhoto>(themePhotos.size());
+        for (Photo photo : themePhotos) {
+            ranked.add(new RankedPhoto(photo));
+        }
+        Collections.sort(ranked, RankedPhoto.BY_RANK);
+
+        ThemeSnapshot snapshot = new ThemeSnapshot();
+        snapshot.themeId = theme.getId();
+        snapshot.displayName = theme.getDisplayName();
+        snapshot.created = theme.getCreated();
+        snapshot.start = theme.getStart();
+        snapshot.frozen = new Date();
+        snapshot.photoCount = ranked.size();
+        snapshot.winnerPhotoId = ranked.isEmpty() ? 0 : ranked.get(0).id;
+        snapshot.photos = ranked;
+
+        theme.setPreviewPhotoId(snapshot.winnerPhotoId);
+        ofy().save().entity(snapshot).now();
+        RepositoryFactory.getThemeRepository().save(theme);
+        Theme.invalidateCurrent();
+        return snapshot;
+    }
+
+    /**
+     * Gets theme id.
+     *
+     * @return the theme id
+     */
+    public long getThemeId() {
+        return themeId;
+    }
+
+    /**
+     * Gets display name.
+     *
+     * @return the display name
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Gets created.
+     *
+     * @return the date the Theme was created
+     */
+    public Date getCreated() {
+        return created;
+    }
+
+    /**
+     * Gets start.
+     *
+     * @return the date the Theme started
+     */
+    public Date getStart() {
+        return start;
+    }
+
+    /**
+     * Gets frozen.
+     *
+     * @return the date this snapshot was taken
+     */
+    public Date getFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Gets photo count.
+     *
+     * @return the photo count
+     */
+    public int getPhotoCount() {
+        return photoCount;
+    }
+
+    /**
+     * Gets winner photo id.
+     *
+     * @return the winner photo id
+     */
+    public long getWinnerPhotoId() {
+        return winnerPhotoId;
+    }
+
+    /**
+     * Gets photos.
+     *
+     * @return the photos, ordered by final rank
+     */
+    public List<RankedPhoto> getPhotos() {
+        if (photos == null) {
+            return null;
+        }
+        return Collections.unmodifiableList(photos);
+    }
+
+    /**
+     * Compact copy of the parts of a Photo needed to render an archived Theme.
+     */
+    public static class RankedPhoto implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Orders by most votes, then by earliest upload.
+         */
+        static final Comparator<RankedPhoto> BY_RANK = new Comparator<RankedPhoto>() {
+            @Override
+            public int compare(RankedPhoto a, RankedPhoto b) {
+                if (a.numVotes != b.numVotes) {
+                    return a.numVotes > b.numVotes ? -1 : 1;
+                }
+                if (a.created != b.created) {
+                    return a.created < b.created ? -1 : 1;
+                }
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        };
+
+        /**
+         * ID of the Photo.
+         */
+        @Expose
+        private long id;
+
+        /**
+         * ID of the User who owns the Photo.
+         */
+        @Expose
+        private long ownerUserId;
+
+        /**
+         * Display name of the User who owns the Photo.
+         */
+        @Expose
+        private String ownerDisplayName;
+
+        /**
+         * Profile URL of the User who owns the Photo.
+         */
+        @Expose
+        private String ownerProfileUrl;
+
+        /**
+         * Profile photo of the User who owns the Photo.
+         */
+        @Expose
+        private String ownerProfilePhoto;
+
+        /**
+         * Final number of votes the Photo received.
+         */
+        @Expose
+        private int numVotes;
+
+        /**
+         * Upload time of the Photo, in milliseconds since Epoch.
+         */
+        @Expose
+        private long created;
+
+        /**
+         * URL for the full-size image of the Photo.
+         */
+        @Expose
+        private String fullsizeUrl;
+
+        /**
+         * URL for the thumbnail image of the Photo.
+         */
+        @Expose
+        private String thumbnailUrl;
+
+        RankedPhoto(Photo photo) {
+            id = photo.getId();
+            ownerUserId = photo.getOwnerUserId();
+            ownerDisplayName = photo.getOwnerDisplayName();
+            ownerProfileUrl = photo.getOwnerProfileUrl();
+            ownerProfilePhoto = photo.getOwnerProfilePhoto();
+            numVotes = photo.getNumVotes();
+            created = photo.getCreated() == null ? 0 : photo.getCreated().getTime();
+            fullsizeUrl = photo.getFullsizeUrl();
+            thumbnailUrl = photo.getThumbnailUrl();
+        }
+
+        /**
+         * Gets id.
+         *
+         * @return the id
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets num votes.
+         *
+         * @return the num votes
+         */
+        public int getNumVotes() {
+            return numVotes;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * The Photos of a Theme that are gaining votes fastest, ranked by a score
+ * that every vote adds 1 to and that halves every HALF_LIFE_MS.
+ * <p/>
+ * Scores are kept as the logarithm of the score scaled by exp(DECAY * t),
+ * with t the time since the epoch.  Decay scales every score alike, so
+ * scaled scores rank the same as decayed ones and only the Photo voted for
+ * changes when a vote is recorded; nothing is recomputed as time passes.
+ * <p/>
+ * A board tracks at most CAPACITY Photos.  Once full, a Photo voted for that
+ * isn't on it enters with the score of its new votes, and the lowest scored
+ * Photos are dropped.  Photos far from the top may lose their older votes
+ * this way, but those are the ones that decayed the most.
+ * <p/>
+ * Boards are updated in a transaction by each VoteBuffer flush, one put per
+ * Theme, and are read through Objectify's memcache and the EntityCache.
+ */
+@Entity
+@Cache
+public class TrendingBoard {
+
+    /**
+     * Time it takes a score to halve, in milliseconds.
+     */
+    private static final long HALF_LIFE_MS = 2 * 60 * 60 * 1000l;
+
+    private static final double DECAY = Math.log(2) / HALF_LIFE_MS;
+
+    /**
+     * Most Photos a board tracks.
+     */
+    private static final int CAPACITY = 200;
+
+    private static final Comparator<Map.Entry<Long, Double>> BY_SCORE =
+            new Comparator<Map.Entry<Long, Double>>() {
+                @Override
+                public int compare(Map.Entry<Long, Double> a, Map.Entry<Long, Double> b) {
+                    return Double.compare(a.getValue(), b.getValue());
+                }
+            };
+
+    /**
+     * Key key.
+     *
+     * @param themeId ID of the Theme for which to get a board Key.
+     * @return Key representation of the given Theme's board.
+     */
+    public static Key<TrendingBoard> key(long themeId) {
+        return Key.create(TrendingBoard.class, themeId);
+    }
+
+    /**
+     * ID of the Theme whose Photos are ranked.
+     */
+    @Id
+    private long themeId;
+
+    /**
+     * IDs of the tracked Photos, highest score first.
+     */
+    private List<Long> photoIds = new ArrayList<Long>();
+
+    /**
+     * Scaled log scores of the tracked Photos, in the order of photoIds.
+     */
+    private List<Double> logScores = new ArrayList<Double>();
+
+    /**
+     * Add the given stored Votes to the boards of their Photos' Themes.
+     *
+     * @param votes Votes just stored.
+     */
+    public static void record(Collection<Vote> votes) {
+        if (votes.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> votesByPhoto = new HashMap<Long, Integer>();
+        for (Vote vote : votes) {
+            Integer count = votesByPhoto.get(vote.getPhotoId());
+            votesByPhoto.put(vote.getPhotoId(), count == null ? 1 : count + 1);
+        }
+        Map<Long, Map<Long, Integer>> byTheme = new HashMap<Long, Map<Long, Integer>>();
+        for (Photo photo : RepositoryFactory.getPhotoRepository()
+                .get(votesByPhoto.keySet()).values()) {
+            Map<Long, Integer> themeVotes = byTheme.get(photo.getThemeId());
+            if (themeVotes == null) {
+                themeVotes = new HashMap<Long, Integer>();
+                byTheme.put(photo.getThemeId(), themeVotes);
+            }
+            themeVotes.put(photo.getId(), votesByPhoto.get(photo.getId()));
+        }
+        final double now = System.currentTimeMillis() * DECAY;
+        for (final Map.Entry<Long, Map<Long, Integer>> theme : byTheme.entrySet()) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    TrendingBoard board = ofy().load().key(key(theme.getKey())).now();
+                    if (board == null) {
+                        board = new TrendingBoard();
+                        board.themeId = theme.getKey();
+                    }
+                    board.add(theme.getValue(), now);
+                    ofy().save().entity(board).now();
+                }
+            });
+        }
+        EntityCache.invalidate(TrendingBoard.class, byTheme.keySet());
+    }
+
+    /**
+     * @param themeId ID of a Theme.
+     * @param limit   Most Photos to return.
+     * @return IDs of the Theme's trending Photos, most trending first.
+     */
+    public static List<Long> top(final long themeId, int limit) {
+        TrendingBoard board = EntityCache.load(TrendingBoard.class, themeId,
+                new Callable<TrendingBoard>() {
+                    @Override
+                    public TrendingBoard call() {
+                        return ofy().load().key(key(themeId)).now();
+                    }
+                });
+        if (board == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Long>(
+                board.photoIds.subList(0, Math.min(limit, board.photoIds.size())));
+    }
+
+    /**
+     * Add votes to the board, keeping the CAPACITY highest scores.
+     *
+     * @param votesByPhoto Number of new votes, by Photo ID.
+     * @param now          Current time, scaled by DECAY.
+     */
+    private void add(Map<Long, Integer> votesByPhoto, double now) {
+        Map<Long, Double> scores = new HashMap<Long, Double>(photoIds.size() + votesByPhoto.size());
+        for (int i = 0; i < photoIds.size(); i++) {
+            scores.put(photoIds.get(i), logScores.get(i));
+        }
+        for (Map.Entry<Long, Integer> photo : votesByPhoto.entrySet()) {
+            double added = now + Math.log(photo.getValue());
+            Double score = scores.get(photo.getKey());
+            scores.put(photo.getKey(), score == null ? added : logAdd(score, added));
+        }
+
+        // Min-heap of the highest scores seen so far.
+        PriorityQueue<Map.Entry<Long, Double>> top =
+                new PriorityQueue<Map.Entry<Long, Double>>(CAPACITY + 1, BY_SCORE);
+        for (Map.Entry<Long, Double> score : scores.entrySet()) {
+            top.add(score);
+            if (top.size() > CAPACITY) {
+                top.poll();
+            }
+        }
+        List<Map.Entry<Long, Double>> ranked = new ArrayList<Map.Entry<Long, Double>>(top);
+        Collections.sort(ranked, Collections.reverseOrder(BY_SCORE));
+        photoIds = new ArrayList<Long>(ranked.size());
+        logScores = new ArrayList<Double>(ranked.size());
+        for (Map.Entry<Long, Double> score : ranked) {
+            photoIds.add(score.getKey());
+            logScores.add(score.getValue());
+        }
+    }
+
+    /**
+     * @return log(exp(a) + exp(b)), without overflowing.
+     */
+    private static double logAdd(double a, double b) {
+        double max = Math.max(a, b);
+        return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+    }
+
+    /**
+     * Gets theme id.
+     *
+     * @return the theme id
+     */
+    public long getThemeId() {
+        return themeId;
+    }
+}
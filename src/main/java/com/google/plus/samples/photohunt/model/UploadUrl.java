@@ -42,7 +42,7 @@ public class UploadUrl extends Jsonifiable {
      * URL ready to received an uploaded image.
      */
     @Expose
-    private String url;
+    String url;
 
     /**
      * Gets url.
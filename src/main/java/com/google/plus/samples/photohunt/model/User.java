@@ -19,16 +19,16 @@ package com.google.plus.samples.photohunt.model;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.google.gson.annotations.Expose;
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 
-import static com.google.plus.samples.photohunt.model.OfyService.ofy;
-
 /**
  * User of the PhotoHunt application.  This instance maintains all information
  * needed to interact with and manage a single user.  That includes things like
@@ -60,45 +60,61 @@ public class User extends Jsonifiable {
         return Key.create(User.class, id);
     }
 
+    /**
+     * Load a User by ID through the EntityCache.  The connected User is read
+     * on almost every request, so this mostly avoids a memcache round trip.
+     *
+     * @param id ID of the User to load.
+     * @return The User, or null if it doesn't exist.
+     */
+    public static User load(final long id) {
+        return EntityCache.load(User.class, id, new Callable<User>() {
+            @Override
+            public User call() {
+                return RepositoryFactory.getUserRepository().get(id);
+            }
+        });
+    }
+
     /**
      * Primary identifier of this User.  Specific to PhotoHunt.
      */
     @Id
     @Expose
-    private long id;
+    long id;
 
     /**
      * Primary email address of this User.
      */
     @Index
     @Expose
-    private String email;
+    String email;
 
     /**
      * UUID identifier of this User within Google products.
      */
     @Index
     @Expose
-    private String googleUserId;
+    String googleUserId;
 
     /**
      * Display name that this User has chosen for Google products.
      */
     @Index
     @Expose
-    private String googleDisplayName;
+    String googleDisplayName;
 
     /**
      * Public Google+ profile URL for this User.
      */
     @Expose
-    private String googlePublicProfileUrl;
+    String googlePublicProfileUrl;
 
     /**
      * Public Google+ profile image for this User.
      */
     @Expose
-    private String googlePublicProfilePhotoUrl;
+    String googlePublicProfilePhotoUrl;
 
     /**
      * Access token used to access Google APIs on this User's behalf.
@@ -123,7 +139,7 @@ public class User extends Jsonifiable {
      * token.
      */
     @Expose
-    private long googleExpiresAt;
+    long googleExpiresAt;
 
     /**
      * Gets friend keys.
@@ -131,10 +147,8 @@ public class User extends Jsonifiable {
      * @return List of Key<User> representing keys of friends.
      */
     public List<Key<User>> getFriendKeys() {
-        List<DirectedUserToUserEdge> edges = ofy().load()
-                .type(DirectedUserToUserEdge.class)
-                .filter("ownerUserId", getId())
-                .list();
+        List<DirectedUserToUserEdge> edges =
+                RepositoryFactory.getEdgeRepository().findByOwner(getId());
         List<Key<User>> friendKeys = new ArrayList<Key<User>>();
         for (DirectedUserToUserEdge edge : edges) {
             friendKeys.add(key(edge.getFriendUserId()));
@@ -148,10 +162,8 @@ public class User extends Jsonifiable {
      * @return List of longs representing IDs of friends.
      */
     public List<Long> getFriendIds() {
-        List<DirectedUserToUserEdge> edges = ofy().load()
-                .type(DirectedUserToUserEdge.class)
-                .filter("ownerUserId", getId())
-                .list();
+        List<DirectedUserToUserEdge> edges =
+                RepositoryFactory.getEdgeRepository().findByOwner(getId());
         List<Long> friendIds = new ArrayList<Long>();
         for (DirectedUserToUserEdge edge : edges) {
             friendIds.add(edge.getFriendUserId());
@@ -165,7 +177,7 @@ public class User extends Jsonifiable {
      * @return Collection of Users that this User has listed as their friend(s).
      */
     public Collection<User> getFriends() {
-        return ofy().load().keys(getFriendKeys()).values();
+        return RepositoryFactory.getUserRepository().get(getFriendIds()).values();
     }
 
     /**
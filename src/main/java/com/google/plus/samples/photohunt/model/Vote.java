@@ -53,21 +53,21 @@ public class Vote extends Jsonifiable {
      */
     @Id
     @Expose
-    private long id;
+    long id;
 
     /**
      * ID of User who owns this Vote.
      */
     @Index
     @Expose
-    private long ownerUserId;
+    long ownerUserId;
 
     /**
      * ID of the Photo to which this Vote was made.
      */
     @Index
     @Expose
-    private long photoId;
+    long photoId;
 
     /**
      * Gets id.
@@ -78,6 +78,15 @@ public class Vote extends Jsonifiable {
         return id;
     }
 
+    /**
+     * Sets id.
+     *
+     * @param id the id
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     /**
      * Gets owner user id.
      *
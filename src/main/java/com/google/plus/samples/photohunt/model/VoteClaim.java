@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * Record that a User voted for a Photo, keyed by the User's ID under the
+ * Photo's VoteTally.  The key is deterministic, so whether a User voted is a
+ * strongly consistent get, and claiming a vote is a check-and-put in the
+ * tally's transaction.
+ */
+@Entity
+public class VoteClaim {
+
+    /**
+     * Key key.
+     *
+     * @param photoId     ID of the Photo voted for.
+     * @param ownerUserId ID of the User who voted.
+     * @return Key representation of the User's claim on the Photo.
+     */
+    public static Key<VoteClaim> key(long photoId, long ownerUserId) {
+        return Key.create(VoteTally.key(photoId), VoteClaim.class, ownerUserId);
+    }
+
+    /**
+     * Tally of the Photo voted for.
+     */
+    @Parent
+    private Key<VoteTally> tally;
+
+    /**
+     * ID of the User who voted.
+     */
+    @Id
+    private long ownerUserId;
+
+    /**
+     * ID of the Vote stored for the claim.
+     */
+    private long voteId;
+
+    /**
+     * For Objectify.
+     */
+    private VoteClaim() {
+    }
+
+    /**
+     * @param vote Vote to claim, with its ID set.
+     */
+    VoteClaim(Vote vote) {
+        this.tally = VoteTally.key(vote.getPhotoId());
+        this.ownerUserId = vote.getOwnerUserId();
+        this.voteId = vote.getId();
+    }
+
+    /**
+     * @return ID of the User who voted.
+     */
+    public long getOwnerUserId() {
+        return ownerUserId;
+    }
+
+    /**
+     * @return ID of the Vote stored for the claim.
+     */
+    public long getVoteId() {
+        return voteId;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.plus.samples.photohunt.repository.RepositoryFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * Number of Users who voted for a Photo, and the root of the entity group
+ * holding their VoteClaims.  Shares its ID with the Photo it counts.
+ * <p/>
+ * A Vote is stored only once its claim is put, in a transaction that finds
+ * no claim for the same User and Photo, so however many times a Vote is
+ * queued, and however many flushes run at once, it is stored once.  A Vote's
+ * ID is allocated before it is claimed and kept on the claim, so a flush
+ * that fails after claiming lets the next one store the Vote under the same
+ * ID.
+ * <p/>
+ * Photos voted for before tallies existed get theirs on their next Vote,
+ * seeded from the Votes stored for them.  The seed claims are put in chunks
+ * before the tally transaction, which only counts them.
+ */
+@Entity
+@Cache
+public class VoteTally {
+
+    /**
+     * Key key.
+     *
+     * @param photoId ID of the Photo for which to get a tally Key.
+     * @return Key representation of the given Photo's tally.
+     */
+    public static Key<VoteTally> key(long photoId) {
+        return Key.create(VoteTally.class, photoId);
+    }
+
+    /**
+     * Most claims put at once, below the datastore's limit of 500 entities
+     * per put, leaving room for the tally.
+     */
+    private static final int MAX_CLAIMS_PER_PUT = 400;
+
+    /**
+     * ID of the Photo voted for.
+     */
+    @Id
+    private long photoId;
+
+    /**
+     * Number of claims under this tally.
+     */
+    private int count;
+
+    /**
+     * Claim the given Votes, and return those that need storing: the Votes
+     * claimed now, and the Votes of earlier claims that were never stored.
+     * Votes already claimed and stored are dropped.
+     *
+     * @param votes Votes to claim, at most one per User and Photo, with no ID.
+     * @return Votes to store, with their IDs set.
+     */
+    public static List<Vote> claim(Collection<Vote> votes) {
+        if (votes.isEmpty()) {
+            return new ArrayList<Vote>();
+        }
+        Iterator<Key<Vote>> allocated =
+                ofy().factory().allocateIds(Vote.class, votes.size()).iterator();
+        Map<Long, List<Vote>> votesByPhoto = new LinkedHashMap<Long, List<Vote>>();
+        for (Vote vote : votes) {
+            vote.setId(allocated.next().getId());
+            List<Vote> photoVotes = votesByPhoto.get(vote.getPhotoId());
+            if (photoVotes == null) {
+                photoVotes = new ArrayList<Vote>();
+                votesByPhoto.put(vote.getPhotoId(), photoVotes);
+            }
+            photoVotes.add(vote);
+        }
+
+        // Seed the claims of the Photos that have no tally yet from their
+        // stored Votes.  Seeds only record what is stored, so putting them
+        // outside the tally transactions, a chunk at a time, is harmless.
+        List<Key<VoteTally>> tallyKeys = new ArrayList<Key<VoteTally>>(votesByPhoto.size());
+        for (Long photoId : votesByPhoto.keySet()) {
+            tallyKeys.add(key(photoId));
+        }
+        Map<Key<VoteTally>, VoteTally> tallies = ofy().load().keys(tallyKeys);
+        Map<Long, List<Vote>> storedByPhoto = new HashMap<Long, List<Vote>>();
+        for (Long photoId : votesByPhoto.keySet()) {
+            if (!tallies.containsKey(key(photoId))) {
+                storedByPhoto.put(photoId,
+                        RepositoryFactory.getVoteRepository().findByPhoto(photoId));
+            }
+        }
+        Map<Long, Integer> seeded = new HashMap<Long, Integer>();
+        for (Map.Entry<Long, List<Vote>> stored : storedByPhoto.entrySet()) {
+            seeded.put(stored.getKey(), seed(stored.getValue()));
+        }
+
+        // Claim each Photo's Votes in transactions on its tally, which give
+        // the Votes claimed now their allocated IDs and earlier claims theirs.
+        List<Vote> claimed = new ArrayList<Vote>(votes.size());
+        for (Map.Entry<Long, List<Vote>> photo : votesByPhoto.entrySet()) {
+            final long photoId = photo.getKey();
+            final Integer seedCount = seeded.get(photoId);
+            List<Vote> photoVotes = photo.getValue();
+            for (int i = 0; i < photoVotes.size(); i += MAX_CLAIMS_PER_PUT) {
+                final List<Vote> chunk = photoVotes.subList(i,
+                        Math.min(i + MAX_CLAIMS_PER_PUT, photoVotes.size()));
+                claimed.addAll(ofy().transact(new Work<List<Vote>>() {
+                    @Override
+                    public List<Vote> run() {
+                        return claim(photoId, chunk, seedCount == null ? 0 : seedCount);
+                    }
+                }));
+            }
+        }
+
+        // Gets by ID are strongly consistent, so this finds every stored Vote.
+        List<Long> voteIds = new ArrayList<Long>(claimed.size());
+        for (Vote vote : claimed) {
+            voteIds.add(vote.getId());
+        }
+        Map<Long, Vote> existing = RepositoryFactory.getVoteRepository().get(voteIds);
+        List<Vote> toStore = new ArrayList<Vote>(claimed.size());
+        for (Vote vote : claimed) {
+            if (!existing.containsKey(vote.getId())) {
+                toStore.add(vote);
+            }
+        }
+        return toStore;
+    }
+
+    /**
+     * Put a claim for each User having a stored Vote, in chunks.
+     *
+     * @param stored Votes stored for a Photo that has no tally.
+     * @return Number of Users having a stored Vote.
+     */
+    private static int seed(List<Vote> stored) {
+        Map<Long, VoteClaim> claims = new LinkedHashMap<Long, VoteClaim>();
+        for (Vote vote : stored) {
+            if (!claims.containsKey(vote.getOwnerUserId())) {
+                claims.put(vote.getOwnerUserId(), new VoteClaim(vote));
+            }
+        }
+        List<VoteClaim> seeds = new ArrayList<VoteClaim>(claims.values());
+        for (int i = 0; i < seeds.size(); i += MAX_CLAIMS_PER_PUT) {
+            ofy().save().entities(
+                    seeds.subList(i, Math.min(i + MAX_CLAIMS_PER_PUT, seeds.size()))).now();
+        }
+        return seeds.size();
+    }
+
+    /**
+     * Remove the claims of the given deleted Votes, one transaction per
+     * Photo.
+     *
+     * @param votes Votes just deleted.
+     */
+    public static void unclaim(Collection<Vote> votes) {
+        Map<Long, List<Long>> ownersByPhoto = new LinkedHashMap<Long, List<Long>>();
+        for (Vote vote : votes) {
+            List<Long> ownerUserIds = ownersByPhoto.get(vote.getPhotoId());
+            if (ownerUserIds == null) {
+                ownerUserIds = new ArrayList<Long>();
+                ownersByPhoto.put(vote.getPhotoId(), ownerUserIds);
+            }
+            ownerUserIds.add(vote.getOwnerUserId());
+        }
+        for (final Map.Entry<Long, List<Long>> photo : ownersByPhoto.entrySet()) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    VoteTally tally = ofy().load().key(key(photo.getKey())).now();
+                    if (tally == null) {
+                        return;
+                    }
+                    List<Key<VoteClaim>> claimKeys = new ArrayList<Key<VoteClaim>>();
+                    for (Long ownerUserId : photo.getValue()) {
+                        claimKeys.add(VoteClaim.key(photo.getKey(), ownerUserId));
+                    }
+                    Set<Key<VoteClaim>> claimed = ofy().load().keys(claimKeys).keySet();
+                    tally.count -= claimed.size();
+                    ofy().delete().keys(claimed);
+                    ofy().save().entity(tally).now();
+                }
+            });
+        }
+    }
+
+    /**
+     * @param photoIds IDs of Photos.
+     * @return Number of Users who voted for each of the Photos, by Photo ID,
+     * leaving out Photos that have no tally yet.
+     */
+    public static Map<Long, Integer> counts(Collection<Long> photoIds) {
+        List<Key<VoteTally>> tallyKeys = new ArrayList<Key<VoteTally>>(photoIds.size());
+        for (Long photoId : photoIds) {
+            tallyKeys.add(key(photoId));
+        }
+        Map<Long, Integer> counts = new HashMap<Long, Integer>(photoIds.size());
+        for (VoteTally tally : ofy().load().keys(tallyKeys).values()) {
+            counts.put(tally.photoId, tally.count);
+        }
+        return counts;
+    }
+
+    /**
+     * Delete the tallies and claims of the given Photos.
+     *
+     * @param photoIds IDs of deleted Photos.
+     */
+    public static void delete(Collection<Long> photoIds) {
+        List<List<Key<VoteClaim>>> claims = new ArrayList<List<Key<VoteClaim>>>();
+        for (Long photoId : photoIds) {
+            claims.add(ofy().load().type(VoteClaim.class).ancestor(key(photoId)).keys().list());
+        }
+        List<Key<?>> keys = new ArrayList<Key<?>>();
+        for (Long photoId : photoIds) {
+            keys.add(key(photoId));
+        }
+        for (List<Key<VoteClaim>> photoClaims : claims) {
+            keys.addAll(photoClaims);
+        }
+        ofy().delete().keys(keys);
+    }
+
+    /**
+     * Claim the given Votes for one Photo.  Runs in a transaction on the
+     * Photo's tally.
+     *
+     * @param photoId   ID of the Photo voted for.
+     * @param votes     Votes to claim, with their allocated IDs.
+     * @param seedCount Number of claims seeded from stored Votes, counted if
+     *                  the tally doesn't exist yet.
+     * @return The Votes claimed now, and a Vote with the stored ID for each
+     * Vote claimed before.
+     */
+    private static List<Vote> claim(long photoId, List<Vote> votes, int seedCount) {
+        VoteTally tally = ofy().load().key(key(photoId)).now();
+        if (tally == null) {
+            tally = new VoteTally();
+            tally.photoId = photoId;
+            tally.count = seedCount;
+        }
+        List<Key<VoteClaim>> claimKeys = new ArrayList<Key<VoteClaim>>(votes.size());
+        for (Vote vote : votes) {
+            claimKeys.add(VoteClaim.key(photoId, vote.getOwnerUserId()));
+        }
+        Map<Long, Long> voteIdByOwner = new HashMap<Long, Long>();
+        for (VoteClaim claim : ofy().load().keys(claimKeys).values()) {
+            voteIdByOwner.put(claim.getOwnerUserId(), claim.getVoteId());
+        }
+
+        List<Object> entities = new ArrayList<Object>(votes.size() + 1);
+        List<Vote> claimed = new ArrayList<Vote>(votes.size());
+        for (Vote vote : votes) {
+            Long voteId = voteIdByOwner.get(vote.getOwnerUserId());
+            if (voteId == null) {
+                entities.add(new VoteClaim(vote));
+                tally.count++;
+                claimed.add(vote);
+            } else {
+                Vote earlier = new Vote();
+                earlier.setId(voteId);
+                earlier.setOwnerUserId(vote.getOwnerUserId());
+                earlier.setPhotoId(photoId);
+                claimed.add(earlier);
+            }
+        }
+        entities.add(tally);
+        ofy().save().entities(entities).now();
+        return claimed;
+    }
+
+    /**
+     * @return Number of Users who voted for the Photo.
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a Gson TypeAdapter for every Jsonifiable model, so that models are
+ * serialized by straight-line code instead of by reflection.
+ * <p/>
+ * The generated adapters write exactly what the reflective adapter would with
+ * Jsonifiable's settings: the non-static @Expose fields, in declaration order,
+ * omitting nulls.  Fields are read as stored, like reflection does, never
+ * through getters, which may compute a value or query the datastore.  The
+ * adapters live in the model package and read the fields directly, so
+ * exposed fields must not be private.  Fields of primitive and String types
+ * are written directly, anything else through the Gson adapter for its type,
+ * so registered adapters such as the Date serializer still apply.
+ * Deserialization is not on any hot path and is delegated to the reflective
+ * adapter.
+ * <p/>
+ * All adapters are registered by a generated GeneratedTypeAdapterFactory in
+ * Jsonifiable's package.  Models outside that package are skipped and keep
+ * using reflection.
+ */
+@SupportedAnnotationTypes("com.google.gson.annotations.Expose")
+public class TypeAdapterProcessor extends AbstractProcessor {
+
+    /**
+     * Base class of the models to generate adapters for.
+     */
+    private static final String JSONIFIABLE =
+            "com.google.plus.samples.photohunt.model.Jsonifiable";
+
+    /**
+     * Simple name of the generated factory.
+     */
+    private static final String FACTORY = "GeneratedTypeAdapterFactory";
+
+    /**
+     * True once the adapters have been generated.  All models are root
+     * elements of the first round, so later rounds have nothing to add.
+     */
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+                           RoundEnvironment roundEnv) {
+        if (generated || annotations.isEmpty()) {
+            return false;
+        }
+        TypeElement jsonifiable = processingEnv.getElementUtils().getTypeElement(JSONIFIABLE);
+        if (jsonifiable == null) {
+            return false;
+        }
+        String modelPackage = packageOf(jsonifiable);
+
+        Set<TypeElement> models = new TreeSet<TypeElement>(new Comparator<TypeElement>() {
+            @Override
+            public int compare(TypeElement a, TypeElement b) {
+                return a.getQualifiedName().toString().compareTo(
+                        b.getQualifiedName().toString());
+            }
+        });
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotations.iterator().next())) {
+            if (element.getKind() != ElementKind.FIELD
+                    || element.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            TypeElement owner = (TypeElement) element.getEnclosingElement();
+            if (owner.getNestingKind() == NestingKind.TOP_LEVEL
+                    && !owner.getModifiers().contains(Modifier.ABSTRACT)
+                    && extendsJsonifiable(owner)
+                    && packageOf(owner).equals(modelPackage)) {
+                models.add(owner);
+            }
+        }
+        if (models.isEmpty()) {
+            return false;
+        }
+        generated = true;
+
+        try {
+            for (TypeElement model : models) {
+                writeAdapter(modelPackage, model);
+            }
+            writeFactory(modelPackage, models);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate type adapters: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Write the adapter for a single model.
+     *
+     * @param pkg   Package to write the adapter to.
+     * @param model Model to write the adapter for.
+     * @throws IOException Failed to write the source file.
+     */
+    private void writeAdapter(String pkg, TypeElement model) throws IOException {
+        String modelName = model.getQualifiedName().toString();
+        String adapterName = model.getSimpleName() + "TypeAdapter";
+
+        List<String> fieldAdapters = new ArrayList<String>();
+        List<String> writes = new ArrayList<String>();
+        for (VariableElement field : ElementFilter.fieldsIn(model.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC) || !isExposed(field)) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            TypeMirror type = field.asType();
+            if (field.getModifiers().contains(Modifier.PRIVATE)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Exposed field must not be private: its generated adapter reads it"
+                                + " directly", field);
+                continue;
+            }
+            String read = "value." + name;
+
+            writes.add("        out.name(\"" + name + "\");");
+            switch (type.getKind()) {
+                case LONG:
+                case INT:
+                case SHORT:
+                case BYTE:
+                case BOOLEAN:
+                    writes.add("        out.value(" + read + ");");
+                    break;
+                default:
+                    if (type.toString().equals("java.lang.String")) {
+                        writes.add("        out.value(" + read + ");");
+                    } else {
+                        String adapter = name + "Adapter";
+                        fieldAdapters.add(boxed(type) + " " + adapter);
+                        writes.add("        " + adapter + ".write(out, " + read + ");");
+                    }
+            }
+        }
+
+        PrintWriter w = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(pkg + "." + adapterName, model).openWriter());
+        try {
+            w.println("package " + pkg + ";");
+            w.println();
+            w.println("/**");
+            w.println(" * Gson TypeAdapter for " + model.getSimpleName()
+                    + ".  Generated by TypeAdapterProcessor; do not edit.");
+            w.println(" */");
+            w.println("final class " + adapterName
+                    + " extends com.google.gson.TypeAdapter<" + modelName + "> {");
+            for (String fieldAdapter : fieldAdapters) {
+                String[] parts = splitDeclaration(fieldAdapter);
+                w.println("    private final com.google.gson.TypeAdapter<" + parts[0] + "> "
+                        + parts[1] + ";");
+            }
+            w.println();
+            w.println("    " + adapterName + "(com.google.gson.Gson gson) {");
+            for (String fieldAdapter : fieldAdapters) {
+                String[] parts = splitDeclaration(fieldAdapter);
+                w.println("        " + parts[1] + " = gson.getAdapter(new com.google.gson.reflect.TypeToken<"
+                        + parts[0] + ">() {});");
+            }
+            w.println("    }");
+            w.println();
+            w.println("    @Override");
+            w.println("    public void write(com.google.gson.stream.JsonWriter out, "
+                    + modelName + " value) throws java.io.IOException {");
+            w.println("        if (value == null) {");
+            w.println("            out.nullValue();");
+            w.println("            return;");
+            w.println("        }");
+            w.println("        out.beginObject();");
+            for (String write : writes) {
+                w.println(write);
+            }
+            w.println("        out.endObject();");
+            w.println("    }");
+            w.println();
+            w.println("    @Override");
+            w.println("    public " + modelName
+                    + " read(com.google.gson.stream.JsonReader in) throws java.io.IOException {");
+            w.println("        return Jsonifiable.REFLECTIVE_GSON.getAdapter(" + modelName
+                    + ".class).read(in);");
+            w.println("    }");
+            w.println("}");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Write the factory registering every generated adapter.
+     *
+     * @param pkg    Package to write the factory to.
+     * @param models Models for which adapters were generated.
+     * @throws IOException Failed to write the source file.
+     */
+    private void writeFactory(String pkg, Set<TypeElement> models) throws IOException {
+        Element[] origins = models.toArray(new Element[models.size()]);
+        PrintWriter w = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(pkg + "." + FACTORY, origins).openWriter());
+        try {
+            w.println("package " + pkg + ";");
+            w.println();
+            w.println("/**");
+            w.println(" * Registers the generated Gson TypeAdapters of all Jsonifiable models.");
+            w.println(" * Generated by TypeAdapterProcessor; do not edit.");
+            w.println(" */");
+            w.println("final class " + FACTORY + " implements com.google.gson.TypeAdapterFactory {");
+            w.println("    @Override");
+            w.println("    @SuppressWarnings(\"unchecked\")");
+            w.println("    public <T> com.google.gson.TypeAdapter<T> create(com.google.gson.Gson gson,");
+            w.println("            com.google.gson.reflect.TypeToken<T> type) {");
+            w.println("        Class<? super T> raw = type.getRawType();");
+            for (TypeElement model : models) {
+                w.println("        if (raw == " + model.getQualifiedName() + ".class) {");
+                w.println("            return (com.google.gson.TypeAdapter<T>) new "
+                        + model.getSimpleName() + "TypeAdapter(gson);");
+                w.println("        }");
+            }
+            w.println("        return null;");
+            w.println("    }");
+            w.println("}");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * @param field Field to check.
+     * @return True if the field is annotated with @Expose.
+     */
+    private boolean isExposed(VariableElement field) {
+        for (javax.lang.model.element.AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (annotation.getAnnotationType().toString()
+                    .equals("com.google.gson.annotations.Expose")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param type Type to check.
+     * @return True if the type is a subclass of Jsonifiable.
+     */
+    private boolean extendsJsonifiable(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        while (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (element.getQualifiedName().contentEquals(JSONIFIABLE)) {
+                return true;
+            }
+            superclass = element.getSuperclass();
+        }
+        return false;
+    }
+
+    /**
+     * @param type Type to find the package of.
+     * @return Qualified name of the package of the type.
+     */
+    private String packageOf(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.getQualifiedName().toString();
+    }
+
+    /**
+     * @param type Type to box.
+     * @return Source representation of the type, boxed if it is primitive.
+     */
+    private String boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils()
+                    .boxedClass((javax.lang.model.type.PrimitiveType) type)
+                    .getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    /**
+     * @param declaration Type and name separated by the last space.
+     * @return Type and name of the declaration.
+     */
+    private String[] splitDeclaration(String declaration) {
+        int split = declaration.lastIndexOf(' ');
+        return new String[]{declaration.substring(0, split), declaration.substring(split + 1)};
+    }
+}
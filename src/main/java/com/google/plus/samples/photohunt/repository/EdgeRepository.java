@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
+
+/**
+ * Stores the edges of the social graph.  Lists returned by queries may be
+ * fetched lazily, until they are first read, so that callers can start
+ * several queries at once.
+ *
+ * @see RepositoryFactory
+ */
+public interface EdgeRepository {
+
+    /**
+     * @param ownerUserId ID of the User whose outgoing edges to find.
+     * @return Edges from the User to their friends.
+     */
+    List<DirectedUserToUserEdge> findByOwner(long ownerUserId);
+
+    /**
+     * Store the given edge, assigning it an ID if it has none.
+     *
+     * @param edge Edge to store.
+     */
+    void save(DirectedUserToUserEdge edge);
+
+    /**
+     * Delete the given edges.  The deletion may complete asynchronously.
+     *
+     * @param edges Edges to delete.
+     */
+    void delete(Collection<DirectedUserToUserEdge> edges);
+}
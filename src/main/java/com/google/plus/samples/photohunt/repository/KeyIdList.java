@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * View of a list of Keys as the list of their IDs.  The view reads the keys
+ * only when it is first read itself, so an asynchronous query behind it
+ * keeps running until the IDs are needed.
+ */
+class KeyIdList extends AbstractList<Long> {
+
+    private final List<? extends Key<?>> keys;
+
+    KeyIdList(List<? extends Key<?>> keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public Long get(int index) {
+        return keys.get(index).getId();
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+}
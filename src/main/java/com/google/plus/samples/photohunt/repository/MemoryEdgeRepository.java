@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
+
+/**
+ * EdgeRepository keeping edges in memory, indexed by owner.
+ */
+public class MemoryEdgeRepository implements EdgeRepository {
+
+    private final MemoryTable<DirectedUserToUserEdge> table =
+            new MemoryTable<DirectedUserToUserEdge>(DirectedUserToUserEdge.class, "ownerUserId");
+
+    @Override
+    public List<DirectedUserToUserEdge> findByOwner(long ownerUserId) {
+        return table.find("ownerUserId", ownerUserId);
+    }
+
+    @Override
+    public void save(DirectedUserToUserEdge edge) {
+        table.put(edge);
+    }
+
+    @Override
+    public void delete(Collection<DirectedUserToUserEdge> edges) {
+        for (DirectedUserToUserEdge edge : edges) {
+            table.delete(edge.getId());
+        }
+    }
+}
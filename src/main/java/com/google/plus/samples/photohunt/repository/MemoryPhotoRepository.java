@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Photo;
+
+/**
+ * PhotoRepository keeping Photos in memory, indexed by owner and Theme.
+ */
+public class MemoryPhotoRepository implements PhotoRepository {
+
+    private final MemoryTable<Photo> table =
+            new MemoryTable<Photo>(Photo.class, "ownerUserId", "themeId");
+
+    @Override
+    public Photo get(long id) {
+        return table.get(id);
+    }
+
+    @Override
+    public Map<Long, Photo> get(Collection<Long> ids) {
+        return table.get(ids);
+    }
+
+    @Override
+    public List<Photo> find(Collection<Long> ownerUserIds, Long themeId) {
+        List<Photo> photos;
+        if (ownerUserIds != null) {
+            photos = table.find("ownerUserId", ownerUserIds);
+        } else if (themeId != null) {
+            return table.find("themeId", themeId);
+        } else {
+            return table.getAll();
+        }
+        if (themeId == null) {
+            return photos;
+        }
+        // Owners have fewer Photos than Themes, so filter their Photos.
+        List<Photo> inTheme = new ArrayList<Photo>(photos.size());
+        for (Photo photo : photos) {
+            if (photo.getThemeId() == themeId) {
+                inTheme.add(photo);
+            }
+        }
+        return inTheme;
+    }
+
+    @Override
+    public List<Long> findIds(Collection<Long> ownerUserIds, Long themeId) {
+        List<Photo> photos = find(ownerUserIds, themeId);
+        List<Long> ids = new ArrayList<Long>(photos.size());
+        for (Photo photo : photos) {
+            ids.add(photo.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public List<Long> findIds(long ownerUserId, long afterId, int limit) {
+        return table.findIds("ownerUserId", ownerUserId, afterId, limit);
+    }
+
+    @Override
+    public Photo findFirstInTheme(long themeId) {
+        List<Photo> photos = table.find("themeId", themeId);
+        return photos.isEmpty() ? null : photos.get(0);
+    }
+
+    @Override
+    public void save(Photo photo) {
+        table.put(photo);
+    }
+
+    @Override
+    public void saveAll(Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            table.put(photo);
+        }
+    }
+
+    @Override
+    public void delete(Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            table.delete(photo.getId());
+        }
+    }
+}
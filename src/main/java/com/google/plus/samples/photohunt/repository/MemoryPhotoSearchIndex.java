@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.google.plus.samples.photohunt.model.Photo;
+
+/**
+ * PhotoSearchIndex keeping its postings in memory, in a sorted map from term
+ * to Photo IDs, so that a word of a query is looked up as a range of terms.
+ * <p/>
+ * Reads take no lock.  Writes are serialized so that the postings of a Photo
+ * change together.
+ */
+public class MemoryPhotoSearchIndex implements PhotoSearchIndex {
+
+    private final ConcurrentSkipListMap<String, Set<Long>> postings =
+            new ConcurrentSkipListMap<String, Set<Long>>();
+
+    /**
+     * Terms each Photo is indexed under, to find its postings on removal.
+     */
+    private final ConcurrentMap<Long, Set<String>> termsByPhoto =
+            new ConcurrentHashMap<Long, Set<String>>();
+
+    @Override
+    public synchronized void index(Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            unindex(photo.getId());
+            Set<String> terms = SearchTerms.of(photo);
+            for (String term : terms) {
+                Set<Long> photoIds = postings.get(term);
+                if (photoIds == null) {
+                    photoIds = new ConcurrentSkipListSet<Long>();
+                    postings.put(term, photoIds);
+                }
+                photoIds.add(photo.getId());
+            }
+            termsByPhoto.put(photo.getId(), terms);
+        }
+    }
+
+    @Override
+    public synchronized void remove(Collection<Long> photoIds) {
+        for (Long photoId : photoIds) {
+            unindex(photoId);
+        }
+    }
+
+    @Override
+    public SearchResult search(String query, int maxCandidates) {
+        Set<String> words = SearchTerms.of(query);
+        if (words.isEmpty()) {
+            return new SearchResult(Collections.<Long>emptyList(), false);
+        }
+        // Drive the search from the word matching the fewest postings, and
+        // check the other words against the candidates' own terms.
+        String driving = null;
+        int fewest = Integer.MAX_VALUE;
+        for (String word : words) {
+            int matching = 0;
+            for (Set<Long> photoIds : range(word).values()) {
+                matching += photoIds.size();
+            }
+            if (matching < fewest) {
+                driving = word;
+                fewest = matching;
+            }
+        }
+        List<String> others = new ArrayList<String>(words);
+        others.remove(driving);
+        Set<Long> candidates = new LinkedHashSet<Long>();
+        candidates:
+        for (Set<Long> photoIds : range(driving).values()) {
+            for (Long photoId : photoIds) {
+                if (candidates.size() == maxCandidates) {
+                    break candidates;
+                }
+                candidates.add(photoId);
+            }
+        }
+        List<Long> found = new ArrayList<Long>(candidates.size());
+        for (Long photoId : candidates) {
+            Set<String> terms = termsByPhoto.get(photoId);
+            if (terms != null && SearchTerms.matchAll(terms, others)) {
+                found.add(photoId);
+            }
+        }
+        return new SearchResult(found, fewest > maxCandidates);
+    }
+
+    /**
+     * @param word Word of a query.
+     * @return Postings of the terms starting with the word.
+     */
+    private NavigableMap<String, Set<Long>> range(String word) {
+        return postings.subMap(word, true, word + Character.MAX_VALUE, false);
+    }
+
+    private void unindex(long photoId) {
+        Set<String> terms = termsByPhoto.remove(photoId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Set<Long> photoIds = postings.get(term);
+            if (photoIds != null) {
+                photoIds.remove(photoId);
+                if (photoIds.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+
+/**
+ * Concurrent in-memory table of entities of one kind, with secondary indexes
+ * on some of their fields.  Entities are copied on the way in and out, the
+ * way a datastore round trip would, so that callers can't change stored rows
+ * by mutating what they were given; only the fields Objectify would persist
+ * are copied.  Rows are identified by the entity's long @Id field, which is
+ * assigned on the first put when it is 0.
+ * <p/>
+ * Reads take no lock.  Writes are serialized per table so that a row and its
+ * index entries change together; a read racing a write may briefly find a
+ * row through a stale index entry, so every indexed lookup checks the row's
+ * current value.  Rows whose indexed field is null are not indexed on it.
+ *
+ * @param <T> Entity class.
+ */
+class MemoryTable<T> {
+
+    private final Constructor<T> constructor;
+
+    private final Field idField;
+
+    /**
+     * Fields copied between stored rows and callers.
+     */
+    private final List<Field> fields = new ArrayList<Field>();
+
+    private final ConcurrentMap<Long, T> rows = new ConcurrentHashMap<Long, T>();
+
+    /**
+     * Per indexed field, the IDs of the rows having each value.
+     */
+    private final Map<Field, ConcurrentMap<Object, Set<Long>>> indexes =
+            new HashMap<Field, ConcurrentMap<Object, Set<Long>>>();
+
+    /**
+     * Next ID to assign.  Guarded by this.
+     */
+    private long nextId = 1;
+
+    /**
+     * @param type          Entity class.
+     * @param indexedFields Names of the fields to index.
+     */
+    MemoryTable(Class<T> type, String... indexedFields) {
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type + " has no no-arg constructor", e);
+        }
+        Field id = null;
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                        || field.isAnnotationPresent(Ignore.class)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+                if (field.isAnnotationPresent(Id.class)) {
+                    id = field;
+                }
+            }
+        }
+        if (id == null || id.getType() != long.class) {
+            throw new IllegalArgumentException(type + " has no long @Id field");
+        }
+        idField = id;
+        for (String name : indexedFields) {
+            indexes.put(getField(name), new ConcurrentHashMap<Object, Set<Long>>());
+        }
+    }
+
+    /**
+     * @param id ID of the row to get.
+     * @return Copy of the row, or null if there is none with the given ID.
+     */
+    T get(long id) {
+        T row = rows.get(id);
+        return row == null ? null : copy(row);
+    }
+
+    /**
+     * @param ids IDs of the rows to get.
+     * @return Copies of the rows that exist, keyed by ID in the order of ids.
+     */
+    Map<Long, T> get(Collection<Long> ids) {
+        Map<Long, T> found = new LinkedHashMap<Long, T>(ids.size());
+        for (Long id : ids) {
+            T row = rows.get(id);
+            if (row != null) {
+                found.put(id, copy(row));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return Copies of all rows, in ID order.
+     */
+    List<T> getAll() {
+        List<Long> ids = new ArrayList<Long>(rows.keySet());
+        Collections.sort(ids);
+        List<T> copies = new ArrayList<T>(ids.size());
+        for (Long id : ids) {
+            T row = rows.get(id);
+            if (row != null) {
+                copies.add(copy(row));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * @param field Name of an indexed field.
+     * @param value Value to look up.
+     * @return Copies of the rows whose field has the given value, in ID order.
+     */
+    List<T> find(String field, Object value) {
+        return find(field, Collections.singleton(value));
+    }
+
+    /**
+     * @param field  Name of an indexed field.
+     * @param values Values to look up.
+     * @return Copies of the rows whose field has any of the given values, in
+     * ID order.
+     */
+    List<T> find(String field, Collection<?> values) {
+        Field indexed = getField(field);
+        ConcurrentMap<Object, Set<Long>> index = indexes.get(indexed);
+        if (index == null) {
+            throw new IllegalArgumentException(field + " is not indexed");
+        }
+        List<Long> ids = new ArrayList<Long>();
+        for (Object value : values) {
+            Set<Long> matching = value == null ? null : index.get(value);
+            if (matching != null) {
+                ids.addAll(matching);
+            }
+        }
+        Collections.sort(ids);
+        List<T> found = new ArrayList<T>(ids.size());
+        for (Long id : ids) {
+            T row = rows.get(id);
+            if (row != null && values.contains(read(indexed, row))) {
+                found.add(copy(row));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param field   Name of an indexed field.
+     * @param value   Value to look up.
+     * @param afterId Only IDs greater than this one are returned.
+     * @param limit   Most IDs to return.
+     * @return IDs of the rows whose field has the given value, in ID order.
+     */
+    List<Long> findIds(String field, Object value, long afterId, int limit) {
+        Field indexed = getField(field);
+        ConcurrentMap<Object, Set<Long>> index = indexes.get(indexed);
+        if (index == null) {
+            throw new IllegalArgumentException(field + " is not indexed");
+        }
+        Set<Long> matching = index.get(value);
+        if (matching == null) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<Long>();
+        for (Long id : matching) {
+            if (id > afterId) {
+                ids.add(id);
+            }
+        }
+        Collections.sort(ids);
+        List<Long> found = new ArrayList<Long>(Math.min(ids.size(), limit));
+        for (Long id : ids) {
+            if (found.size() == limit) {
+                break;
+            }
+            T row = rows.get(id);
+            if (row != null && value.equals(read(indexed, row))) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Store a copy of the given entity, assigning it an ID if it has none.
+     *
+     * @param entity Entity to store.
+     */
+    synchronized void put(T entity) {
+        long id = (Long) read(idField, entity);
+        if (id == 0) {
+            id = nextId++;
+            write(idField, entity, id);
+        } else if (id >= nextId) {
+            // Keep assigned IDs clear of the ones given.
+            nextId = id + 1;
+        }
+        T stored = copy(entity);
+        T previous = rows.put(id, stored);
+        for (Map.Entry<Field, ConcurrentMap<Object, Set<Long>>> index : indexes.entrySet()) {
+            if (previous != null) {
+                unindex(index.getValue(), read(index.getKey(), previous), id);
+            }
+            Object value = read(index.getKey(), stored);
+            if (value == null) {
+                continue;
+            }
+            Set<Long> ids = index.getValue().get(value);
+            if (ids == null) {
+                ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+                index.getValue().put(value, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    /**
+     * @param id ID of the row to delete.
+     */
+    synchronized void delete(long id) {
+        T previous = rows.remove(id);
+        if (previous == null) {
+            return;
+        }
+        for (Map.Entry<Field, ConcurrentMap<Object, Set<Long>>> index : indexes.entrySet()) {
+            unindex(index.getValue(), read(index.getKey(), previous), id);
+        }
+    }
+
+    /**
+     * @param entity Entity whose ID to get.
+     * @return ID of the given entity.
+     */
+    long getId(T entity) {
+        return (Long) read(idField, entity);
+    }
+
+    private void unindex(ConcurrentMap<Object, Set<Long>> index, Object value, long id) {
+        if (value == null) {
+            return;
+        }
+        Set<Long> ids = index.get(value);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+
+    private T copy(T entity) {
+        try {
+            T copy = constructor.newInstance();
+            for (Field field : fields) {
+                field.set(copy, field.get(entity));
+            }
+            return copy;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Field getField(String name) {
+        for (Field field : fields) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("No persisted field " + name);
+    }
+
+    private static Object read(Field field, Object entity) {
+        try {
+            return field.get(entity);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(Field field, Object entity, Object value) {
+        try {
+            field.set(entity, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
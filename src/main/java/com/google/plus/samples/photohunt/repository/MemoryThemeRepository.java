@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.Theme;
+
+/**
+ * ThemeRepository keeping Themes in memory.  There is one Theme a day, so
+ * queries scan them all.
+ */
+public class MemoryThemeRepository implements ThemeRepository {
+
+    private final MemoryTable<Theme> table = new MemoryTable<Theme>(Theme.class);
+
+    @Override
+    public Theme get(long id) {
+        return table.get(id);
+    }
+
+    @Override
+    public List<Theme> findAll() {
+        List<Theme> themes = table.getAll();
+        Collections.sort(themes, new Comparator<Theme>() {
+            @Override
+            public int compare(Theme a, Theme b) {
+                return b.getCreated().compareTo(a.getCreated());
+            }
+        });
+        return themes;
+    }
+
+    @Override
+    public Theme findLatestStartingBetween(Date from, Date to) {
+        Theme latest = null;
+        for (Theme theme : table.getAll()) {
+            Date start = theme.getStart();
+            if (start.after(from) && start.before(to)
+                    && (latest == null || start.after(latest.getStart()))) {
+                latest = theme;
+            }
+        }
+        return latest;
+    }
+
+    @Override
+    public void save(Theme theme) {
+        table.put(theme);
+    }
+}
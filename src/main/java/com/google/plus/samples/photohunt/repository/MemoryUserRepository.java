@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.plus.samples.photohunt.model.User;
+
+/**
+ * UserRepository keeping Users in memory, indexed by Google user ID.
+ */
+public class MemoryUserRepository implements UserRepository {
+
+    private final MemoryTable<User> table = new MemoryTable<User>(User.class, "googleUserId");
+
+    @Override
+    public User get(long id) {
+        return table.get(id);
+    }
+
+    @Override
+    public Map<Long, User> get(Collection<Long> ids) {
+        return table.get(ids);
+    }
+
+    @Override
+    public User findByGoogleUserId(String googleUserId) {
+        List<User> users = table.find("googleUserId", googleUserId);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    public void save(User user) {
+        table.put(user);
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        for (User user : users) {
+            table.put(user);
+        }
+    }
+
+    @Override
+    public boolean updateAccessToken(long id, String oldToken, String accessToken,
+                                     long expiresAt, long expiresIn) {
+        // Writes to the table hold its lock, so none comes in between.
+        synchronized (table) {
+            User user = table.get(id);
+            if (user == null || !Objects.equals(user.getGoogleAccessToken(), oldToken)) {
+                return false;
+            }
+            user.setGoogleAccessToken(accessToken);
+            user.setGoogleExpiresAt(expiresAt);
+            user.setGoogleExpiresIn(expiresIn);
+            table.put(user);
+            return true;
+        }
+    }
+
+    @Override
+    public void delete(User user) {
+        table.delete(user.getId());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Vote;
+
+/**
+ * VoteRepository keeping Votes in memory, indexed by owner and Photo.
+ */
+public class MemoryVoteRepository implements VoteRepository {
+
+    private final MemoryTable<Vote> table =
+            new MemoryTable<Vote>(Vote.class, "ownerUserId", "photoId");
+
+    @Override
+    public Map<Long, Vote> get(Collection<Long> ids) {
+        return table.get(ids);
+    }
+
+    @Override
+    public List<Vote> findByOwner(long ownerUserId) {
+        return table.find("ownerUserId", ownerUserId);
+    }
+
+    @Override
+    public List<Vote> findByOwners(Collection<Long> ownerUserIds) {
+        return table.find("ownerUserId", ownerUserIds);
+    }
+
+    @Override
+    public List<Vote> findByPhoto(long photoId) {
+        return table.find("photoId", photoId);
+    }
+
+    @Override
+    public List<Long> findIdsByPhoto(long photoId) {
+        List<Vote> votes = table.find("photoId", photoId);
+        List<Long> ids = new ArrayList<Long>(votes.size());
+        for (Vote vote : votes) {
+            ids.add(vote.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public Vote findByOwnerAndPhoto(long ownerUserId, long photoId) {
+        for (Vote vote : table.find("ownerUserId", ownerUserId)) {
+            if (vote.getPhotoId() == photoId) {
+                return vote;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void save(Vote vote) {
+        table.put(vote);
+    }
+
+    @Override
+    public void saveAll(Collection<Vote> votes) {
+        for (Vote vote : votes) {
+            table.put(vote);
+        }
+    }
+
+    @Override
+    public void delete(Collection<Vote> votes) {
+        for (Vote vote : votes) {
+            table.delete(vote.getId());
+        }
+    }
+}
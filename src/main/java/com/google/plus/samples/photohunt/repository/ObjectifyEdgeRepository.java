@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.DirectedUserToUserEdge;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * EdgeRepository backed by the datastore through Objectify.
+ */
+public class ObjectifyEdgeRepository implements EdgeRepository {
+
+    @Override
+    public List<DirectedUserToUserEdge> findByOwner(long ownerUserId) {
+        return ofy().load().type(DirectedUserToUserEdge.class)
+                .filter("ownerUserId", ownerUserId).list();
+    }
+
+    @Override
+    public void save(DirectedUserToUserEdge edge) {
+        ofy().save().entity(edge).now();
+    }
+
+    @Override
+    public void delete(Collection<DirectedUserToUserEdge> edges) {
+        ofy().delete().entities(edges);
+    }
+}
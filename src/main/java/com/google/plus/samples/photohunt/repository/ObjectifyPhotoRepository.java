@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Photo;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * PhotoRepository backed by the datastore through Objectify.
+ */
+public class ObjectifyPhotoRepository implements PhotoRepository {
+
+    @Override
+    public Photo get(long id) {
+        return ofy().load().type(Photo.class).id(id).now();
+    }
+
+    @Override
+    public Map<Long, Photo> get(Collection<Long> ids) {
+        return ofy().load().type(Photo.class).ids(ids);
+    }
+
+    @Override
+    public List<Photo> find(Collection<Long> ownerUserIds, Long themeId) {
+        if (ownerUserIds != null && ownerUserIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return query(ownerUserIds, themeId).list();
+    }
+
+    @Override
+    public List<Long> findIds(Collection<Long> ownerUserIds, Long themeId) {
+        if (ownerUserIds != null && ownerUserIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new KeyIdList(query(ownerUserIds, themeId).keys().list());
+    }
+
+    @Override
+    public List<Long> findIds(long ownerUserId, long afterId, int limit) {
+        // Equality on one property with a key range is served by the
+        // built-in indexes.
+        Query<Photo> q = ofy().load().type(Photo.class).filter("ownerUserId", ownerUserId);
+        if (afterId > 0) {
+            // There is no key with ID 0.
+            q = q.filterKey(">", Key.create(Photo.class, afterId));
+        }
+        return new KeyIdList(q.limit(limit).keys().list());
+    }
+
+    @Override
+    public Photo findFirstInTheme(long themeId) {
+        return ofy().load().type(Photo.class).filter("themeId", themeId).first().now();
+    }
+
+    @Override
+    public void save(Photo photo) {
+        ofy().save().entity(photo).now();
+    }
+
+    @Override
+    public void saveAll(Collection<Photo> photos) {
+        ofy().save().entities(photos).now();
+    }
+
+    @Override
+    public void delete(Collection<Photo> photos) {
+        ofy().delete().entities(photos);
+    }
+
+    private static Query<Photo> query(Collection<Long> ownerUserIds, Long themeId) {
+        Query<Photo> q = ofy().load().type(Photo.class);
+        if (ownerUserIds != null) {
+            q = ownerUserIds.size() == 1
+                    ? q.filter("ownerUserId", ownerUserIds.iterator().next())
+                    : q.filter("ownerUserId in", ownerUserIds);
+        }
+        if (themeId != null) {
+            q = q.filter("themeId", themeId);
+        }
+        return q;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.plus.samples.photohunt.model.Photo;
+import com.google.plus.samples.photohunt.model.SearchPosting;
+import com.googlecode.objectify.Key;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * PhotoSearchIndex backed by the datastore through Objectify.  Each term of
+ * a Photo is a SearchPosting.  A word of a query is looked up with a
+ * keys-only range query over the terms starting with it, so searching never
+ * loads an entity.  The word with the fewest postings yields the candidates;
+ * a word with more postings than may be considered is checked against the
+ * candidates' own postings instead, so common words only truncate a result
+ * when every word of the query is common.
+ */
+public class ObjectifyPhotoSearchIndex implements PhotoSearchIndex {
+
+    /**
+     * Sorts after any character of a term, closing the range of a prefix.
+     */
+    private static final String PREFIX_END = "\ufffd";
+
+    /**
+     * Build the postings of the given Photos without looking up what they
+     * are indexed under, for Photos that have never been indexed.  Storing
+     * them is left to the caller, so they can be put along with the Photos.
+     *
+     * @param photos New Photos to index.
+     * @return Postings of the Photos' terms.
+     */
+    public static List<SearchPosting> postings(Collection<Photo> photos) {
+        List<SearchPosting> postings = new ArrayList<SearchPosting>();
+        for (Photo photo : photos) {
+            for (String term : SearchTerms.of(photo)) {
+                postings.add(new SearchPosting(term, photo.getId()));
+            }
+        }
+        return postings;
+    }
+
+    @Override
+    public void index(Collection<Photo> photos) {
+        // Start finding the current postings of all the Photos at once.
+        List<List<Key<SearchPosting>>> stored = new ArrayList<List<Key<SearchPosting>>>();
+        for (Photo photo : photos) {
+            stored.add(findKeys(photo.getId()));
+        }
+        List<SearchPosting> postings = postings(photos);
+        Set<Key<SearchPosting>> current = new HashSet<Key<SearchPosting>>();
+        for (SearchPosting posting : postings) {
+            current.add(SearchPosting.key(posting.getTerm(), posting.getPhotoId()));
+        }
+        List<Key<SearchPosting>> obsolete = new ArrayList<Key<SearchPosting>>();
+        for (List<Key<SearchPosting>> keys : stored) {
+            for (Key<SearchPosting> key : keys) {
+                if (!current.contains(key)) {
+                    obsolete.add(key);
+                }
+            }
+        }
+        ofy().save().entities(postings);
+        ofy().delete().keys(obsolete);
+    }
+
+    @Override
+    public void remove(Collection<Long> photoIds) {
+        List<List<Key<SearchPosting>>> stored = new ArrayList<List<Key<SearchPosting>>>();
+        for (Long photoId : photoIds) {
+            stored.add(findKeys(photoId));
+        }
+        List<Key<SearchPosting>> keys = new ArrayList<Key<SearchPosting>>();
+        for (List<Key<SearchPosting>> photoKeys : stored) {
+            keys.addAll(photoKeys);
+        }
+        ofy().delete().keys(keys);
+    }
+
+    @Override
+    public SearchResult search(String query, int maxCandidates) {
+        Set<String> words = SearchTerms.of(query);
+        if (words.isEmpty()) {
+            return new SearchResult(Collections.<Long>emptyList(), false);
+        }
+        // Start the range queries of all the words at once.  Each asks for
+        // one posting more than it may use, to tell whether it found them all.
+        Map<String, List<Key<SearchPosting>>> matches =
+                new LinkedHashMap<String, List<Key<SearchPosting>>>();
+        for (String word : words) {
+            matches.put(word, ofy().load().type(SearchPosting.class)
+                    .filter("term >=", word)
+                    .filter("term <", word + PREFIX_END)
+                    .limit(maxCandidates + 1)
+                    .keys().list());
+        }
+
+        // Drive the search from the most selective word.
+        String driving = null;
+        for (Map.Entry<String, List<Key<SearchPosting>>> match : matches.entrySet()) {
+            if (driving == null || match.getValue().size() < matches.get(driving).size()) {
+                driving = match.getKey();
+            }
+        }
+        boolean truncated = matches.get(driving).size() > maxCandidates;
+        Set<Long> candidates = new LinkedHashSet<Long>();
+        for (Key<SearchPosting> key : matches.get(driving)) {
+            if (candidates.size() == maxCandidates) {
+                break;
+            }
+            candidates.add(SearchPosting.getPhotoId(key));
+        }
+
+        // Words with every posting found are checked against those; the
+        // others against the candidates' own postings.
+        List<String> unchecked = new ArrayList<String>();
+        for (Map.Entry<String, List<Key<SearchPosting>>> match : matches.entrySet()) {
+            if (match.getKey().equals(driving)) {
+                continue;
+            }
+            if (match.getValue().size() > maxCandidates) {
+                unchecked.add(match.getKey());
+                continue;
+            }
+            Set<Long> photoIds = new HashSet<Long>();
+            for (Key<SearchPosting> key : match.getValue()) {
+                photoIds.add(SearchPosting.getPhotoId(key));
+            }
+            candidates.retainAll(photoIds);
+        }
+        if (unchecked.isEmpty() || candidates.isEmpty()) {
+            return new SearchResult(new ArrayList<Long>(candidates), truncated);
+        }
+        Map<Long, List<Key<SearchPosting>>> postings =
+                new LinkedHashMap<Long, List<Key<SearchPosting>>>();
+        for (Long photoId : candidates) {
+            postings.put(photoId, findKeys(photoId));
+        }
+        List<Long> found = new ArrayList<Long>(candidates.size());
+        for (Map.Entry<Long, List<Key<SearchPosting>>> photo : postings.entrySet()) {
+            List<String> terms = new ArrayList<String>(photo.getValue().size());
+            for (Key<SearchPosting> key : photo.getValue()) {
+                terms.add(SearchPosting.getTerm(key));
+            }
+            if (SearchTerms.matchAll(terms, unchecked)) {
+                found.add(photo.getKey());
+            }
+        }
+        return new SearchResult(found, truncated);
+    }
+
+    private static List<Key<SearchPosting>> findKeys(long photoId) {
+        return ofy().load().type(SearchPosting.class).filter("photoId", photoId).keys().list();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.Theme;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * ThemeRepository backed by the datastore through Objectify.
+ */
+public class ObjectifyThemeRepository implements ThemeRepository {
+
+    @Override
+    public Theme get(long id) {
+        return ofy().load().type(Theme.class).id(id).now();
+    }
+
+    @Override
+    public List<Theme> findAll() {
+        return ofy().load().type(Theme.class).order("-created").list();
+    }
+
+    @Override
+    public Theme findLatestStartingBetween(Date from, Date to) {
+        return ofy().load().type(Theme.class)
+                .filter("start >", from)
+                .filter("start <", to)
+                .order("-start").first().now();
+    }
+
+    @Override
+    public void save(Theme theme) {
+        ofy().save().entity(theme).now();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.plus.samples.photohunt.model.User;
+import com.googlecode.objectify.Work;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * UserRepository backed by the datastore through Objectify.
+ */
+public class ObjectifyUserRepository implements UserRepository {
+
+    @Override
+    public User get(long id) {
+        return ofy().load().type(User.class).id(id).now();
+    }
+
+    @Override
+    public Map<Long, User> get(Collection<Long> ids) {
+        return ofy().load().type(User.class).ids(ids);
+    }
+
+    @Override
+    public User findByGoogleUserId(String googleUserId) {
+        return ofy().load().type(User.class)
+                .filter("googleUserId", googleUserId).first().now();
+    }
+
+    @Override
+    public void save(User user) {
+        ofy().save().entity(user).now();
+    }
+
+    @Override
+    public void saveAll(Collection<User> users) {
+        ofy().save().entities(users).now();
+    }
+
+    @Override
+    public boolean updateAccessToken(final long id, final String oldToken,
+                                     final String accessToken, final long expiresAt,
+                                     final long expiresIn) {
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                User user = ofy().load().type(User.class).id(id).now();
+                if (user == null || !Objects.equals(user.getGoogleAccessToken(), oldToken)) {
+                    return false;
+                }
+                user.setGoogleAccessToken(accessToken);
+                user.setGoogleExpiresAt(expiresAt);
+                user.setGoogleExpiresIn(expiresIn);
+                ofy().save().entity(user).now();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void delete(User user) {
+        ofy().delete().entity(user);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Vote;
+
+import static com.google.plus.samples.photohunt.model.OfyService.ofy;
+
+/**
+ * VoteRepository backed by the datastore through Objectify.
+ */
+public class ObjectifyVoteRepository implements VoteRepository {
+
+    @Override
+    public Map<Long, Vote> get(Collection<Long> ids) {
+        return ofy().load().type(Vote.class).ids(ids);
+    }
+
+    @Override
+    public List<Vote> findByOwner(long ownerUserId) {
+        return ofy().load().type(Vote.class).filter("ownerUserId", ownerUserId).list();
+    }
+
+    @Override
+    public List<Vote> findByOwners(Collection<Long> ownerUserIds) {
+        if (ownerUserIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ofy().load().type(Vote.class).filter("ownerUserId in", ownerUserIds).list();
+    }
+
+    @Override
+    public List<Vote> findByPhoto(long photoId) {
+        return ofy().load().type(Vote.class).filter("photoId", photoId).list();
+    }
+
+    @Override
+    public List<Long> findIdsByPhoto(long photoId) {
+        return new KeyIdList(ofy().load().type(Vote.class)
+                .filter("photoId", photoId).keys().list());
+    }
+
+    @Override
+    public Vote findByOwnerAndPhoto(long ownerUserId, long photoId) {
+        return ofy().load().type(Vote.class)
+                .filter("ownerUserId", ownerUserId)
+                .filter("photoId", photoId).first().now();
+    }
+
+    @Override
+    public void save(Vote vote) {
+        ofy().save().entity(vote).now();
+    }
+
+    @Override
+    public void saveAll(Collection<Vote> votes) {
+        ofy().save().entities(votes).now();
+    }
+
+    @Override
+    public void delete(Collection<Vote> votes) {
+        ofy().delete().entities(votes);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Photo;
+
+/**
+ * Stores Photos.  Lists returned by queries may be fetched lazily, until
+ * they are first read, so that callers can start several queries at once.
+ *
+ * @see RepositoryFactory
+ */
+public interface PhotoRepository {
+
+    /**
+     * @param id ID of the Photo to get.
+     * @return The Photo, or null if it doesn't exist.
+     */
+    Photo get(long id);
+
+    /**
+     * @param ids IDs of the Photos to get.
+     * @return The Photos that exist, keyed by ID.
+     */
+    Map<Long, Photo> get(Collection<Long> ids);
+
+    /**
+     * @param ownerUserIds IDs of the Users whose Photos to find, or null for
+     *                     Photos of any User.
+     * @param themeId      ID of the Theme whose Photos to find, or null for
+     *                     Photos of any Theme.
+     * @return Photos matching both conditions, in ID order.
+     */
+    List<Photo> find(Collection<Long> ownerUserIds, Long themeId);
+
+    /**
+     * @param ownerUserIds IDs of the Users whose Photos to find, or null for
+     *                     Photos of any User.
+     * @param themeId      ID of the Theme whose Photos to find, or null for
+     *                     Photos of any Theme.
+     * @return IDs of the Photos matching both conditions, in ID order.
+     */
+    List<Long> findIds(Collection<Long> ownerUserIds, Long themeId);
+
+    /**
+     * @param ownerUserId ID of the User whose Photos to find.
+     * @param afterId     Only Photos with a greater ID are returned, so that
+     *                    the last ID of a page starts the next one.
+     * @param limit       Most IDs to return.
+     * @return IDs of the User's Photos after afterId, in ID order.
+     */
+    List<Long> findIds(long ownerUserId, long afterId, int limit);
+
+    /**
+     * @param themeId ID of a Theme.
+     * @return The Photo of the Theme with the lowest ID, or null if the Theme
+     * has none.
+     */
+    Photo findFirstInTheme(long themeId);
+
+    /**
+     * Store the given Photo, assigning it an ID if it has none.
+     *
+     * @param photo Photo to store.
+     */
+    void save(Photo photo);
+
+    /**
+     * Store the given Photos with one batched put.  They must have IDs.
+     *
+     * @param photos Photos to store.
+     */
+    void saveAll(Collection<Photo> photos);
+
+    /**
+     * Delete the given Photos.  The deletion may complete asynchronously.
+     *
+     * @param photos Photos to delete.
+     */
+    void delete(Collection<Photo> photos);
+}
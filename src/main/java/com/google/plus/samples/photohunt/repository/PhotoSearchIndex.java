@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+
+import com.google.plus.samples.photohunt.model.Photo;
+
+/**
+ * Inverted index of Photos by the words of their owner's display name and
+ * their Theme's display name.  A query matches the Photos having, for each of
+ * its words, a word starting with it, so "ali sun" finds Alice's Photos of
+ * the Sunset hunt.  Matching and case folding follow SearchTerms.
+ *
+ * @see RepositoryFactory
+ */
+public interface PhotoSearchIndex {
+
+    /**
+     * Index the given Photos under their current display names, replacing
+     * what they were indexed under before.
+     *
+     * @param photos Stored Photos to index.
+     */
+    void index(Collection<Photo> photos);
+
+    /**
+     * Remove the given Photos from the index.
+     *
+     * @param photoIds IDs of the Photos to remove.
+     */
+    void remove(Collection<Long> photoIds);
+
+    /**
+     * Find the Photos matching every word of a query.  Postings are not kept
+     * in any order, so when the query's most selective word matches more
+     * than maxCandidates Photos, an arbitrary maxCandidates of them are
+     * considered and the result is marked truncated.
+     *
+     * @param query         Words to search for, as typed by a user.
+     * @param maxCandidates Most Photos matching the query's most selective
+     *                      word to consider.
+     * @return Photos matching every word of the query, with none if the query
+     * has no words.
+     */
+    SearchResult search(String query, int maxCandidates);
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+/**
+ * Provides the repositories configured for this process.  The datastore is
+ * used through Objectify unless the system property photohunt.repository is
+ * set to "memory", in which case all entities are kept in memory for the
+ * life of the process.
+ */
+public class RepositoryFactory {
+
+    private static final String MEMORY = "memory";
+
+    private static PhotoRepository photos;
+
+    private static VoteRepository votes;
+
+    private static UserRepository users;
+
+    private static ThemeRepository themes;
+
+    private static EdgeRepository edges;
+
+    private static PhotoSearchIndex photoSearch;
+
+    /**
+     * @return The PhotoRepository configured for this process.
+     */
+    public static synchronized PhotoRepository getPhotoRepository() {
+        if (photos == null) {
+            photos = inMemory() ? new MemoryPhotoRepository() : new ObjectifyPhotoRepository();
+        }
+        return photos;
+    }
+
+    /**
+     * @return The VoteRepository configured for this process.
+     */
+    public static synchronized VoteRepository getVoteRepository() {
+        if (votes == null) {
+            votes = inMemory() ? new MemoryVoteRepository() : new ObjectifyVoteRepository();
+        }
+        return votes;
+    }
+
+    /**
+     * @return The UserRepository configured for this process.
+     */
+    public static synchronized UserRepository getUserRepository() {
+        if (users == null) {
+            users = inMemory() ? new MemoryUserRepository() : new ObjectifyUserRepository();
+        }
+        return users;
+    }
+
+    /**
+     * @return The ThemeRepository configured for this process.
+     */
+    public static synchronized ThemeRepository getThemeRepository() {
+        if (themes == null) {
+            themes = inMemory() ? new MemoryThemeRepository() : new ObjectifyThemeRepository();
+        }
+        return themes;
+    }
+
+    /**
+     * @return The EdgeRepository configured for this process.
+     */
+    public static synchronized EdgeRepository getEdgeRepository() {
+        if (edges == null) {
+            edges = inMemory() ? new MemoryEdgeRepository() : new ObjectifyEdgeRepository();
+        }
+        return edges;
+    }
+
+    /**
+     * @return The PhotoSearchIndex configured for this process.
+     */
+    public static synchronized PhotoSearchIndex getPhotoSearchIndex() {
+        if (photoSearch == null) {
+            photoSearch = inMemory()
+                    ? new MemoryPhotoSearchIndex() : new ObjectifyPhotoSearchIndex();
+        }
+        return photoSearch;
+    }
+
+    private static boolean inMemory() {
+        return MEMORY.equals(System.getProperty("photohunt.repository"));
+    }
+}
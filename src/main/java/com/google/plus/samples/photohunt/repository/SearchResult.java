@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.List;
+
+/**
+ * Photos found by a PhotoSearchIndex.
+ */
+public class SearchResult {
+
+    private final List<Long> photoIds;
+
+    private final boolean truncated;
+
+    /**
+     * @param photoIds  IDs of the Photos found.
+     * @param truncated True if only some of the Photos matching the query
+     *                  were considered.
+     */
+    SearchResult(List<Long> photoIds, boolean truncated) {
+        this.photoIds = photoIds;
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return IDs of the Photos found, with no duplicates.
+     */
+    public List<Long> getPhotoIds() {
+        return photoIds;
+    }
+
+    /**
+     * @return True if the query's most selective word matched more Photos
+     * than could be considered, so that more Photos may match than were
+     * found.  Which Photos were considered is arbitrary.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.google.plus.samples.photohunt.model.Photo;
+
+/**
+ * Splits text into the terms of the PhotoSearchIndex: runs of letters and
+ * digits, in lower case.
+ */
+class SearchTerms {
+
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Longest term indexed; longer words are indexed by their start.
+     */
+    private static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * @param text Text to split, or null.
+     * @return Distinct terms of the text, in order of appearance.
+     */
+    static Set<String> of(String text) {
+        Set<String> terms = new LinkedHashSet<String>();
+        if (text == null) {
+            return terms;
+        }
+        for (String word : SEPARATOR.split(text.toLowerCase(Locale.ENGLISH))) {
+            if (!word.isEmpty()) {
+                terms.add(word.length() > MAX_TERM_LENGTH
+                        ? word.substring(0, MAX_TERM_LENGTH) : word);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @param photo Photo to index.
+     * @return Distinct terms of the Photo's owner and Theme display names.
+     */
+    static Set<String> of(Photo photo) {
+        Set<String> terms = of(photo.getOwnerDisplayName());
+        terms.addAll(of(photo.getThemeDisplayName()));
+        return terms;
+    }
+
+    /**
+     * @param terms Terms of a Photo.
+     * @param words Words of a query.
+     * @return True if, for every word, one of the terms starts with it.
+     */
+    static boolean matchAll(Collection<String> terms, Collection<String> words) {
+        for (String word : words) {
+            boolean matched = false;
+            for (String term : terms) {
+                if (term.startsWith(word)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
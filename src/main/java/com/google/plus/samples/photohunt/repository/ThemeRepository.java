@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.plus.samples.photohunt.model.Theme;
+
+/**
+ * Stores Themes.
+ *
+ * @see RepositoryFactory
+ */
+public interface ThemeRepository {
+
+    /**
+     * @param id ID of the Theme to get.
+     * @return The Theme, or null if it doesn't exist.
+     */
+    Theme get(long id);
+
+    /**
+     * @return All Themes, most recently created first.
+     */
+    List<Theme> findAll();
+
+    /**
+     * @param from Start of the period, exclusive.
+     * @param to   End of the period, exclusive.
+     * @return The Theme starting last within the given period, or null if
+     * none starts within it.
+     */
+    Theme findLatestStartingBetween(Date from, Date to);
+
+    /**
+     * Store the given Theme, assigning it an ID if it has none.
+     *
+     * @param theme Theme to store.
+     */
+    void save(Theme theme);
+}
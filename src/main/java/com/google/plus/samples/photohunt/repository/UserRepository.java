@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.User;
+
+/**
+ * Stores Users.
+ *
+ * @see RepositoryFactory
+ */
+public interface UserRepository {
+
+    /**
+     * @param id ID of the User to get.
+     * @return The User, or null if it doesn't exist.
+     */
+    User get(long id);
+
+    /**
+     * @param ids IDs of the Users to get.
+     * @return The Users that exist, keyed by ID.
+     */
+    Map<Long, User> get(Collection<Long> ids);
+
+    /**
+     * @param googleUserId Google user ID of a User.
+     * @return The User, or null if none has the given Google user ID.
+     */
+    User findByGoogleUserId(String googleUserId);
+
+    /**
+     * Store the given User, assigning it an ID if it has none.
+     *
+     * @param user User to store.
+     */
+    void save(User user);
+
+    /**
+     * Store the given Users in one batch, assigning IDs to those that have
+     * none.
+     *
+     * @param users Users to store.
+     */
+    void saveAll(Collection<User> users);
+
+    /**
+     * Replace the given User's access token with a refreshed one, leaving
+     * the rest of the stored User as it is.  The stored User is read and
+     * written atomically, and left alone if its access token is no longer the
+     * one that was refreshed, as when the User connected again meanwhile.
+     *
+     * @param id          ID of the User.
+     * @param oldToken    Access token that was refreshed.
+     * @param accessToken Refreshed access token.
+     * @param expiresAt   Time the refreshed token expires, in milliseconds.
+     * @param expiresIn   Lifetime of the refreshed token, in seconds.
+     * @return True if the token was replaced.
+     */
+    boolean updateAccessToken(long id, String oldToken, String accessToken, long expiresAt,
+                              long expiresIn);
+
+    /**
+     * Delete the given User.  The deletion may complete asynchronously.
+     *
+     * @param user User to delete.
+     */
+    void delete(User user);
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.plus.samples.photohunt.model.Vote;
+
+/**
+ * Stores Votes.  Lists returned by queries may be fetched lazily, until they
+ * are first read, so that callers can start several queries at once.
+ *
+ * @see RepositoryFactory
+ */
+public interface VoteRepository {
+
+    /**
+     * @param ids IDs of the Votes to get.
+     * @return The Votes that exist, keyed by ID.
+     */
+    Map<Long, Vote> get(Collection<Long> ids);
+
+    /**
+     * @param ownerUserId ID of the User whose Votes to find.
+     * @return Votes cast by the User.
+     */
+    List<Vote> findByOwner(long ownerUserId);
+
+    /**
+     * @param ownerUserIds IDs of the Users whose Votes to find.
+     * @return Votes cast by any of the Users.
+     */
+    List<Vote> findByOwners(Collection<Long> ownerUserIds);
+
+    /**
+     * @param photoId ID of the Photo whose Votes to find.
+     * @return Votes for the Photo.
+     */
+    List<Vote> findByPhoto(long photoId);
+
+    /**
+     * @param photoId ID of the Photo whose Votes to find.
+     * @return IDs of the Votes for the Photo.
+     */
+    List<Long> findIdsByPhoto(long photoId);
+
+    /**
+     * @param ownerUserId ID of a User.
+     * @param photoId     ID of a Photo.
+     * @return Vote of the User for the Photo, or null if the User hasn't voted
+     * for it.
+     */
+    Vote findByOwnerAndPhoto(long ownerUserId, long photoId);
+
+    /**
+     * Store the given Vote, assigning it an ID if it has none.
+     *
+     * @param vote Vote to store.
+     */
+    void save(Vote vote);
+
+    /**
+     * Store the given Votes in one batch, assigning IDs to those that have
+     * none.
+     *
+     * @param votes Votes to store.
+     */
+    void saveAll(Collection<Vote> votes);
+
+    /**
+     * Delete the given Votes.  The deletion may complete asynchronously.
+     *
+     * @param votes Votes to delete.
+     */
+    void delete(Collection<Vote> votes);
+}
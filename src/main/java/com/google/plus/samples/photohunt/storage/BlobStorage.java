@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stores uploaded image bytes and serves them back.  Blobs are identified by
+ * an opaque key string chosen by the storage.
+ *
+ * @see BlobStorageFactory
+ */
+public interface BlobStorage {
+
+    /**
+     * @param successPath Path to which the upload is delivered once stored.
+     * @return URL to which clients post multipart image uploads.
+     */
+    String createUploadUrl(String successPath);
+
+    /**
+     * @param req   Request delivering an upload, as posted to an upload URL.
+     * @param field Name of the form field holding the file.
+     * @return The stored file, or null if the request has none in the field.
+     * @throws IOException Failed to read or store the upload.
+     */
+    StoredBlob getUpload(HttpServletRequest req, String field) throws IOException;
+
+    /**
+     * @param key Key of a stored blob.
+     * @return The stored blob, or null if there is none with the given key.
+     */
+    StoredBlob getBlob(String key);
+
+    /**
+     * @param key Key of a stored blob.
+     * @return URL serving the blob as an image.  Appending "=s" followed by a
+     * size requests a rendition of at most that many pixels on its longest
+     * side, where the storage supports resizing.  Relative URLs are relative
+     * to the host of the current request.
+     */
+    String getServingUrl(String key);
+
+    /**
+     * Write a range of the bytes of a stored blob to the given response, with
+     * its content type and length.  The status and any range or caching
+     * headers are left to the caller.
+     *
+     * @param blob   Stored blob to serve.
+     * @param offset Offset of the first byte to serve.
+     * @param length Number of bytes to serve.
+     * @param resp   Response to write the blob to.
+     * @throws IOException Failed to read the blob or write the response.
+     */
+    void serve(StoredBlob blob, long offset, long length, HttpServletResponse resp)
+            throws IOException;
+
+    /**
+     * @param key Key of the blob to delete.
+     */
+    void delete(String key);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+/**
+ * Provides the BlobStorage configured for this process.  The Blobstore is
+ * used unless the system property photohunt.blobStorage is set to "local",
+ * in which case blobs are kept on local disk, in the directory named by
+ * photohunt.blobStorage.dir.
+ */
+public class BlobStorageFactory {
+
+    private static final String LOCAL = "local";
+
+    private static final String DEFAULT_LOCAL_DIR = "WEB-INF/blobs";
+
+    private static BlobStorage storage;
+
+    /**
+     * @return The BlobStorage configured for this process.
+     */
+    public static synchronized BlobStorage getBlobStorage() {
+        if (storage == null) {
+            if (LOCAL.equals(System.getProperty("photohunt.blobStorage"))) {
+                storage = new LocalFileStorage(
+                        System.getProperty("photohunt.blobStorage.dir", DEFAULT_LOCAL_DIR));
+            } else {
+                storage = new BlobstoreStorage();
+            }
+        }
+        return storage;
+    }
+}
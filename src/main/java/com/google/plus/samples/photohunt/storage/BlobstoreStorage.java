@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.ByteRange;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ServingUrlOptions;
+import com.google.appengine.api.utils.SystemProperty;
+
+/**
+ * BlobStorage backed by the App Engine Blobstore.  Uploads go through
+ * Blobstore upload URLs, and images are served and resized by the images
+ * service.
+ */
+public class BlobstoreStorage implements BlobStorage {
+
+    private final BlobstoreService blobstoreService =
+            BlobstoreServiceFactory.getBlobstoreService();
+
+    private final ImagesService images = ImagesServiceFactory.getImagesService();
+
+    @Override
+    public String createUploadUrl(String successPath) {
+        String uploadUrl = blobstoreService.createUploadUrl(successPath);
+
+        if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
+            String hostname = System.getProperty("development.hostname");
+
+            if (hostname != null) {
+                // modify the url to allow use with the development server
+                uploadUrl = uploadUrl.replace("localhost", hostname);
+            }
+        }
+        return uploadUrl;
+    }
+
+    @Override
+    public StoredBlob getUpload(HttpServletRequest req, String field) {
+        List<BlobInfo> uploads = blobstoreService.getBlobInfos(req).get(field);
+        if (uploads == null || uploads.isEmpty()) {
+            return null;
+        }
+        return toStoredBlob(uploads.get(0));
+    }
+
+    @Override
+    public StoredBlob getBlob(String key) {
+        BlobInfo info = new BlobInfoFactory().loadBlobInfo(new BlobKey(key));
+        return info == null ? null : toStoredBlob(info);
+    }
+
+    @Override
+    public String getServingUrl(String key) {
+        return images.getServingUrl(ServingUrlOptions.Builder
+                .withBlobKey(new BlobKey(key))
+                .secureUrl(true));
+    }
+
+    @Override
+    public void serve(StoredBlob blob, long offset, long length, HttpServletResponse resp)
+            throws IOException {
+        BlobKey blobKey = new BlobKey(blob.getKey());
+        if (offset == 0 && length == blob.getSize()) {
+            blobstoreService.serve(blobKey, resp);
+        } else {
+            // The Blobstore front end sends the bytes; ByteRange ends are
+            // inclusive.
+            blobstoreService.serve(blobKey, new ByteRange(offset, offset + length - 1), resp);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        blobstoreService.delete(new BlobKey(key));
+    }
+
+    private static StoredBlob toStoredBlob(BlobInfo info) {
+        return new StoredBlob(info.getBlobKey().getKeyString(), info.getContentType(),
+                info.getSize(), info.getMd5Hash(), info.getCreation());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * BlobStorage keeping blobs as files in a local directory, for running and
+ * benchmarking the image path off App Engine.  Uploads are posted straight
+ * to the success path and parsed there; blobs are served by BlobServlet at
+ * /blobs/{key}.  Images are served as uploaded: size options appended to
+ * serving URLs are ignored.
+ * <p/>
+ * Blobs are copied to the response through a fixed-size buffer; the servlet
+ * output stream gives no way to hand the file to the socket directly.
+ */
+public class LocalFileStorage implements BlobStorage {
+
+    /**
+     * Largest upload accepted, in bytes.
+     */
+    private static final long MAX_UPLOAD_BYTES = 32 * 1024 * 1024l;
+
+    /**
+     * Size of the buffer blobs are served through, in bytes.
+     */
+    private static final int SERVE_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Path under which BlobServlet serves blobs.
+     */
+    private static final String SERVING_PATH = "/blobs/";
+
+    /**
+     * Keys are generated, so anything else can't name a blob.  This also keeps
+     * keys from escaping the storage directory.
+     */
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{32}\\.[a-z]+");
+
+    private final File dir;
+
+    /**
+     * @param dir Directory to keep blobs in.  Created if it doesn't exist.
+     */
+    public LocalFileStorage(String dir) {
+        this.dir = new File(dir);
+        this.dir.mkdirs();
+    }
+
+    @Override
+    public String createUploadUrl(String successPath) {
+        return successPath;
+    }
+
+    @Override
+    public StoredBlob getUpload(HttpServletRequest req, String field) throws IOException {
+        MultipartUpload upload = new MultipartUpload(req.getInputStream(), req.getContentType());
+        while (upload.next()) {
+            if (field.equals(upload.getName()) && upload.getFilename() != null) {
+                return store(upload);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StoredBlob getBlob(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            return null;
+        }
+        File file = new File(dir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new StoredBlob(key, contentTypeOf(key), file.length(), null,
+                new Date(file.lastModified()));
+    }
+
+    @Override
+    public String getServingUrl(String key) {
+        return SERVING_PATH + key;
+    }
+
+    @Override
+    public void serve(StoredBlob blob, long offset, long length, HttpServletResponse resp)
+            throws IOException {
+        resp.setContentType(blob.getContentType());
+        resp.setContentLength((int) length);
+        OutputStream out = resp.getOutputStream();
+        RandomAccessFile file = new RandomAccessFile(new File(dir, blob.getKey()), "r");
+        try {
+            file.seek(offset);
+            byte[] buffer = new byte[(int) Math.min(SERVE_BUFFER_BYTES, Math.max(length, 1))];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Blob " + blob.getKey() + " ended early");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            return;
+        }
+        new File(dir, key).delete();
+    }
+
+    /**
+     * Write the body of the current part to a new blob, hashing it on the way.
+     */
+    private StoredBlob store(MultipartUpload upload) throws IOException {
+        String key = UUID.randomUUID().toString().replace("-", "")
+                + extensionOf(upload.getContentType());
+        File partial = new File(dir, key + ".part");
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long size;
+        OutputStream out = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial)), md5);
+        try {
+            size = upload.copyBody(out, MAX_UPLOAD_BYTES);
+        } catch (IOException e) {
+            out.close();
+            partial.delete();
+            throw e;
+        }
+        out.close();
+        if (size == 0) {
+            partial.delete();
+            return null;
+        }
+
+        File file = new File(dir, key);
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Failed to store upload " + key);
+        }
+        return new StoredBlob(key, contentTypeOf(key), size, toHex(md5.digest()),
+                new Date(file.lastModified()));
+    }
+
+    private static String extensionOf(String contentType) {
+        if ("image/jpeg".equals(contentType) || "image/jpg".equals(contentType)
+                || "image/pjpeg".equals(contentType)) {
+            return ".jpg";
+        }
+        if ("image/png".equals(contentType)) {
+            return ".png";
+        }
+        if ("image/gif".equals(contentType)) {
+            return ".gif";
+        }
+        if ("image/webp".equals(contentType)) {
+            return ".webp";
+        }
+        return ".bin";
+    }
+
+    private static String contentTypeOf(String key) {
+        if (key.endsWith(".jpg")) {
+            return "image/jpeg";
+        }
+        if (key.endsWith(".png")) {
+            return "image/png";
+        }
+        if (key.endsWith(".gif")) {
+            return "image/gif";
+        }
+        if (key.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
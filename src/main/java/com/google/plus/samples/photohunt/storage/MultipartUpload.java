@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal streaming reader of multipart/form-data request bodies, enough to
+ * pull a single file field out of an image upload without buffering it.
+ */
+class MultipartUpload {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+
+    private final InputStream in;
+
+    private final byte[] delimiter;
+
+    private boolean done;
+
+    /**
+     * True while the body of the current part hasn't been read.
+     */
+    private boolean inBody;
+
+    /**
+     * Headers of the current part.
+     */
+    private String name;
+
+    private String filename;
+
+    private String contentType;
+
+    /**
+     * @param in          Request body.
+     * @param contentType Content type of the request.
+     * @throws IOException The request is not multipart/form-data.
+     */
+    MultipartUpload(InputStream in, String contentType) throws IOException {
+        String boundary = getParameter(contentType, "boundary");
+        if (contentType == null || !contentType.toLowerCase().startsWith("multipart/")
+                || boundary == null) {
+            throw new IOException("Not a multipart request: " + contentType);
+        }
+        this.in = new BufferedInputStream(in);
+        this.delimiter = ("\r\n--" + boundary).getBytes(ISO_8859_1);
+        // The first delimiter isn't preceded by a line break.
+        byte[] first = ("--" + boundary).getBytes(ISO_8859_1);
+        if (!copyUntil(first, null)) {
+            done = true;
+        }
+    }
+
+    /**
+     * Advance to the next part.  The body of the current part is skipped if
+     * it hasn't been read.
+     *
+     * @return True if there is a next part.
+     * @throws IOException Failed to read the request.
+     */
+    boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        if (inBody) {
+            copyBody(null, Long.MAX_VALUE);
+        }
+        int first = in.read();
+        int second = in.read();
+        if (first == '-' && second == '-') {
+            done = true;
+            return false;
+        }
+        if (first != '\r' || second != '\n') {
+            throw new IOException("Malformed multipart delimiter");
+        }
+        name = null;
+        filename = null;
+        contentType = null;
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            String lower = header.toLowerCase();
+            if (lower.startsWith("content-disposition:")) {
+                name = getParameter(header, "name");
+                filename = getParameter(header, "filename");
+            } else if (lower.startsWith("content-type:")) {
+                contentType = header.substring("content-type:".length()).trim();
+            }
+        }
+        inBody = true;
+        return true;
+    }
+
+    /**
+     * Copy the body of the current part, leaving the stream at the following
+     * delimiter.
+     *
+     * @param out      Stream to copy the body to, or null to skip it.
+     * @param maxBytes Largest body accepted.
+     * @return Number of bytes in the body.
+     * @throws IOException Failed to read the request or to write the body, or
+     *                     the body is too large.
+     */
+    long copyBody(OutputStream out, long maxBytes) throws IOException {
+        inBody = false;
+        CountingStream counter = new CountingStream(out, maxBytes);
+        if (!copyUntil(delimiter, counter)) {
+            throw new IOException("Truncated multipart request");
+        }
+        return counter.count;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Copy bytes until the given delimiter, which is consumed but not copied.
+     * A partial match may overlap the real delimiter, as in "---boundary"
+     * for the first delimiter "--boundary", so on a mismatch the match falls
+     * back to its longest suffix that is also a prefix of the delimiter
+     * (Knuth-Morris-Pratt) and only the bytes before that suffix are copied.
+     *
+     * @return False if the stream ended before the delimiter.
+     */
+    private boolean copyUntil(byte[] until, OutputStream out) throws IOException {
+        int[] fallback = prefixFunction(until);
+        int matched = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            while (matched > 0 && b != (until[matched] & 0xff)) {
+                int next = fallback[matched - 1];
+                if (out != null) {
+                    out.write(until, 0, matched - next);
+                }
+                matched = next;
+            }
+            if (b == (until[matched] & 0xff)) {
+                if (++matched == until.length) {
+                    return true;
+                }
+            } else if (out != null) {
+                out.write(b);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pattern Bytes to search for.
+     * @return For each prefix of the pattern, the length of its longest
+     * proper suffix that is also a prefix of the pattern.
+     */
+    private static int[] prefixFunction(byte[] pattern) {
+        int[] fallback = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = fallback[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+        return fallback;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1 || line.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Malformed multipart headers");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), ISO_8859_1);
+    }
+
+    /**
+     * @param header Header value with parameters, such as a content type.
+     * @param name   Name of the parameter to get.
+     * @return Value of the parameter, without quotes, or null if it is absent.
+     */
+    private static String getParameter(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+        for (String param : header.split(";")) {
+            int equals = param.indexOf('=');
+            if (equals > 0 && param.substring(0, equals).trim().equalsIgnoreCase(name)) {
+                String value = param.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts and limits the bytes written through it.
+     */
+    private static class CountingStream extends OutputStream {
+        private final OutputStream out;
+        private final long maxBytes;
+        private long count;
+
+        CountingStream(OutputStream out, long maxBytes) {
+            this.out = out;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (++count > maxBytes) {
+                throw new IOException("Upload larger than " + maxBytes + " bytes");
+            }
+            if (out != null) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+            if (count > maxBytes) {
+                throw new IOException("Upload larger than " + maxBytes + " bytes");
+            }
+            if (out != null) {
+                out.write(b, off, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import java.util.Date;
+
+/**
+ * Description of a blob held by a BlobStorage.
+ */
+public class StoredBlob {
+
+    private final String key;
+
+    private final String contentType;
+
+    private final long size;
+
+    private final String md5Hash;
+
+    private final Date created;
+
+    /**
+     * @param key         Key of the blob in its storage.
+     * @param contentType MIME type of the blob.
+     * @param size        Size of the blob in bytes.
+     * @param md5Hash     Hex MD5 hash of the blob, or null if unknown.
+     * @param created     Date the blob was stored.
+     */
+    public StoredBlob(String key, String contentType, long size, String md5Hash,
+                      Date created) {
+        this.key = key;
+        this.contentType = contentType;
+        this.size = size;
+        this.md5Hash = md5Hash;
+        this.created = created;
+    }
+
+    /**
+     * Gets key.
+     *
+     * @return the key of the blob in its storage
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets content type.
+     *
+     * @return the MIME type of the blob
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Gets size.
+     *
+     * @return the size of the blob in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets md5 hash.
+     *
+     * @return the hex MD5 hash of the blob, or null if unknown
+     */
+    public String getMd5Hash() {
+        return md5Hash;
+    }
+
+    /**
+     * Gets created.
+     *
+     * @return the date the blob was stored
+     */
+    public Date getCreated() {
+        return created;
+    }
+}
@@ -54,7 +54,7 @@ angular.module('photoHunt.services', [])
         },
         getAllPhotosByTheme: function(themeId) {
           return $http.get(Conf.apiBase + 'photos',
-              {params: {'themeId': themeId}});
+              {params: {'themeId': themeId, 'view': 'card'}});
         },
         getPhoto: function(photoId) {
           return $http.get(Conf.apiBase + 'photos', {params:
@@ -62,14 +62,15 @@ angular.module('photoHunt.services', [])
         },
         getUserPhotosByTheme: function(themeId) {
           return $http.get(Conf.apiBase + 'photos', {params: 
-              {'themeId': themeId, 'userId': 'me'}});
+              {'themeId': themeId, 'userId': 'me', 'view': 'card'}});
         },
         getFriends: function () {
           return $http.get(Conf.apiBase + 'friends');
         },
         getFriendsPhotosByTheme: function(themeId) {
           return $http.get(Conf.apiBase + 'photos', {params:
-              {'themeId': themeId, 'userId': 'me', 'friends': 'true'}});
+              {'themeId': themeId, 'userId': 'me', 'friends': 'true',
+               'view': 'card'}});
         },
         deletePhoto: function(photoId) {
           return $http.delete(Conf.apiBase + 'photos', {params:
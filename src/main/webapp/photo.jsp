@@ -18,7 +18,6 @@
 <%@ page contentType="text/html;charset=UTF-8" language="java"%>
 <%@ page import="javax.servlet.http.HttpServletRequest"%>
 <%@ page import="com.google.plus.samples.photohunt.model.Photo"%>
-<%@ page import="static com.google.plus.samples.photohunt.model.OfyService.ofy"%>
 <%@ page import="java.util.List"%>
 <%
 
@@ -29,7 +28,7 @@ String description = "";
 String photoId = request.getParameter("photoId");
 String redirectUrl = "/index.html?photoId=" + photoId;
 
-Photo photo = ofy().load().type(Photo.class).id(Long.parseLong(photoId)).get();
+Photo photo = Photo.load(Long.parseLong(photoId));
 if (photo != null) {
   name = "Photo by " + photo.getOwnerDisplayName() + " for " +
       photo.getThemeDisplayName() + " | Photo Hunt";
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.standalone;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * App Engine environment of a request served by StandaloneServer.  The App
+ * Engine services look it up for every call; a fresh one is set per request,
+ * as the App Engine runtime does, because services keep per-request state in
+ * its attributes.
+ */
+class StandaloneEnvironment implements ApiProxy.Environment {
+
+    static final String APP_ID = "photohunt";
+
+    /**
+     * Deadline of a request, as on App Engine front ends.
+     */
+    private static final long REQUEST_DEADLINE_MILLIS = 60 * 1000;
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    private final long deadline = System.currentTimeMillis() + REQUEST_DEADLINE_MILLIS;
+
+    /**
+     * @param hostname Host and port the server listens on.
+     */
+    StandaloneEnvironment(String hostname) {
+        attributes.put("com.google.appengine.runtime.default_version_hostname", hostname);
+    }
+
+    @Override
+    public String getAppId() {
+        return APP_ID;
+    }
+
+    @Override
+    public String getModuleId() {
+        return "default";
+    }
+
+    @Override
+    public String getVersionId() {
+        return "1.1";
+    }
+
+    @Override
+    public String getEmail() {
+        return null;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return false;
+    }
+
+    @Override
+    public boolean isAdmin() {
+        return false;
+    }
+
+    @Override
+    public String getAuthDomain() {
+        return "gmail.com";
+    }
+
+    @Override
+    @Deprecated
+    public String getRequestNamespace() {
+        return "";
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public long getRemainingMillis() {
+        return deadline - System.currentTimeMillis();
+    }
+}
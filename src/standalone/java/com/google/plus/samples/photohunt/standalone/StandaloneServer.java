@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import com.google.appengine.tools.development.ApiProxyLocal;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Runs PhotoHunt outside App Engine, on an embedded Jetty.  The servlets are
+ * wired from the app's own web.xml; the datastore, memcache and task queue
+ * are the local implementations of the App Engine SDK, running in process,
+ * and images are kept by the local file BlobStorage and served by
+ * BlobServlet.
+ * <p/>
+ * Run with: mvn -Pstandalone compile exec:java
+ * <p/>
+ * Tuned with the following system properties:
+ * photohunt.host: Interface to listen on, all of them by default.
+ * photohunt.port: Port to listen on, 8080 by default.
+ * photohunt.acceptors: Number of acceptor threads, 2 by default.
+ * photohunt.minThreads, photohunt.maxThreads: Bounds of the request thread
+ * pool, 8 and 200 by default.
+ * photohunt.webapp: Directory of the web app, src/main/webapp by default.
+ * photohunt.dataDir: Directory to keep the datastore and blobs in,
+ * target/standalone by default.
+ * photohunt.datastore.persist: Set to false to keep the datastore in memory
+ * only, as CI runs want.
+ * photohunt.blobStorage.dir: Directory to keep blobs in, overriding the one
+ * under photohunt.dataDir.
+ * photohunt.httpTransport: Transport of calls to Google APIs, net by
+ * default, see OutboundHttp.
+ * photohunt.repository: Set to memory to keep Photos, Votes, Users, Themes
+ * and friend edges in the in-memory repositories instead of the datastore.
+ * photohunt.adminUsers: Properties file of the users allowed into /admin/*,
+ * with lines of the form "name: password, admin".  Without it, every
+ * request to /admin/* is refused.
+ * <p/>
+ * On App Engine, the front end strips X-AppEngine-* headers from outside
+ * requests, and the task servlets rely on that.  Here they are stripped from
+ * every request that doesn't carry the task secret of
+ * StandaloneTaskCallback.  /admin/* is guarded with HTTP basic
+ * authentication against photohunt.adminUsers, standing in for App Engine's
+ * admin login.
+ */
+public class StandaloneServer {
+
+    private static final Logger log = Logger.getLogger(StandaloneServer.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ADMIN_REALM = "PhotoHunt Admin";
+
+    private static final String APP_ENGINE_HEADER_PREFIX = "x-appengine-";
+
+    public static void main(String[] args) throws Exception {
+        long startedAt = System.currentTimeMillis();
+
+        String host = System.getProperty("photohunt.host");
+        int port = Integer.getInteger("photohunt.port", 8080);
+        File dataDir = new File(System.getProperty("photohunt.dataDir", "target/standalone"));
+        String webapp = System.getProperty("photohunt.webapp", "src/main/webapp");
+        dataDir.mkdirs();
+
+        if (System.getProperty("photohunt.blobStorage") == null) {
+            System.setProperty("photohunt.blobStorage", "local");
+        }
+        if (System.getProperty("photohunt.blobStorage.dir") == null) {
+            System.setProperty("photohunt.blobStorage.dir",
+                    new File(dataDir, "blobs").getPath());
+        }
+        if (System.getProperty("photohunt.httpTransport") == null) {
+            // Call Google directly rather than through local URL Fetch.
+            System.setProperty("photohunt.httpTransport", "net");
+        }
+
+        final ApiProxyLocal services = startServices(dataDir, webapp);
+        final String hostname = (host == null ? "localhost" : host) + ":" + port;
+
+        QueuedThreadPool threads = new QueuedThreadPool(Integer.getInteger("photohunt.maxThreads", 200));
+        threads.setMinThreads(Integer.getInteger("photohunt.minThreads", 8));
+        threads.setName("photohunt");
+        final Server server = new Server();
+        server.setThreadPool(threads);
+
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost(host);
+        connector.setPort(port);
+        connector.setAcceptors(Integer.getInteger("photohunt.acceptors", 2));
+        server.addConnector(connector);
+
+        WebAppContext context = new WebAppContext(webapp, "/");
+        // Classes come from the launcher's class path rather than WEB-INF.
+        context.setParentLoaderPriority(true);
+        // No annotation or TLD scanning; the app declares everything in
+        // web.xml and its JSPs use no tag libraries.
+        context.setConfigurationClasses(new String[] {
+                "org.eclipse.jetty.webapp.WebInfConfiguration",
+                "org.eclipse.jetty.webapp.WebXmlConfiguration",
+                "org.eclipse.jetty.webapp.JettyWebXmlConfiguration"});
+        // web.xml has no login-config; App Engine signs admins in itself.
+        HashLoginService admins = new HashLoginService(ADMIN_REALM,
+                System.getProperty("photohunt.adminUsers"));
+        context.getSecurityHandler().setLoginService(admins);
+        context.getSecurityHandler().setAuthenticator(new BasicAuthenticator());
+        context.getSecurityHandler().setRealmName(ADMIN_REALM);
+
+        HandlerWrapper withEnvironment = new HandlerWrapper() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                    HttpServletResponse response) throws IOException, ServletException {
+                if (!isTask(request)) {
+                    stripAppEngineHeaders(baseRequest);
+                }
+                ApiProxy.setEnvironmentForCurrentThread(new StandaloneEnvironment(hostname));
+                try {
+                    super.handle(target, baseRequest, request, response);
+                } finally {
+                    ApiProxy.clearEnvironmentForCurrentThread();
+                }
+            }
+        };
+        withEnvironment.setHandler(context);
+        server.setHandler(withEnvironment);
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to stop the server", e);
+                }
+                // Writes the datastore out when it is persisted.
+                services.stop();
+            }
+        });
+
+        server.start();
+        log.info("PhotoHunt started on port " + port + " in "
+                + (System.currentTimeMillis() - startedAt) + "ms");
+        server.join();
+    }
+
+    /**
+     * @param request Request received.
+     * @return True if the request carries the task secret, so that it comes
+     * from StandaloneTaskCallback.
+     */
+    private static boolean isTask(HttpServletRequest request) {
+        String secret = request.getHeader(StandaloneTaskCallback.SECRET_HEADER);
+        return secret != null && MessageDigest.isEqual(secret.getBytes(UTF_8),
+                StandaloneTaskCallback.SECRET.getBytes(UTF_8));
+    }
+
+    /**
+     * Remove the X-AppEngine-* headers of the given request, which only
+     * App Engine may set.
+     */
+    private static void stripAppEngineHeaders(Request baseRequest) {
+        HttpFields fields = baseRequest.getConnection().getRequestFields();
+        List<String> names = new ArrayList<String>(fields.getFieldNamesCollection());
+        for (String name : names) {
+            if (name.toLowerCase(Locale.ENGLISH).startsWith(APP_ENGINE_HEADER_PREFIX)) {
+                fields.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Install the local App Engine services for the whole process.
+     */
+    private static ApiProxyLocal startServices(File dataDir, String webapp) {
+        LocalDatastoreServiceTestConfig datastore = new LocalDatastoreServiceTestConfig()
+                // Jobs always apply, so queries see writes as they do on a
+                // single instance.
+                .setDefaultHighRepJobPolicyUnappliedJobPercentage(0);
+        if (Boolean.parseBoolean(System.getProperty("photohunt.datastore.persist", "true"))) {
+            datastore.setNoStorage(false)
+                    .setBackingStoreLocation(new File(dataDir, "local_db.bin").getPath());
+        }
+
+        // Push tasks run against the embedded server, as they do on App Engine.
+        LocalTaskQueueTestConfig taskQueue = new LocalTaskQueueTestConfig()
+                .setDisableAutoTaskExecution(false)
+                .setCallbackClass(StandaloneTaskCallback.class);
+        File queueXml = new File(webapp, "WEB-INF/queue.xml");
+        if (queueXml.isFile()) {
+            taskQueue.setQueueXmlPath(queueXml.getPath());
+        }
+
+        new LocalServiceTestHelper(datastore, new LocalMemcacheServiceTestConfig(), taskQueue)
+                .setEnvAppId(StandaloneEnvironment.APP_ID)
+                .setUp();
+        return (ApiProxyLocal) ApiProxy.getDelegate();
+    }
+}
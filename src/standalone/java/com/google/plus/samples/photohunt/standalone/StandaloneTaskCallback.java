@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.standalone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueueCallback;
+import com.google.appengine.api.urlfetch.URLFetchServicePb.URLFetchRequest;
+
+/**
+ * Runs push tasks of the local task queue by sending them to the embedded
+ * server, the way App Engine sends them to the app.  Only the path of a
+ * task's URL is kept; the host and port are those StandaloneServer listens
+ * on.
+ * <p/>
+ * Each task carries a secret drawn once per process, from which
+ * StandaloneServer tells tasks from outside requests, the way the App Engine
+ * front end does.
+ */
+public class StandaloneTaskCallback implements LocalTaskQueueCallback {
+
+    /**
+     * Header carrying SECRET on the requests of tasks.
+     */
+    static final String SECRET_HEADER = "X-PhotoHunt-Task-Secret";
+
+    static final String SECRET = new BigInteger(130, new SecureRandom()).toString(32);
+
+    @Override
+    public void initialize(Map<String, String> properties) {
+    }
+
+    @Override
+    public int execute(URLFetchRequest request) {
+        try {
+            URL task = new URL(request.getUrl());
+            URL url = new URL("http", "127.0.0.1", Integer.getInteger("photohunt.port", 8080),
+                    task.getFile());
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(request.getMethod().name());
+            for (URLFetchRequest.Header header : request.headers()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setRequestProperty(SECRET_HEADER, SECRET);
+            if (request.hasPayload()) {
+                connection.setDoOutput(true);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write(request.getPayloadAsBytes());
+                } finally {
+                    out.close();
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (in != null) {
+                in.close();
+            }
+            return status;
+        } catch (IOException e) {
+            // Let the queue retry the task.
+            return 500;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Checks that the generated type adapters write the same JSON as Gson's
+ * reflective serialization.
+ */
+public class GeneratedTypeAdapterTest {
+    private static final Date CREATED = new Date(1370000000000L);
+
+    private static final Date START = new Date(1370086400000L);
+
+    private static void assertParity(Object value) {
+        assertEquals(Jsonifiable.REFLECTIVE_GSON.toJson(value), Jsonifiable.GSON.toJson(value));
+    }
+
+    @Test
+    public void photo() {
+        Photo photo = Jsonifiable.REFLECTIVE_GSON.fromJson("{\"id\":7,\"ownerUserId\":3,"
+                + "\"ownerDisplayName\":\"Owner\",\"ownerProfileUrl\":\"http://plus/3\","
+                + "\"ownerProfilePhoto\":\"http://plus/3.jpg\",\"themeId\":5,"
+                + "\"themeDisplayName\":\"Beach\",\"numVotes\":4,\"voted\":true,"
+                + "\"fullsizeUrl\":\"http://img/7\",\"thumbnailUrl\":\"http://img/7=s400\","
+                + "\"voteCtaUrl\":\"http://app/?photoId=7&action=VOTE\","
+                + "\"photoContentUrl\":\"http://app/photo.html?photoId=7\"}", Photo.class);
+        photo.setCreated(CREATED);
+        assertParity(photo);
+    }
+
+    @Test
+    public void unpreparedPhotoWritesStoredFields() {
+        Photo photo = new Photo();
+        photo.setOwnerUserId(3);
+        photo.setThemeId(5);
+        photo.setNumVotes(3);
+        assertParity(photo);
+        // The stored count is written as is; the vote query behind
+        // getNumVotes() is never run.
+        assertTrue(Jsonifiable.GSON.toJson(photo).contains("\"numVotes\":3"));
+    }
+
+    @Test
+    public void user() {
+        User user = Jsonifiable.REFLECTIVE_GSON.fromJson("{\"id\":3,\"email\":\"a@example.com\","
+                + "\"googleUserId\":\"1234\",\"googleDisplayName\":\"Owner\","
+                + "\"googlePublicProfileUrl\":\"http://plus/3\","
+                + "\"googlePublicProfilePhotoUrl\":\"http://plus/3.jpg\","
+                + "\"googleExpiresAt\":1370003600000}", User.class);
+        user.setGoogleAccessToken("access");
+        user.setGoogleRefreshToken("refresh");
+        assertParity(user);
+    }
+
+    @Test
+    public void theme() {
+        Theme theme = Jsonifiable.REFLECTIVE_GSON.fromJson(
+                "{\"id\":5,\"displayName\":\"Beach\",\"previewPhotoId\":7}", Theme.class);
+        theme.setCreated(CREATED);
+        theme.setStart(START);
+        assertParity(theme);
+    }
+
+    @Test
+    public void vote() {
+        Vote vote = Jsonifiable.REFLECTIVE_GSON.fromJson(
+                "{\"id\":11,\"ownerUserId\":3,\"photoId\":7}", Vote.class);
+        assertParity(vote);
+    }
+
+    @Test
+    public void message() {
+        assertParity(new Message("Vote recorded"));
+        assertParity(new Message(null));
+    }
+
+    @Test
+    public void uploadUrl() {
+        assertParity(new UploadUrl("http://upload/abc"));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Checks that MultipartUpload finds its delimiters wherever the reads of the
+ * request body split them, and copies partial matches as body bytes.
+ */
+public class MultipartUploadTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String BOUNDARY = "xYzZY";
+
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+
+    /**
+     * Returns at most one byte per read, so that every delimiter is split
+     * across reads.
+     */
+    private static class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static String body(String preamble, String... parts) {
+        StringBuilder body = new StringBuilder(preamble);
+        for (String part : parts) {
+            body.append("--").append(BOUNDARY).append("\r\n").append(part).append("\r\n");
+        }
+        return body.append("--").append(BOUNDARY).append("--\r\n").toString();
+    }
+
+    private static String filePart(String name, String content) {
+        return "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"a.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n" + content;
+    }
+
+    private static MultipartUpload upload(String body, boolean oneByteReads) throws IOException {
+        InputStream in = new ByteArrayInputStream(body.getBytes(ISO_8859_1));
+        return new MultipartUpload(oneByteReads ? new OneByteInputStream(in) : in, CONTENT_TYPE);
+    }
+
+    private static String readBody(MultipartUpload upload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = upload.copyBody(out, Long.MAX_VALUE);
+        assertEquals(out.size(), size);
+        return new String(out.toByteArray(), ISO_8859_1);
+    }
+
+    private static void assertSingleBody(String content, boolean oneByteReads)
+            throws IOException {
+        MultipartUpload upload = upload(body("", filePart("image", content)), oneByteReads);
+        assertTrue(upload.next());
+        assertEquals(content, readBody(upload));
+        assertFalse(upload.next());
+    }
+
+    @Test
+    public void readsPartHeadersAndBody() throws IOException {
+        MultipartUpload upload = upload(body("",
+                "Content-Disposition: form-data; name=\"title\"\r\n\r\nBeach",
+                filePart("image", "JPEG")), false);
+        assertTrue(upload.next());
+        assertEquals("title", upload.getName());
+        assertNull(upload.getFilename());
+        assertTrue(upload.next());
+        assertEquals("image", upload.getName());
+        assertEquals("a.jpg", upload.getFilename());
+        assertEquals("image/jpeg", upload.getContentType());
+        assertEquals("JPEG", readBody(upload));
+        assertFalse(upload.next());
+    }
+
+    @Test
+    public void delimitersSplitAcrossReads() throws IOException {
+        MultipartUpload upload = upload(body("preamble\r\n",
+                "Content-Disposition: form-data; name=\"title\"\r\n\r\nBeach",
+                filePart("image", "JPEG")), true);
+        assertTrue(upload.next());
+        assertEquals("title", upload.getName());
+        // The unread body is skipped.
+        assertTrue(upload.next());
+        assertEquals("image", upload.getName());
+        assertEquals("JPEG", readBody(upload));
+        assertFalse(upload.next());
+    }
+
+    @Test
+    public void partialDelimiterIsCopied() throws IOException {
+        for (boolean oneByteReads : new boolean[]{false, true}) {
+            assertSingleBody("a\r\n--xYzZ", oneByteReads);
+            assertSingleBody("\r\n--xYzZX\r\n--xY", oneByteReads);
+            assertSingleBody("a\r\n-", oneByteReads);
+        }
+    }
+
+    @Test
+    public void partialDelimiterOverlappingTheDelimiter() throws IOException {
+        for (boolean oneByteReads : new boolean[]{false, true}) {
+            // The mismatch falls back into a match that ends at the delimiter.
+            assertSingleBody("a\r", oneByteReads);
+            assertSingleBody("a\r\n-\r", oneByteReads);
+            assertSingleBody("a\r\n--xYzZ\r", oneByteReads);
+        }
+    }
+
+    @Test
+    public void firstDelimiterAfterDash() throws IOException {
+        MultipartUpload upload = upload(body("-", filePart("image", "JPEG")), true);
+        assertTrue(upload.next());
+        assertEquals("JPEG", readBody(upload));
+    }
+
+    @Test
+    public void truncatedBody() throws IOException {
+        MultipartUpload upload = upload("--" + BOUNDARY + "\r\n" + filePart("image", "JPEG\r\n--xY"),
+                true);
+        assertTrue(upload.next());
+        try {
+            readBody(upload);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Truncated multipart request", e.getMessage());
+        }
+    }
+
+    @Test
+    public void bodyLargerThanLimit() throws IOException {
+        MultipartUpload upload = upload(body("", filePart("image", "JPEG")), false);
+        assertTrue(upload.next());
+        try {
+            upload.copyBody(null, 3);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Upload larger than 3 bytes", e.getMessage());
+        }
+    }
+}
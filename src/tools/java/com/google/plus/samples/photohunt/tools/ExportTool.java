@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Exports a PhotoHunt deployment to an NDJSON file by following the cursors
+ * of /admin/export, as described in ExportServlet.
+ * <p/>
+ * Built by the tools profile, and run with:
+ * mvn -Ptools compile exec:java
+ * -Dexec.mainClass=com.google.plus.samples.photohunt.tools.ExportTool
+ * -Dexec.args="BASE_URL FILE"
+ * <p/>
+ * For example http://localhost:8080 backup.ndjson.  The file is appended to
+ * one chunk at a time, only after the chunk's cursor line arrives, so it
+ * always ends at a cursor line or the done line.  A failed request is
+ * retried from the last cursor, and running the tool again on an unfinished
+ * file resumes it the same way.
+ * <p/>
+ * Tuned with the following system properties:
+ * photohunt.cookie: Cookie header to send, such as the SACSID cookie of an
+ * administrator's session on App Engine.
+ * photohunt.retries: Failed requests in a row before giving up, 5 by
+ * default.
+ */
+public class ExportTool {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Delay before retrying a failed request, in milliseconds.
+     */
+    private static final long RETRY_DELAY_MS = 2000l;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ExportTool BASE_URL FILE");
+            System.exit(2);
+        }
+        String baseUrl = args[0].replaceAll("/+$", "");
+        File file = new File(args[1]);
+        int maxRetries = Integer.getInteger("photohunt.retries", 5);
+
+        Checkpoint checkpoint = Checkpoint.read(file);
+        if (checkpoint.done) {
+            System.out.println(file + " holds a complete export.");
+            return;
+        }
+        // Drop whatever follows the last cursor line of an interrupted run.
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.getChannel().truncate(checkpoint.length);
+        Writer out = new OutputStreamWriter(stream, UTF8);
+
+        long startedAt = System.currentTimeMillis();
+        long entities = 0;
+        String cursor = checkpoint.cursor;
+        int failures = 0;
+        boolean done = false;
+        try {
+            while (!done) {
+                URL url = new URL(baseUrl + "/admin/export"
+                        + (cursor == null ? "" : "?cursor=" + URLEncoder.encode(cursor, "UTF-8")));
+                StringBuilder chunk = new StringBuilder();
+                int chunkEntities = 0;
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                    if (System.getProperty("photohunt.cookie") != null) {
+                        connection.setRequestProperty("Cookie", System.getProperty("photohunt.cookie"));
+                    }
+                    if (connection.getResponseCode() != 200) {
+                        throw new IOException(url + " answered " + connection.getResponseCode());
+                    }
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(connection.getInputStream(), UTF8));
+                    try {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            chunk.append(line).append('\n');
+                            if (line.startsWith("{\"kind\"")) {
+                                chunkEntities++;
+                                continue;
+                            }
+                            JsonObject marker = parseMarker(line);
+                            if (marker.has("done")) {
+                                done = true;
+                            } else {
+                                cursor = marker.get("cursor").getAsString();
+                            }
+                            // The chunk is complete; keep it.
+                            out.write(chunk.toString());
+                            out.flush();
+                            chunk.setLength(0);
+                            entities += chunkEntities;
+                            chunkEntities = 0;
+                            failures = 0;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    if (++failures > maxRetries) {
+                        throw e;
+                    }
+                    System.err.println("Retrying from the last cursor: " + e.getMessage());
+                    Thread.sleep(RETRY_DELAY_MS);
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+                System.out.println(entities + " entities exported, "
+                        + (entities * 1000 / elapsed) + "/s");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param line Cursor or done line.
+     * @return The line's JSON object.
+     * @throws IOException The line is not a complete JSON object, as when the
+     *                     response was cut short.
+     */
+    private static JsonObject parseMarker(String line) throws IOException {
+        try {
+            return new JsonParser().parse(line).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed line: " + line, e);
+        }
+    }
+
+    /**
+     * Where an export file left off.
+     */
+    private static class Checkpoint {
+
+        /**
+         * Bytes of the file up to and including its last cursor line.
+         */
+        long length;
+
+        /**
+         * Last cursor of the file, or null if it has none.
+         */
+        String cursor;
+
+        /**
+         * True if the file ends with a done line.
+         */
+        boolean done;
+
+        /**
+         * Scan the given export file, one line at a time.
+         */
+        static Checkpoint read(File file) throws IOException {
+            Checkpoint checkpoint = new Checkpoint();
+            if (!file.exists()) {
+                return checkpoint;
+            }
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), UTF8));
+            try {
+                long position = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    position += line.getBytes(UTF8).length + 1;
+                    if (line.startsWith("{\"kind\"")) {
+                        continue;
+                    }
+                    JsonObject marker;
+                    try {
+                        marker = parseMarker(line);
+                    } catch (IOException e) {
+                        // Cut short by an interrupted run.
+                        break;
+                    }
+                    checkpoint.length = position;
+                    if (marker.has("done")) {
+                        checkpoint.done = true;
+                    } else {
+                        checkpoint.cursor = marker.get("cursor").getAsString();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            return checkpoint;
+        }
+    }
+}
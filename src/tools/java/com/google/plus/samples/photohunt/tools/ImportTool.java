@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.photohunt.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Imports an NDJSON export file into a PhotoHunt deployment by posting it to
+ * /admin/import a part at a time, as described in ImportServlet.
+ * <p/>
+ * Built by the tools profile, and run with:
+ * mvn -Ptools compile exec:java
+ * -Dexec.mainClass=com.google.plus.samples.photohunt.tools.ImportTool
+ * -Dexec.args="BASE_URL FILE"
+ * <p/>
+ * The file is read one line at a time, and only one part is held in memory.
+ * A failed part is sent again; entities it stored already are skipped.  The
+ * import ID is printed at the start, and running the tool again with it
+ * resumes the import, skipping what was imported.  Progress and throughput
+ * are printed after each part.
+ * <p/>
+ * Tuned with the following system properties:
+ * photohunt.importId: Import to resume, a new one by default.
+ * photohunt.cookie: Cookie header to send, such as the SACSID cookie of an
+ * administrator's session on App Engine.
+ * photohunt.partLines: Lines posted per request, 5000 by default.
+ * photohunt.retries: Failed requests in a row before giving up, 5 by
+ * default.
+ */
+public class ImportTool {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Delay before retrying a failed request, in milliseconds.
+     */
+    private static final long RETRY_DELAY_MS = 2000l;
+
+    private final String importUrl;
+
+    private final int maxRetries = Integer.getInteger("photohunt.retries", 5);
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private long imported;
+
+    private long existing;
+
+    private long skipped;
+
+    private ImportTool(String baseUrl, String importId) throws IOException {
+        importUrl = baseUrl.replaceAll("/+$", "") + "/admin/import?importId="
+                + URLEncoder.encode(importId, "UTF-8");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ImportTool BASE_URL FILE");
+            System.exit(2);
+        }
+        File file = new File(args[1]);
+        int partLines = Integer.getInteger("photohunt.partLines", 5000);
+        String importId = System.getProperty("photohunt.importId",
+                Long.toString(System.currentTimeMillis(), 36));
+        System.out.println("Import ID: " + importId);
+        ImportTool tool = new ImportTool(args[0], importId);
+
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            ByteArrayOutputStream part = new ByteArrayOutputStream();
+            int lines = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("{\"kind\"")) {
+                    // Cursor and done lines mean nothing to an import.
+                    continue;
+                }
+                part.write(line.getBytes(UTF8));
+                part.write('\n');
+                if (++lines == partLines) {
+                    tool.post("", part.toByteArray());
+                    part.reset();
+                    lines = 0;
+                }
+            }
+            if (lines > 0) {
+                tool.post("", part.toByteArray());
+            }
+        } finally {
+            in.close();
+        }
+        tool.post("&finish=true", new byte[0]);
+        System.out.println("Import " + importId + " complete.");
+    }
+
+    /**
+     * Post a part of the file, retrying it until it goes through, and print
+     * the progress made.
+     */
+    private void post(String parameters, byte[] body) throws Exception {
+        int failures = 0;
+        while (true) {
+            try {
+                HttpURLConnection connection =
+                        (HttpURLConnection) new URL(importUrl + parameters).openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                connection.setRequestProperty("Content-Type", "application/x-ndjson; charset=UTF-8");
+                if (System.getProperty("photohunt.cookie") != null) {
+                    connection.setRequestProperty("Cookie", System.getProperty("photohunt.cookie"));
+                }
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.close();
+                if (connection.getResponseCode() != 200) {
+                    throw new IOException(importUrl + " answered " + connection.getResponseCode());
+                }
+                InputStreamReader reader = new InputStreamReader(connection.getInputStream(), UTF8);
+                JsonObject report;
+                try {
+                    report = new JsonParser().parse(reader).getAsJsonObject();
+                } finally {
+                    reader.close();
+                }
+                report(report);
+                return;
+            } catch (IOException e) {
+                if (++failures > maxRetries) {
+                    throw e;
+                }
+                System.err.println("Retrying part: " + e.getMessage());
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private void report(JsonObject report) {
+        for (Map.Entry<String, JsonElement> kind
+                : report.getAsJsonObject("imported").entrySet()) {
+            imported += kind.getValue().getAsLong();
+        }
+        existing += report.get("existing").getAsLong();
+        skipped += report.get("skipped").getAsLong();
+        long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+        System.out.println(imported + " entities imported (" + (imported * 1000 / elapsed)
+                + "/s), " + existing + " already imported, " + skipped + " skipped");
+    }
+}